@@ -0,0 +1,462 @@
+package analytics;
+
+import common.ConcentrationException;
+import common.LatencyHistogram;
+import game.CompactConcentrationBoard;
+import game.ConcentrationBoard;
+import game.GameBoard;
+import server.MoveJournal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Replays the games recorded in MoveJournal files and reports what they
+ * tell: how many moves the games of every dimension took to complete, how
+ * often a pair did not match, and how long the players took between two
+ * moves.  Every game seen from its first move is dealt again from its seed
+ * and its moves are played on the board, checking the board agrees with
+ * the outcome recorded.
+ *
+ * The files are replayed in parallel by a fork/join pool, one task per
+ * file, and streamed in chunks, so journals far larger than the memory are
+ * fine.  A game still going when a file ends is handed on to the merge
+ * with the files after it, which joins the moves it finds for the game
+ * there, e.g.
+ * <pre>
+ *     java server.ConcentrationServer 5000 4 --journal=moves
+ *     java analytics.JournalAnalyzer moves
+ * </pre>
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class JournalAnalyzer {
+    /** how to run the analyzer */
+    public static final String USAGE =
+            "Usage: java analytics.JournalAnalyzer <journal file or directory>... [--threads=n]";
+
+    /** the number of bytes read from a file at once, a whole number of records */
+    private static final int CHUNK = (1 << 20) / MoveJournal.RECORD * MoveJournal.RECORD;
+    /** the largest board ConcentrationBoard deals, larger ones are dealt as compact boards */
+    private static final int OBJECT_MAX_DIM = 6;
+
+    /**
+     * Identifies a game across the journal: the run of the server, the
+     * session and the seed of the board.
+     */
+    private static final class Key {
+        /** when the server started */
+        private long run;
+        /** the ID of the session, unique for the run */
+        private long session;
+        /** the seed of the board, unique for the session */
+        private long seed;
+
+        /**
+         * Copy the key, to store the key a lookup was done with.
+         *
+         * @return the copy
+         */
+        private Key copy() {
+            Key key = new Key();
+            key.run = this.run;
+            key.session = this.session;
+            key.seed = this.seed;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key
+                    && key.run == this.run && key.session == this.session && key.seed == this.seed;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.run * 31 + this.session) * 31 + Long.hashCode(this.seed);
+        }
+    }
+
+    /**
+     * A game as far as a part of the journal saw it.
+     */
+    private static final class Play {
+        /** the square dimension of the board */
+        private final int dim;
+        /** whether the part saw the first move of the game */
+        private final boolean headed;
+        /** the statistics of the dimension, of the file the game was first seen in */
+        private final JournalStats.Dim stats;
+        /** the board the moves are replayed on, null once they no longer can be */
+        private GameBoard board;
+        /** the number of moves seen */
+        private long moves;
+        /** when the first move seen was made, in nanoseconds since the epoch */
+        private long first;
+        /** when the last move seen was made, in nanoseconds since the epoch */
+        private long last;
+        /** whether the game ended */
+        private boolean over;
+
+        /**
+         * Create the game.
+         *
+         * @param dim the square dimension of the board
+         * @param headed whether its first move was seen
+         * @param stats the statistics of the dimension
+         * @param time when the first move seen was made
+         */
+        private Play(int dim, boolean headed, JournalStats.Dim stats, long time) {
+            this.dim = dim;
+            this.headed = headed;
+            this.stats = stats;
+            this.first = time;
+            this.last = time;
+        }
+    }
+
+    /**
+     * What a run of consecutive journal files found, with the games that
+     * may go on in the files before or after it.
+     */
+    private static final class Segment {
+        /** what the files found */
+        private final JournalStats stats = new JournalStats();
+        /** the games not over by the end of the files */
+        private final Map<Key, Play> open = new HashMap<>();
+        /** the games whose first move is not in the files */
+        private final Map<Key, Play> headless = new HashMap<>();
+    }
+
+    /**
+     * Replays a range of the journal files, splitting it in halves down to
+     * single files.
+     */
+    private static final class Replay extends RecursiveTask<Segment> {
+        /** never serialized, but RecursiveTask is Serializable */
+        private static final long serialVersionUID = 1L;
+
+        /** the journal files in the order they were written */
+        private final List<Path> files;
+        /** the first file of the range */
+        private final int from;
+        /** the end of the range, exclusive */
+        private final int to;
+
+        /**
+         * Create the task.
+         *
+         * @param files the journal files in the order they were written
+         * @param from the first file of the range
+         * @param to the end of the range, exclusive
+         */
+        private Replay(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Segment compute() {
+            if (this.to - this.from == 1) {
+                try {
+                    return read(this.files.get(this.from));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (this.from + this.to) >>> 1;
+            Replay left = new Replay(this.files, this.from, middle);
+            left.fork();
+            Segment right = new Replay(this.files, middle, this.to).compute();
+            return merge(left.join(), right);
+        }
+    }
+
+    /**
+     * Run the analyzer.
+     *
+     * @param args the journal files and directories, and the options
+     */
+    public static void main(String[] args) {
+        List<Path> files = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    files.addAll(journalFiles(Path.of(arg)));
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No journal files");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        // the names sort in the order the files were written
+        files.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Segment segment;
+        try {
+            segment = pool.invoke(new Replay(files, 0, files.size()));
+        } catch (UncheckedIOException e) {
+            System.err.println("Could not read the journal: " + e.getCause().getMessage());
+            System.exit(1);
+            return;
+        } finally {
+            pool.shutdown();
+        }
+        report(segment, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Get the journal files at a path.
+     *
+     * @param path a journal file, or a directory of them
+     * @return the journal files
+     * @throws IOException if the directory can not be listed
+     */
+    private static List<Path> journalFiles(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> listing = Files.list(path)) {
+            return listing.filter(file -> file.getFileName().toString().endsWith(MoveJournal.SUFFIX)).toList();
+        }
+    }
+
+    /**
+     * Replay one journal file, a chunk at a time.  A record cut short at
+     * the end of the file, by a server that died while writing it, is
+     * ignored.
+     *
+     * @param path the file
+     * @return what it found
+     * @throws IOException if the file can not be read or is not a journal
+     */
+    private static Segment read(Path path) throws IOException {
+        Segment segment = new Segment();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(MoveJournal.HEADER);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            if (header.position() < MoveJournal.HEADER || header.getInt(0) != MoveJournal.MAGIC
+                    || header.getShort(4) != MoveJournal.VERSION || header.getShort(6) != MoveJournal.RECORD) {
+                throw new IOException("Not a journal file: " + path);
+            }
+            Key key = new Key();
+            key.run = header.getLong(8);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK);
+            boolean end = false;
+            while (!end) {
+                end = channel.read(chunk) < 0;
+                chunk.flip();
+                while (chunk.remaining() >= MoveJournal.RECORD) {
+                    replay(segment, key, chunk);
+                }
+                chunk.compact();
+            }
+            segment.stats.files = 1;
+            segment.stats.bytes = channel.size();
+        }
+        return segment;
+    }
+
+    /**
+     * Replay one record.
+     *
+     * @param segment what the file found so far
+     * @param key the key of the file's run, to look the game up with
+     * @param chunk the buffer at the record, moved past it
+     */
+    private static void replay(Segment segment, Key key, ByteBuffer chunk) {
+        int pos = chunk.position();
+        chunk.position(pos + MoveJournal.RECORD);
+        key.session = chunk.getLong(pos + MoveJournal.SESSION_OFFSET);
+        key.seed = chunk.getLong(pos + MoveJournal.SEED_OFFSET);
+        long time = chunk.getLong(pos + MoveJournal.TIME_OFFSET);
+        int cell = chunk.getInt(pos + MoveJournal.CELL_OFFSET);
+        int dim = chunk.getShort(pos + MoveJournal.DIM_OFFSET);
+        int outcome = chunk.get(pos + MoveJournal.OUTCOME_OFFSET);
+        int flags = chunk.get(pos + MoveJournal.FLAGS_OFFSET);
+        JournalStats stats = segment.stats;
+        ++stats.records;
+
+        Play play = segment.open.get(key);
+        if (play == null) {
+            boolean headed = (flags & MoveJournal.FLAG_FIRST_MOVE) != 0;
+            play = new Play(dim, headed, stats.dim(dim), time);
+            Key stored = key.copy();
+            segment.open.put(stored, play);
+            if (headed) {
+                play.board = deal(dim, key.seed);
+                if (play.board == null) {
+                    ++stats.diverged;
+                }
+            } else {
+                segment.headless.put(stored, play);
+            }
+        } else {
+            stats.gaps.record(time - play.last);
+            play.last = time;
+        }
+        ++play.moves;
+        ++play.stats.reveals;
+        if (outcome == GameBoard.MATCHED) {
+            ++play.stats.matches;
+        } else if (outcome == GameBoard.MISMATCHED) {
+            ++play.stats.mismatches;
+        }
+
+        boolean over = (flags & MoveJournal.FLAG_GAME_OVER) != 0;
+        if (play.board != null) {
+            boolean agrees;
+            try {
+                agrees = play.board.flip(cell / dim, cell % dim) == outcome && play.board.gameOver() == over;
+            } catch (ConcentrationException e) {
+                agrees = false;
+            }
+            if (agrees) {
+                ++stats.replayed;
+            } else {
+                ++stats.diverged;
+                play.board = null;
+            }
+        }
+        if (over) {
+            play.over = true;
+            segment.open.remove(key);
+            if (play.headed) {
+                finish(stats, play);
+            }
+        }
+    }
+
+    /**
+     * Deal again the board of a game.
+     *
+     * @param dim the square dimension of the board
+     * @param seed the seed of the board
+     * @return the board, null if the dimension is invalid
+     */
+    private static GameBoard deal(int dim, long seed) {
+        try {
+            return dim <= OBJECT_MAX_DIM
+                    ? new ConcentrationBoard(dim, false, seed)
+                    : new CompactConcentrationBoard(dim, false, true, seed);
+        } catch (ConcentrationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Count a game seen from its first move to its end.
+     *
+     * @param stats where to count it
+     * @param play the game
+     */
+    private static void finish(JournalStats stats, Play play) {
+        ++stats.games;
+        stats.dim(play.dim).moves.record(play.moves);
+    }
+
+    /**
+     * Merge what two runs of consecutive files found, the left one written
+     * before the right one.  A game the left one left open is joined with
+     * the moves the right one found for it without its first move.  Those
+     * moves were not replayed, the board did not have the moves before
+     * them.
+     *
+     * @param left the files written first
+     * @param right the files written next
+     * @return what both found
+     */
+    private static Segment merge(Segment left, Segment right) {
+        left.stats.merge(right.stats);
+        for (Map.Entry<Key, Play> entry : right.headless.entrySet()) {
+            Key key = entry.getKey();
+            Play after = entry.getValue();
+            Play before = left.open.remove(key);
+            if (before == null) {
+                left.headless.put(key, after);
+                continue;
+            }
+            right.open.remove(key);
+            left.stats.gaps.record(after.first - before.last);
+            before.moves += after.moves;
+            before.last = after.last;
+            before.over = after.over;
+            before.board = null;
+            if (!before.over) {
+                right.open.put(key, before);
+            } else if (before.headed) {
+                finish(left.stats, before);
+            }
+        }
+        left.open.putAll(right.open);
+        return left;
+    }
+
+    /**
+     * Print what the journal told.
+     *
+     * @param segment what the whole journal found
+     * @param seconds how long the replay took
+     */
+    private static void report(Segment segment, double seconds) {
+        JournalStats stats = segment.stats;
+        System.out.printf(Locale.ROOT, "files       %d, %.1f MB, %d records in %.2fs, %.0f records/s%n",
+                stats.files, stats.bytes / 1e6, stats.records, seconds, stats.records / seconds);
+        System.out.printf(Locale.ROOT, "games       %d complete, %d unfinished, %d started before the journal,"
+                        + " %d diverged%n",
+                stats.games, segment.open.size(), segment.headless.size(), stats.diverged);
+        System.out.printf(Locale.ROOT, "replayed    %d records, %.1f%%%n",
+                stats.replayed, stats.records == 0 ? 0 : 100.0 * stats.replayed / stats.records);
+        System.out.println();
+        System.out.println("dim     games   moves mean    p50    p90    p99    max   reveals  mismatch");
+        for (Map.Entry<Integer, JournalStats.Dim> entry : stats.dims.entrySet()) {
+            JournalStats.Dim dim = entry.getValue();
+            LatencyHistogram moves = dim.moves;
+            System.out.printf(Locale.ROOT, "%-4d %8d %12.1f %6d %6d %6d %6d %9d %8.1f%%%n", entry.getKey(),
+                    moves.getCount(), moves.getMean(), moves.getPercentile(50), moves.getPercentile(90),
+                    moves.getPercentile(99), moves.getMax(), dim.reveals, 100 * dim.getMismatchRate());
+        }
+        System.out.println();
+        LatencyHistogram gaps = stats.gaps;
+        System.out.printf(Locale.ROOT, "between moves n=%d mean %s p50 %s p99 %s max %s%n", gaps.getCount(),
+                millis(gaps.getMean()), millis(gaps.getPercentile(50)), millis(gaps.getPercentile(99)),
+                millis(gaps.getMax()));
+    }
+
+    /**
+     * Format a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the duration in milliseconds
+     */
+    private static String millis(double nanos) {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+    }
+}
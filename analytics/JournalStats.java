@@ -0,0 +1,96 @@
+package analytics;
+
+import common.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What the replay of a part of a journal found.  Every fork/join task
+ * fills a JournalStats of its own, and the results are merged, so nothing
+ * in here is shared between threads while it is being filled.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class JournalStats {
+    /**
+     * What was found about the games of one dimension.
+     */
+    static class Dim {
+        /** the number of moves every game seen from its first move to its end took */
+        final LatencyHistogram moves = new LatencyHistogram();
+        /** the number of cards revealed */
+        long reveals;
+        /** the number of pairs that matched */
+        long matches;
+        /** the number of pairs that did not */
+        long mismatches;
+
+        /**
+         * Add what another part of the journal found.
+         *
+         * @param other the other part
+         */
+        void merge(Dim other) {
+            this.moves.add(other.moves);
+            this.reveals += other.reveals;
+            this.matches += other.matches;
+            this.mismatches += other.mismatches;
+        }
+
+        /**
+         * Get the share of the pairs that did not match.
+         *
+         * @return the mismatch rate between 0 and 1, 0 if no pair was completed
+         */
+        double getMismatchRate() {
+            long pairs = this.matches + this.mismatches;
+            return pairs == 0 ? 0 : (double) this.mismatches / pairs;
+        }
+    }
+
+    /** the number of journal files read */
+    long files;
+    /** the number of records read */
+    long records;
+    /** the number of bytes read */
+    long bytes;
+    /** the number of games seen from their first move to their end */
+    long games;
+    /** the number of games whose moves the replayed board did not agree with */
+    long diverged;
+    /** the number of records replayed on a board dealt again from their seed */
+    long replayed;
+    /** the nanoseconds between two moves of the same game */
+    final LatencyHistogram gaps = new LatencyHistogram();
+    /** what was found per dimension */
+    final Map<Integer, Dim> dims = new TreeMap<>();
+
+    /**
+     * Get what was found about a dimension, creating it if needed.
+     *
+     * @param dim the square dimension
+     * @return its statistics
+     */
+    Dim dim(int dim) {
+        return this.dims.computeIfAbsent(dim, d -> new Dim());
+    }
+
+    /**
+     * Add what another part of the journal found.
+     *
+     * @param other the other part
+     */
+    void merge(JournalStats other) {
+        this.files += other.files;
+        this.records += other.records;
+        this.bytes += other.bytes;
+        this.games += other.games;
+        this.diverged += other.diverged;
+        this.replayed += other.replayed;
+        this.gaps.add(other.gaps);
+        for (Map.Entry<Integer, Dim> entry : other.dims.entrySet()) {
+            dim(entry.getKey()).merge(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package benchmark;
+
+import common.BinaryCodec;
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+import game.CompactConcentrationBoard;
+import game.ConcentrationBoard;
+import game.GameBoard;
+import server.ConcentrationClientServerThread;
+import server.ConcentrationReactor;
+import server.ServerContext;
+import server.ServerOptions;
+import server.TimerWheel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The benchmarks of the game, the protocol and the server.  Run with
+ * <pre>
+ *     java benchmark.ConcentrationBenchmarks [name filter] [--warmups=n] [--iterations=n] [--millis=n]
+ * </pre>
+ * where the filter is a regular expression the names of the benchmarks to
+ * run have to contain, e.g. "protocol.text" or "loopback".  Every result
+ * also shows the bytes allocated per operation, which should be 0 for the
+ * move paths of the compact board and the protocol codecs.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ConcentrationBenchmarks implements ConcentrationProtocol {
+    /** the dimensions of the object and compact board benchmarks */
+    private static final int[] DIMS = {2, 4, 6};
+    /** the dimensions of the large board benchmarks */
+    private static final int[] LARGE_DIMS = {64, 256, 1024};
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args the name filter and the harness options
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String filter = null;
+        int warmups = 3;
+        int iterations = 5;
+        long millis = 500;
+        for (String arg : args) {
+            if (arg.startsWith("--warmups=")) {
+                warmups = Integer.parseInt(arg.substring("--warmups=".length()));
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--millis=")) {
+                millis = Long.parseLong(arg.substring("--millis=".length()));
+            } else {
+                filter = arg;
+            }
+        }
+        Harness harness = new Harness(filter, warmups, iterations, millis);
+        boards(harness);
+        moves(harness);
+        rendering(harness);
+        textProtocol(harness);
+        binaryProtocol(harness);
+        timers(harness);
+        loopback(harness);
+    }
+
+    /**
+     * Dealing boards of every kind and size.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void boards(Harness harness) throws Exception {
+        for (int dim : DIMS) {
+            harness.run("board.object.new." + dim, () -> new ConcentrationBoard(dim).getDIM());
+            harness.run("board.compact.new." + dim, () -> new CompactConcentrationBoard(dim).getDIM());
+        }
+        for (int dim : LARGE_DIMS) {
+            harness.run("board.large.new." + dim, () -> new CompactConcentrationBoard(dim, false, true).getDIM());
+        }
+    }
+
+    /**
+     * Deal a board whose first two cards do not match, so flipping them
+     * over and over is a steady stream of moves that never ends the game.
+     *
+     * @param compact whether to deal a compact board
+     * @param dim the square dimension of the board
+     * @return the board, with no card revealed
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    private static GameBoard mismatchedBoard(boolean compact, int dim) throws ConcentrationException {
+        while (true) {
+            GameBoard board = compact ? new CompactConcentrationBoard(dim) : new ConcentrationBoard(dim);
+            board.flip(0, 0);
+            if (board.flip(0, 1) == GameBoard.MISMATCHED) {
+                return board;
+            }
+        }
+    }
+
+    /**
+     * Making moves, through flip and through the string based processInput.
+     * An operation is one pair of cards.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void moves(Harness harness) throws Exception {
+        for (boolean compact : new boolean[]{false, true}) {
+            String kind = compact ? "compact" : "object";
+            GameBoard flipped = mismatchedBoard(compact, 6);
+            harness.run("move." + kind + ".flip", () -> flipped.flip(0, 0) + flipped.flip(0, 1));
+            GameBoard processed = mismatchedBoard(compact, 6);
+            harness.run("move." + kind + ".processInput", () -> {
+                processed.processInput(0, 0);
+                return processed.processInput(0, 1).length() + processed.getMatchStatus().length();
+            });
+        }
+    }
+
+    /**
+     * Rendering boards with toString, half of the cards face up.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void rendering(Harness harness) throws Exception {
+        GameBoard object = new ConcentrationBoard(6);
+        GameBoard compact = new CompactConcentrationBoard(6);
+        for (GameBoard board : new GameBoard[]{object, compact}) {
+            for (int row = 0; row < 6; row += 2) {
+                for (int col = 0; col < 6; ++col) {
+                    board.flip(row, col);
+                }
+            }
+        }
+        harness.run("toString.object.6", () -> object.toString().length());
+        harness.run("toString.compact.6", () -> compact.toString().length());
+        GameBoard large = new CompactConcentrationBoard(64, false, true);
+        harness.run("toString.large.64", () -> large.toString().length());
+    }
+
+    /**
+     * Encoding and parsing every text message, against String.format and
+     * String.split for the busiest one.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void textProtocol(Harness harness) throws Exception {
+        ProtocolCodec codec = ProtocolCodec.forDim(6);
+        ByteBuffer buf = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+        int[] args = new int[1 + 2 * MAX_BATCH];
+        int[] coords = new int[2 * MAX_BATCH];
+        for (int i = 0; i < coords.length; ++i) {
+            coords[i] = i % 6;
+        }
+        textRoundTrip(harness, "BOARD_DIM", buf, args, () -> codec.putBoardDim(buf));
+        textRoundTrip(harness, "CARD", buf, args, () -> codec.putCard(buf, 3, 4, 17));
+        textRoundTrip(harness, "MATCH", buf, args, () -> codec.putMatch(buf, true, 0, 1, 5, 4));
+        textRoundTrip(harness, "MISMATCH", buf, args, () -> codec.putMatch(buf, false, 0, 1, 5, 4));
+        textRoundTrip(harness, "GAME_OVER", buf, args, () -> ProtocolCodec.putGameOver(buf));
+        textRoundTrip(harness, "ERROR", buf, args, () -> ProtocolCodec.putError(buf, "Invalid Coordinates"));
+        textRoundTrip(harness, "REVEAL", buf, args, () -> codec.putReveal(buf, 2, 5));
+        textRoundTrip(harness, "REVEAL_BATCH", buf, args, () -> codec.putRevealBatch(buf, coords, MAX_BATCH));
+        textRoundTrip(harness, "BATCH", buf, args, () -> ProtocolCodec.putBatch(buf, 12));
+        textRoundTrip(harness, "OPEN", buf, args, () -> ProtocolCodec.putOpen(buf, 4711, 6));
+        textRoundTrip(harness, "CLOSE", buf, args, () -> ProtocolCodec.putClose(buf, 4711));
+        harness.run("protocol.text.GAME", () -> {
+            buf.clear();
+            ProtocolCodec.putGame(buf, 4711);
+            codec.putReveal(buf, 2, 5);
+            int start = ProtocolCodec.parseGame(buf, 0, buf.position() - 1, args);
+            return ProtocolCodec.parse(buf, start, buf.position() - 1, args) + args[0];
+        });
+        harness.run("protocol.text.CARD.format", () -> {
+            String[] tokens = String.format(CARD_MSG, 3, 4, "R").split(" ");
+            return Integer.parseInt(tokens[1]) + Integer.parseInt(tokens[2]) + tokens[3].charAt(0);
+        });
+    }
+
+    /**
+     * Benchmark encoding one text message and parsing it back.
+     *
+     * @param harness the harness to run it with
+     * @param name the name of the message
+     * @param buf the buffer to encode into
+     * @param args where the parsed arguments go
+     * @param encode writes the message into buf
+     * @throws Exception if the benchmark fails
+     */
+    private static void textRoundTrip(Harness harness, String name, ByteBuffer buf, int[] args, Runnable encode)
+            throws Exception {
+        harness.run("protocol.text." + name, () -> {
+            buf.clear();
+            encode.run();
+            return ProtocolCodec.parse(buf, 0, buf.position() - 1, args) + args[0];
+        });
+    }
+
+    /**
+     * Encoding and decoding every binary frame.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void binaryProtocol(Harness harness) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+        ByteBuffer nested = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+        int[] cells = new int[MAX_BATCH];
+        for (int i = 0; i < cells.length; ++i) {
+            cells[i] = i % 36;
+        }
+        binaryRoundTrip(harness, "BOARD_DIM", buf, () -> BinaryCodec.putBoardDim(buf, 6));
+        binaryRoundTrip(harness, "CARD", buf, () -> BinaryCodec.putCard(buf, 22, 17));
+        binaryRoundTrip(harness, "MATCH", buf, () -> BinaryCodec.putMatch(buf, true, 1, 34));
+        binaryRoundTrip(harness, "MISMATCH", buf, () -> BinaryCodec.putMatch(buf, false, 1, 34));
+        binaryRoundTrip(harness, "GAME_OVER", buf, () -> BinaryCodec.putGameOver(buf));
+        binaryRoundTrip(harness, "ERROR", buf, () -> BinaryCodec.putError(buf, "Invalid Coordinates"));
+        binaryRoundTrip(harness, "REVEAL", buf, () -> BinaryCodec.putReveal(buf, 17));
+        binaryRoundTrip(harness, "REVEAL_BATCH", buf, () -> BinaryCodec.putRevealBatch(buf, cells, MAX_BATCH));
+        binaryRoundTrip(harness, "BATCH", buf, () -> {
+            nested.clear();
+            BinaryCodec.putCard(nested, 22, 17);
+            BinaryCodec.putMatch(nested, false, 1, 22);
+            BinaryCodec.putBatch(buf, 2, nested.flip());
+        });
+        binaryRoundTrip(harness, "OPEN", buf, () -> BinaryCodec.putOpen(buf, 4711, 6));
+        binaryRoundTrip(harness, "CLOSE", buf, () -> BinaryCodec.putClose(buf, 4711));
+        binaryRoundTrip(harness, "GAME", buf, () -> {
+            nested.clear();
+            BinaryCodec.putReveal(nested, 17);
+            BinaryCodec.putGame(buf, 4711, nested.flip());
+        });
+    }
+
+    /**
+     * Benchmark encoding one binary frame and decoding it back.  The
+     * payload is read as varints, which every payload byte of these
+     * frames parses as.
+     *
+     * @param harness the harness to run it with
+     * @param name the name of the frame
+     * @param buf the buffer to encode into
+     * @param encode writes the frame into buf
+     * @throws Exception if the benchmark fails
+     */
+    private static void binaryRoundTrip(Harness harness, String name, ByteBuffer buf, Runnable encode)
+            throws Exception {
+        harness.run("protocol.binary." + name, () -> {
+            buf.clear();
+            encode.run();
+            buf.flip();
+            int end = BinaryCodec.nextFrame(buf) + buf.position();
+            long sum = buf.get();
+            while (buf.position() < end) {
+                sum += BinaryCodec.getVarint(buf);
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Arming and cancelling a timer on the server's timer wheel, first on
+     * an empty wheel and then with a million other timers armed, which
+     * should cost the same.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void timers(Harness harness) throws Exception {
+        TimerWheel wheel = new TimerWheel(TimerWheel.TICK_MILLIS, TimerWheel.BUCKETS);
+        Runnable task = () -> { };
+        try {
+            harness.run("timers.armCancel.empty", () -> wheel.arm(60_000, task).cancel() ? 1 : 0);
+            String crowded = "timers.armCancel.1000000";
+            if (harness.selected(crowded)) {
+                for (int i = 0; i < 1_000_000; ++i) {
+                    wheel.arm(60_000 + i % 60_000, task);
+                }
+                harness.run(crowded, () -> wheel.arm(60_000, task).cancel() ? 1 : 0);
+            }
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * A REVEAL and its CARD reply through a real loopback connection, for
+     * both encodings against the nio and the blocking server.  Only the
+     * client thread's allocations are counted.
+     *
+     * @param harness the harness to run them with
+     * @throws Exception if a benchmark fails
+     */
+    private static void loopback(Harness harness) throws Exception {
+        for (String mode : new String[]{"nio", "thread"}) {
+            for (boolean binary : new boolean[]{false, true}) {
+                String name = "loopback." + mode + "." + (binary ? "binary" : "text") + ".reveal";
+                if (!harness.selected(name)) {
+                    continue;
+                }
+                ServerContext context = new ServerContext(ServerOptions.parse(
+                        new String[]{"0", "4", "--reveal-delay=0", "--board=large", "--mode=" + mode}));
+                ConcentrationReactor reactor = null;
+                try (ServerSocketChannel server = ServerSocketChannel.open()) {
+                    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                    LoopbackClient client = new LoopbackClient(
+                            SocketChannel.open(server.getLocalAddress()), binary, 4);
+                    SocketChannel accepted = server.accept();
+                    if (mode.equals("nio")) {
+                        ConcentrationReactor started = new ConcentrationReactor(0, context);
+                        reactor = started;
+                        context.getAdmission().admit(() -> started.register(accepted), accepted);
+                    } else {
+                        context.getAdmission().admit(
+                                () -> new ConcentrationClientServerThread(accepted.socket(), context,
+                                        context.getWriters()).start(), accepted);
+                    }
+                    client.start();
+                    harness.run(name, client::move);
+                    client.close();
+                } finally {
+                    if (reactor != null) {
+                        reactor.close();
+                    }
+                    context.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A client playing opened games over one connection, one card per
+     * move.  It picks an unmatched card in order and then a random one,
+     * and opens the next game once one is over.
+     */
+    private static class LoopbackClient {
+        /** the connection, blocking */
+        private final SocketChannel channel;
+        /** whether it speaks the binary encoding */
+        private final boolean binary;
+        /** the square dimension of the boards it opens */
+        private final int dim;
+        /** the bytes received, in read mode */
+        private final ByteBuffer in;
+        /** the message being sent */
+        private final ByteBuffer out;
+        /** the message routed to the game before it gets its prefix */
+        private final ByteBuffer routed;
+        /** the parsed arguments */
+        private final int[] args;
+        /** encodes the coordinates of the boards */
+        private final ProtocolCodec codec;
+        /** picks the second card */
+        private final SplittableRandom random;
+        /** the cells already matched in the current game */
+        private final boolean[] matched;
+        /** the ID of the current game */
+        private int game;
+        /** the number of cells matched in the current game */
+        private int matches;
+        /** where the search for the next first card starts */
+        private int cursor;
+        /** the first card of the current pair, -1 if the next card is a first card */
+        private int first;
+
+        /**
+         * Create the client.
+         *
+         * @param channel the connection
+         * @param binary whether to speak the binary encoding
+         * @param dim the square dimension of the boards to open
+         */
+        private LoopbackClient(SocketChannel channel, boolean binary, int dim) {
+            this.channel = channel;
+            this.binary = binary;
+            this.dim = dim;
+            this.in = ByteBuffer.allocate(2 * BinaryCodec.MAX_FRAME).limit(0);
+            this.out = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+            this.routed = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+            this.args = new int[1 + 2 * MAX_BATCH];
+            this.codec = ProtocolCodec.forDim(dim);
+            this.random = new SplittableRandom(42);
+            this.matched = new boolean[dim * dim];
+            this.first = -1;
+        }
+
+        /**
+         * Read the first BOARD_DIM, negotiate the encoding and open the
+         * first game.
+         *
+         * @throws IOException if the connection fails
+         */
+        private void start() throws IOException {
+            this.in.position(readLine() + 1);
+            if (this.binary) {
+                this.out.clear();
+                ProtocolCodec.putLine(this.out, PROTOCOL_BINARY_MSG);
+                write();
+                this.in.position(readLine() + 1);
+            }
+            openGame();
+        }
+
+        /**
+         * Open the next game and wait for its BOARD_DIM.
+         *
+         * @throws IOException if the connection fails
+         */
+        private void openGame() throws IOException {
+            ++this.game;
+            this.matches = 0;
+            this.cursor = 0;
+            this.first = -1;
+            Arrays.fill(this.matched, false);
+            this.out.clear();
+            if (this.binary) {
+                BinaryCodec.putOpen(this.out, this.game, this.dim);
+            } else {
+                ProtocolCodec.putOpen(this.out, this.game, this.dim);
+            }
+            write();
+            receive();
+        }
+
+        /**
+         * Reveal one card and wait for its CARD, and after a second card
+         * for the MATCH or MISMATCH.
+         *
+         * @return the op code of the last reply
+         * @throws IOException if the connection fails
+         */
+        private long move() throws IOException {
+            int cell = this.first < 0 ? nextFirst() : nextSecond();
+            this.routed.clear();
+            this.out.clear();
+            if (this.binary) {
+                BinaryCodec.putReveal(this.routed, cell);
+                BinaryCodec.putGame(this.out, this.game, this.routed.flip());
+            } else {
+                ProtocolCodec.putGame(this.out, this.game);
+                this.codec.putReveal(this.out, cell / this.dim, cell % this.dim);
+            }
+            write();
+            int op = receive();
+            if (this.first < 0) {
+                this.first = cell;
+                return op;
+            }
+            op = receive();
+            if (op == OP_MATCH) {
+                this.matched[this.first] = true;
+                this.matched[cell] = true;
+                this.matches += 2;
+            }
+            this.first = -1;
+            if (this.matches == this.matched.length) {
+                receive();
+                openGame();
+            }
+            return op;
+        }
+
+        /**
+         * Pick the next unmatched card in order.
+         *
+         * @return its cell
+         */
+        private int nextFirst() {
+            while (this.matched[this.cursor]) {
+                this.cursor = (this.cursor + 1) % this.matched.length;
+            }
+            int cell = this.cursor;
+            this.cursor = (this.cursor + 1) % this.matched.length;
+            return cell;
+        }
+
+        /**
+         * Pick a random unmatched card other than the first one.
+         *
+         * @return its cell
+         */
+        private int nextSecond() {
+            int cell;
+            do {
+                cell = this.random.nextInt(this.matched.length);
+            } while (cell == this.first || this.matched[cell]);
+            return cell;
+        }
+
+        /**
+         * Receive the next message of the current game, failing on an error.
+         *
+         * @return its op code
+         * @throws IOException if the connection fails or the server
+         *     reported an error
+         */
+        private int receive() throws IOException {
+            int op;
+            if (this.binary) {
+                int length;
+                try {
+                    while ((length = BinaryCodec.nextFrame(this.in)) < 0) {
+                        fill();
+                    }
+                } catch (ConcentrationException ce) {
+                    throw new IOException(ce.getMessage());
+                }
+                int end = this.in.position() + length;
+                op = this.in.get();
+                if (op == OP_GAME) {
+                    BinaryCodec.getVarint(this.in);
+                    op = this.in.get();
+                }
+                this.in.position(end);
+            } else {
+                int end = readLine();
+                int start = ProtocolCodec.parseGame(this.in, this.in.position(), end, this.args);
+                op = ProtocolCodec.parse(this.in, start < 0 ? this.in.position() : start, end, this.args);
+                this.in.position(end + 1);
+            }
+            if (op == OP_ERROR || op < 0) {
+                throw new IOException("Unexpected reply");
+            }
+            return op;
+        }
+
+        /**
+         * Wait for a whole line.
+         *
+         * @return the index of its terminator, the line starts at the
+         *     position of the input buffer
+         * @throws IOException if the connection fails
+         */
+        private int readLine() throws IOException {
+            int scanned = this.in.position();
+            while (true) {
+                for (; scanned < this.in.limit(); ++scanned) {
+                    if (this.in.get(scanned) == '\n') {
+                        return scanned;
+                    }
+                }
+                scanned -= this.in.position();
+                fill();
+            }
+        }
+
+        /**
+         * Read more bytes, moving what is left to the start of the buffer.
+         *
+         * @throws IOException if the connection fails or is closed
+         */
+        private void fill() throws IOException {
+            this.in.compact();
+            int n = this.channel.read(this.in);
+            this.in.flip();
+            if (n < 0) {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        /**
+         * Send the message in the output buffer.
+         *
+         * @throws IOException if the connection fails
+         */
+        private void write() throws IOException {
+            this.out.flip();
+            while (this.out.hasRemaining()) {
+                this.channel.write(this.out);
+            }
+        }
+
+        /**
+         * Close the connection.
+         *
+         * @throws IOException if it can not be closed
+         */
+        private void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.regex.Pattern;
+
+/**
+ * A small benchmark harness in the spirit of JMH: every benchmark is run
+ * for a few warmup iterations and then for a few timed iterations, each a
+ * fixed length of time, and reported as the average time per operation
+ * with its spread and the bytes allocated per operation by the benchmark
+ * thread.  The result of every operation is folded into a sink so the JIT
+ * can not throw the work away.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class Harness {
+    /**
+     * One operation of a benchmark.
+     */
+    public interface Operation {
+        /**
+         * Run the operation once.
+         *
+         * @return any value depending on the work done, it is consumed
+         * @throws Exception if the operation fails, which ends the benchmark
+         */
+        long run() throws Exception;
+    }
+
+    /** the thread bean, null if it can not count allocated bytes */
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    /** where the results of the operations go, never read */
+    private static volatile long sink;
+
+    /** only the benchmarks whose name this finds are run, null for all */
+    private final Pattern filter;
+    /** the number of warmup iterations */
+    private final int warmups;
+    /** the number of timed iterations */
+    private final int iterations;
+    /** how long an iteration runs, in milliseconds */
+    private final long iterationMillis;
+
+    /**
+     * Create the harness.
+     *
+     * @param filter a regular expression the names of the benchmarks to run
+     *     have to contain, null to run them all
+     * @param warmups the number of warmup iterations
+     * @param iterations the number of timed iterations
+     * @param iterationMillis how long an iteration runs, in milliseconds
+     */
+    public Harness(String filter, int warmups, int iterations, long iterationMillis) {
+        this.filter = filter == null ? null : Pattern.compile(filter);
+        this.warmups = warmups;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Get the thread bean if it can count the bytes a thread allocates.
+     *
+     * @return the bean, or null
+     */
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+
+    /**
+     * Should the benchmark with this name be run?
+     *
+     * @param name the name of the benchmark
+     * @return whether it passes the filter
+     */
+    public boolean selected(String name) {
+        return this.filter == null || this.filter.matcher(name).find();
+    }
+
+    /**
+     * Run a benchmark and report it.
+     *
+     * @param name the name of the benchmark
+     * @param operation what to measure
+     * @throws Exception if an operation fails
+     */
+    public void run(String name, Operation operation) throws Exception {
+        if (!selected(name)) {
+            return;
+        }
+        for (int i = 0; i < this.warmups; ++i) {
+            iteration(operation);
+        }
+        double[] nanosPerOp = new double[this.iterations];
+        long ops = 0;
+        long bytes = 0;
+        for (int i = 0; i < this.iterations; ++i) {
+            long before = allocated();
+            long[] measured = iteration(operation);
+            bytes += allocated() - before;
+            ops += measured[0];
+            nanosPerOp[i] = (double) measured[1] / measured[0];
+        }
+        report(name, nanosPerOp, THREADS == null ? Double.NaN : (double) bytes / ops);
+    }
+
+    /**
+     * Run the operation for one iteration.  The clock is only read every so
+     * many operations so it does not dominate the short ones.
+     *
+     * @param operation what to run
+     * @return the number of operations and the nanoseconds they took
+     * @throws Exception if an operation fails
+     */
+    private long[] iteration(Operation operation) throws Exception {
+        long acc = 0;
+        long ops = 0;
+        long start = System.nanoTime();
+        long deadline = start + this.iterationMillis * 1_000_000L;
+        long now;
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; ++i) {
+                acc += operation.run();
+            }
+            ops += batch;
+            now = System.nanoTime();
+            if (batch < 1024 && now - start < (this.iterationMillis * 1_000_000L) / 100) {
+                batch <<= 1;
+            }
+        } while (now < deadline);
+        sink += acc;
+        return new long[]{ops, now - start};
+    }
+
+    /**
+     * The bytes the current thread allocated so far.
+     *
+     * @return the byte count, 0 if it can not be counted
+     */
+    private static long allocated() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Print the result of a benchmark.
+     *
+     * @param name the name of the benchmark
+     * @param nanosPerOp the time per operation of every timed iteration
+     * @param bytesPerOp the bytes allocated per operation
+     */
+    private void report(String name, double[] nanosPerOp, double bytesPerOp) {
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= nanosPerOp.length;
+        double spread = 0;
+        for (double value : nanosPerOp) {
+            spread = Math.max(spread, Math.abs(value - mean));
+        }
+        System.out.printf("%-44s %14.1f +- %9.1f ns/op %14.0f ops/s %10.1f B/op%n",
+                name, mean, spread, 1e9 / mean, bytesPerOp);
+    }
+}
@@ -0,0 +1,299 @@
+package common;
+
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The log of the server and the game, written by a background thread so
+ * that logging never takes the console lock on a session thread.  A thread
+ * logging an event claims a slot of a lock free ring with a compare and
+ * set, fills it in and publishes it; the writer drains the ring and prints
+ * whatever piled up with one call per stream.  When the writer falls a
+ * whole ring behind, events are dropped and counted rather than blocking
+ * the thread logging them.
+ *
+ * Every event is one line of name=value fields, the session and the board
+ * seed among them when it has them, followed by its message, e.g.
+ * <pre>
+ *     2026-10-17T20:31:02.123Z INFO DEALT session=12 seed=-3372919270213496373 compact 4
+ * </pre>
+ * A message may span lines, e.g. the solution of a board.  INFO goes to
+ * System.out, WARN and ERROR to System.err.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public final class AsyncLog implements Runnable {
+    /** the default number of events the ring holds, a power of two */
+    public static final int CAPACITY = 1 << 14;
+    /** the session of an event that belongs to none, the sessions count from 1 */
+    public static final long NO_SESSION = 0;
+
+    /** how long the writer sleeps when the ring is empty, in nanoseconds */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** publishes a slot of the ring to the writer */
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** how bad an event is */
+    public enum Level {
+        /** what the server does, printed to System.out */
+        INFO,
+        /** something went wrong that the server recovers from */
+        WARN,
+        /** something went wrong that ends a session or a service */
+        ERROR
+    }
+
+    /**
+     * Holds the log of the process, started the first time it is used.
+     */
+    private static final class Holder {
+        /** the log of the process */
+        private static final AsyncLog LOG = new AsyncLog(CAPACITY, System.out, System.err);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(LOG::close, "common.AsyncLog.shutdown"));
+        }
+    }
+
+    /** when every event was logged, in milliseconds since the epoch */
+    private final long[] times;
+    /** how bad every event is */
+    private final Level[] levels;
+    /** the name of every event */
+    private final String[] events;
+    /** the session of every event, NO_SESSION if none */
+    private final long[] sessions;
+    /** the board seed of every event, if it has one */
+    private final long[] seeds;
+    /** whether every event has a board seed */
+    private final boolean[] seeded;
+    /** the message of every event */
+    private final String[] messages;
+    /** the sequence number of the event in every slot, once it is complete */
+    private final long[] published;
+    /** selects the slot of a sequence number */
+    private final int mask;
+    /** the next sequence number to hand out */
+    private final AtomicLong claimed;
+    /** the number of events dropped because the ring was full */
+    private final LongAdder dropped;
+    /** where INFO goes */
+    private final PrintStream out;
+    /** where WARN and ERROR go */
+    private final PrintStream err;
+    /** the writer thread */
+    private final Thread thread;
+    /** the sequence number of the next event the writer takes */
+    private volatile long consumed;
+    /** set once the log is closed */
+    private volatile boolean stopped;
+
+    /**
+     * Create a log and start its writer.
+     *
+     * @param capacity the number of events the ring holds, rounded up to a power of two
+     * @param out where INFO goes
+     * @param err where WARN and ERROR go
+     */
+    public AsyncLog(int capacity, PrintStream out, PrintStream err) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.times = new long[size];
+        this.levels = new Level[size];
+        this.events = new String[size];
+        this.sessions = new long[size];
+        this.seeds = new long[size];
+        this.seeded = new boolean[size];
+        this.messages = new String[size];
+        this.published = new long[size];
+        for (int i = 0; i < size; ++i) {
+            this.published[i] = -1;
+        }
+        this.mask = size - 1;
+        this.claimed = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.out = out;
+        this.err = err;
+        this.thread = new Thread(this, "common.AsyncLog");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Get the log of the process.
+     *
+     * @return the log
+     */
+    public static AsyncLog get() {
+        return Holder.LOG;
+    }
+
+    /**
+     * Log an event that belongs to no session.
+     *
+     * @param level how bad it is
+     * @param event its name
+     * @param message what happened
+     */
+    public void log(Level level, String event, String message) {
+        append(level, event, NO_SESSION, false, 0, message);
+    }
+
+    /**
+     * Log an event of a session.
+     *
+     * @param level how bad it is
+     * @param event its name
+     * @param session the session, NO_SESSION if none
+     * @param message what happened
+     */
+    public void log(Level level, String event, long session, String message) {
+        append(level, event, session, false, 0, message);
+    }
+
+    /**
+     * Log an event about a board.
+     *
+     * @param level how bad it is
+     * @param event its name
+     * @param session the session, NO_SESSION if none
+     * @param seed the seed of the board
+     * @param message what happened
+     */
+    public void log(Level level, String event, long session, long seed, String message) {
+        append(level, event, session, true, seed, message);
+    }
+
+    /**
+     * Put an event in the ring, or drop it if the ring is full.
+     *
+     * @param level how bad it is
+     * @param event its name
+     * @param session the session, NO_SESSION if none
+     * @param hasSeed whether the event has a board seed
+     * @param seed the seed of the board
+     * @param message what happened
+     */
+    private void append(Level level, String event, long session, boolean hasSeed, long seed, String message) {
+        long seq;
+        do {
+            seq = this.claimed.get();
+            if (seq - this.consumed > this.mask) {
+                this.dropped.increment();
+                return;
+            }
+        } while (!this.claimed.compareAndSet(seq, seq + 1));
+        int slot = (int) (seq & this.mask);
+        this.times[slot] = System.currentTimeMillis();
+        this.levels[slot] = level;
+        this.events[slot] = event;
+        this.sessions[slot] = session;
+        this.seeded[slot] = hasSeed;
+        this.seeds[slot] = seed;
+        this.messages[slot] = message;
+        PUBLISHED.setRelease(this.published, slot, seq);
+    }
+
+    /**
+     * Print the events as they come until the log is closed.
+     */
+    @Override
+    public void run() {
+        StringBuilder info = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        long next = 0;
+        long reported = 0;
+        while (true) {
+            boolean stopping = this.stopped;
+            int slot;
+            while ((long) PUBLISHED.getAcquire(this.published, slot = (int) (next & this.mask)) == next) {
+                format(this.levels[slot] == Level.INFO ? info : errors, slot);
+                this.events[slot] = null;
+                this.messages[slot] = null;
+                this.levels[slot] = null;
+                this.consumed = ++next;
+            }
+            long lost = this.dropped.sum();
+            if (lost > reported) {
+                errors.append(Instant.now()).append(' ').append(Level.WARN).append(" LOG_DROPPED count=")
+                        .append(lost - reported).append('\n');
+                reported = lost;
+            }
+            print(this.out, info);
+            print(this.err, errors);
+            if (stopping) {
+                break;
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    /**
+     * Format the event in a slot.
+     *
+     * @param line where to append it
+     * @param slot the slot
+     */
+    private void format(StringBuilder line, int slot) {
+        line.append(Instant.ofEpochMilli(this.times[slot])).append(' ').append(this.levels[slot])
+                .append(' ').append(this.events[slot]);
+        if (this.sessions[slot] != NO_SESSION) {
+            line.append(" session=").append(this.sessions[slot]);
+        }
+        if (this.seeded[slot]) {
+            line.append(" seed=").append(this.seeds[slot]);
+        }
+        String message = this.messages[slot];
+        if (message != null && !message.isEmpty()) {
+            line.append(message.indexOf('\n') >= 0 ? '\n' : ' ').append(message);
+        }
+        if (line.charAt(line.length() - 1) != '\n') {
+            line.append('\n');
+        }
+    }
+
+    /**
+     * Print what piled up for a stream with a single call.
+     *
+     * @param stream the stream
+     * @param text what to print, emptied
+     */
+    private static void print(PrintStream stream, StringBuilder text) {
+        if (text.length() > 0) {
+            stream.print(text);
+            stream.flush();
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Get the number of events dropped because the writer fell behind.
+     *
+     * @return the count
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Print every event logged so far and stop the writer.  Events logged
+     * afterwards are dropped.
+     */
+    public void close() {
+        this.stopped = true;
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
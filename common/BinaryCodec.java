@@ -0,0 +1,401 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the frames of the binary ConcentrationProtocol
+ * encoding.  A frame is a varint holding the number of bytes that follow,
+ * a single byte opcode and the payload.  Every number in a payload is a
+ * varint as well, so the frames of a small board are only a few bytes long,
+ * e.g. a REVEAL is 3 bytes against 11 for "REVEAL 0 2\n".
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class BinaryCodec implements ConcentrationProtocol {
+    /** the largest frame body accepted */
+    public static final int MAX_FRAME = 4096;
+
+    /** no instances, all the methods are static */
+    private BinaryCodec() {
+    }
+
+    /**
+     * Pack a coordinate into a cell index.
+     *
+     * @param row the row
+     * @param col the column
+     * @param dim the square dimension of the board
+     * @return the cell index
+     */
+    public static int cell(int row, int col, int dim) {
+        return row * dim + col;
+    }
+
+    /**
+     * Write an unsigned varint: 7 bits per byte, low bits first, the high
+     * bit set on every byte but the last.
+     *
+     * @param out the buffer to write to
+     * @param value the non negative value
+     */
+    public static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint that is known to be complete.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     */
+    public static int getVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Read an unsigned varint holding a number of a message, e.g. a game ID
+     * or a cell, which is known to be complete.  A number is refused in a
+     * frame exactly when a text line could not carry it.
+     *
+     * @param in the buffer to read from
+     * @return the value, or -1 if it is larger than ProtocolCodec.MAX_NUMBER
+     */
+    public static int getNumber(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            // bytes past the fifth only make the value larger
+            value = shift < 35 ? value | (long) (b & 0x7f) << shift : Long.MAX_VALUE;
+            shift += 7;
+        } while (b < 0);
+        return value > ProtocolCodec.MAX_NUMBER ? -1 : (int) value;
+    }
+
+    /**
+     * Check whether a whole frame is available.  If so the length prefix is
+     * consumed, leaving the buffer at the opcode; otherwise the buffer is
+     * left as it is.
+     *
+     * @param in the buffer to read from
+     * @return the length of the frame body, or -1 if the frame is incomplete
+     * @throws ConcentrationException if the frame is longer than MAX_FRAME
+     */
+    public static int nextFrame(ByteBuffer in) throws ConcentrationException {
+        int start = in.position();
+        int length = 0;
+        int shift = 0;
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+            if (b >= 0) {
+                if (length > MAX_FRAME || length == 0) {
+                    throw new ConcentrationException("Invalid frame length " + length);
+                }
+                if (in.remaining() >= length) {
+                    return length;
+                }
+                break;
+            }
+            if (shift > 28) {
+                throw new ConcentrationException("Invalid frame length");
+            }
+        }
+        in.position(start);
+        return -1;
+    }
+
+    /**
+     * The number of bytes a varint takes.
+     *
+     * @param value the non negative value
+     * @return the encoded size
+     */
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+    /**
+     * Write a CARD frame.
+     *
+     * @param out the buffer to write to
+     * @param cell the cell of the card
+     * @param pair the pair number of the card, 0 for A
+     */
+    public static void putCard(ByteBuffer out, int cell, int pair) {
+        putVarint(out, 1 + varintSize(cell) + varintSize(pair));
+        out.put(OP_CARD);
+        putVarint(out, cell);
+        putVarint(out, pair);
+    }
+
+    /**
+     * Write a MATCH or MISMATCH frame.
+     *
+     * @param out the buffer to write to
+     * @param match whether the cards match
+     * @param cell1 the cell of the first card
+     * @param cell2 the cell of the second card
+     */
+    public static void putMatch(ByteBuffer out, boolean match, int cell1, int cell2) {
+        putVarint(out, 1 + varintSize(cell1) + varintSize(cell2));
+        out.put(match ? OP_MATCH : OP_MISMATCH);
+        putVarint(out, cell1);
+        putVarint(out, cell2);
+    }
+
+    /**
+     * Write a REVEAL frame.
+     *
+     * @param out the buffer to write to
+     * @param cell the cell of the card to reveal
+     */
+    public static void putReveal(ByteBuffer out, int cell) {
+        putVarint(out, 1 + varintSize(cell));
+        out.put(OP_REVEAL);
+        putVarint(out, cell);
+    }
+
+    /**
+     * Write a REVEAL_BATCH frame.
+     *
+     * @param out the buffer to write to
+     * @param cells the cells of the cards to reveal
+     * @param count the number of cards
+     */
+    public static void putRevealBatch(ByteBuffer out, int[] cells, int count) {
+        int length = 1 + varintSize(count);
+        for (int i = 0; i < count; ++i) {
+            length += varintSize(cells[i]);
+        }
+        putVarint(out, length);
+        out.put(OP_REVEAL_BATCH);
+        putVarint(out, count);
+        for (int i = 0; i < count; ++i) {
+            putVarint(out, cells[i]);
+        }
+    }
+
+    /**
+     * Write a BATCH frame around frames that were already encoded.
+     *
+     * @param out the buffer to write to
+     * @param count the number of frames
+     * @param frames the encoded frames, between position and limit
+     */
+    public static void putBatch(ByteBuffer out, int count, ByteBuffer frames) {
+        putVarint(out, 1 + varintSize(count) + frames.remaining());
+        out.put(OP_BATCH);
+        putVarint(out, count);
+        out.put(frames);
+    }
+
+    /**
+     * Write a BOARD_DIM frame.
+     *
+     * @param out the buffer to write to
+     * @param dim the square dimension of the board
+     */
+    public static void putBoardDim(ByteBuffer out, int dim) {
+        putVarint(out, 1 + varintSize(dim));
+        out.put(OP_BOARD_DIM);
+        putVarint(out, dim);
+    }
+
+    /**
+     * Write an OPEN frame.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the new game
+     * @param dim the square dimension of its board
+     */
+    public static void putOpen(ByteBuffer out, int id, int dim) {
+        putVarint(out, 1 + varintSize(id) + varintSize(dim));
+        out.put(OP_OPEN);
+        putVarint(out, id);
+        putVarint(out, dim);
+    }
+
+    /**
+     * Write a VERSUS frame.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the new game
+     * @param dim the square dimension of its board
+     */
+    public static void putVersus(ByteBuffer out, int id, int dim) {
+        putVarint(out, 1 + varintSize(id) + varintSize(dim));
+        out.put(OP_VERSUS);
+        putVarint(out, id);
+        putVarint(out, dim);
+    }
+
+    /**
+     * Write a JOIN frame.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the game
+     * @param table the number of the table
+     * @param dim the square dimension of its board
+     */
+    public static void putJoin(ByteBuffer out, int id, int table, int dim) {
+        putVarint(out, 1 + varintSize(id) + varintSize(table) + varintSize(dim));
+        out.put(OP_JOIN);
+        putVarint(out, id);
+        putVarint(out, table);
+        putVarint(out, dim);
+    }
+
+    /**
+     * Write a SEAT or TURN frame.
+     *
+     * @param out the buffer to write to
+     * @param op OP_SEAT or OP_TURN
+     * @param seat the seat
+     */
+    public static void putSeat(ByteBuffer out, byte op, int seat) {
+        putVarint(out, 1 + varintSize(seat));
+        out.put(op);
+        putVarint(out, seat);
+    }
+
+    /**
+     * Write a WATCH frame.
+     *
+     * @param out the buffer to write to
+     * @param table the number of the table
+     */
+    public static void putWatch(ByteBuffer out, int table) {
+        putVarint(out, 1 + varintSize(table));
+        out.put(OP_WATCH);
+        putVarint(out, table);
+    }
+
+    /**
+     * Write a CLOSE frame.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the game
+     */
+    public static void putClose(ByteBuffer out, int id) {
+        putVarint(out, 1 + varintSize(id));
+        out.put(OP_CLOSE);
+        putVarint(out, id);
+    }
+
+    /**
+     * Write a GAME frame routing a frame that was already encoded to or
+     * from an opened game.  The routed frame loses its length prefix.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the game
+     * @param frame the encoded frame, between position and limit
+     */
+    public static void putGame(ByteBuffer out, int id, ByteBuffer frame) {
+        int length = getVarint(frame);
+        putVarint(out, 1 + varintSize(id) + length);
+        out.put(OP_GAME);
+        putVarint(out, id);
+        out.put(frame);
+    }
+
+    /**
+     * Write a GAME_OVER frame.
+     *
+     * @param out the buffer to write to
+     */
+    public static void putGameOver(ByteBuffer out) {
+        putEmpty(out, OP_GAME_OVER);
+    }
+
+    /**
+     * Write a frame without a payload, e.g. GAME_OVER or PING.
+     *
+     * @param out the buffer to write to
+     * @param op the opcode of the frame
+     */
+    public static void putEmpty(ByteBuffer out, byte op) {
+        putVarint(out, 1);
+        out.put(op);
+    }
+
+    /**
+     * Write an ERROR frame.  The message is cut short if it does not fit
+     * in a frame.
+     *
+     * @param out the buffer to write to
+     * @param msg the error message
+     */
+    public static void putError(ByteBuffer out, String msg) {
+        putText(out, OP_ERROR, msg);
+    }
+
+    /**
+     * Write a STATS frame.  With an empty text it asks for the statistics.
+     *
+     * @param out the buffer to write to
+     * @param stats the statistics
+     */
+    public static void putStats(ByteBuffer out, String stats) {
+        putText(out, OP_STATS, stats);
+    }
+
+    /**
+     * Write a RESUME frame.
+     *
+     * @param out the buffer to write to
+     * @param token the token of the game to resume
+     */
+    public static void putResume(ByteBuffer out, String token) {
+        putText(out, OP_RESUME, token);
+    }
+
+    /**
+     * Write a frame whose payload is ASCII text, cut short if it does not
+     * fit in a frame.
+     *
+     * @param out the buffer to write to
+     * @param op the opcode of the frame
+     * @param text the text
+     */
+    private static void putText(ByteBuffer out, byte op, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(bytes.length, MAX_FRAME - 1);
+        putVarint(out, 1 + length);
+        out.put(op);
+        out.put(bytes, 0, length);
+    }
+
+    /**
+     * Read the text of an ERROR or STATS frame whose opcode was just read.
+     *
+     * @param in the buffer to read from
+     * @param length the length of the frame body including the opcode
+     * @return the text
+     */
+    public static String getText(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length - 1];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
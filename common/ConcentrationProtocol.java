@@ -5,6 +5,34 @@ package common;
  * the contains the messaged passed between the client and server in order
  * to play the game.
  *
+ * A client may instead ask for the compact binary encoding by sending
+ * PROTOCOL_BINARY_MSG as its first message.  The server confirms with the
+ * same line and from then on both sides exchange frames made of a varint
+ * length, a single byte opcode and a payload, see common.BinaryCodec.
+ * Coordinates are packed into one varint cell index, row * dim + col.
+ *
+ * Besides the game it starts with, a connection may play many more games
+ * at once.  OPEN deals another board under an ID the client picks, a
+ * message prefixed with "GAME id " is routed to that board, its replies
+ * come back with the same prefix, and CLOSE discards it.  A game that is
+ * over is discarded by the server; only the first game ends the connection.
+ *
+ * Either side may check the other is still there with PING, answered with
+ * PONG.  A server may ping a client that has gone quiet and hang up on one
+ * that stays quiet, and may limit how long a game lasts, ending it with
+ * TIME_UP instead of GAME_OVER when its clock runs out.
+ *
+ * A server that keeps its games across restarts follows the BOARD_DIM of
+ * the first game with SESSION and a token.  A client that lost its
+ * connection may send RESUME with that token as its first message, before
+ * or after the encoding is negotiated, and gets back a BATCH of the
+ * BOARD_DIM of its game and a CARD for every card face up on it.
+ *
+ * VERSUS opens a game like OPEN in which the client takes turns with a
+ * player the server runs itself, and JOIN sits the client at a table
+ * whose board MIN_SEATS to MAX_SEATS players share and take turns on.
+ * WATCH follows a table without a seat.
+ *
  * @author Mayurreddy Sangepu
  */
 public interface ConcentrationProtocol {
@@ -33,7 +61,11 @@ public interface ConcentrationProtocol {
     String BOARD_DIM_MSG = BOARD_DIM + " %d";
     /** an error occurred, e.g. "ERROR Invalid coordinates" */
     String ERROR_MSG = ERROR + " %s";
-    /** the card detail message, e.g. "CARD 0 1 A" */
+    /**
+     * the card detail message, e.g. "CARD 0 1 A".  The first 26 pairs are
+     * named A to Z, the pairs of larger boards by their number, e.g.
+     * "CARD 40 7 311"
+     */
     String CARD_MSG = CARD + " %d %d %s";
 
     /**
@@ -51,6 +83,17 @@ public interface ConcentrationProtocol {
     /** the game over message, e.g. "GAME_OVER" */
     String GAME_OVER_MSG = GAME_OVER;
 
+    /** the combined reply to a REVEAL_BATCH */
+    String BATCH = "BATCH";
+
+    /**
+     * the header of the combined reply to a REVEAL_BATCH with the number of
+     * reply lines that follow it, e.g. "BATCH 3".  The lines are the CARD,
+     * MATCH, MISMATCH, ERROR and GAME_OVER messages the single reveals would
+     * have produced, sent without the reveal delay.
+     */
+    String BATCH_MSG = BATCH + " %d";
+
     /*
      * SERVER -> CLIENT MESSAGE HEADERS
      */
@@ -60,4 +103,234 @@ public interface ConcentrationProtocol {
 
     /** the reveal message with the card coordinate, e.g. "REVEAL 0 2" */
     String REVEAL_MSG = REVEAL + " %d %d";
+
+    /** the message to have the server reveal several cards in order */
+    String REVEAL_BATCH = "REVEAL_BATCH";
+
+    /**
+     * the batched reveal message with the number of cards and their
+     * coordinates, e.g. "REVEAL_BATCH 2 0 2 3 1".  The server stops at
+     * the first card that can not be revealed.
+     */
+    String REVEAL_BATCH_MSG = REVEAL_BATCH + " %d %s";
+
+    /** the most cards a single REVEAL_BATCH may reveal */
+    int MAX_BATCH = 64;
+
+    /*
+     * MULTIPLEXED GAMES
+     */
+
+    /** the message to open another game on the same connection */
+    String OPEN = "OPEN";
+
+    /**
+     * the open message with the ID of the new game and its board dimension,
+     * e.g. "OPEN 7 4", answered with "GAME 7 BOARD_DIM 4"
+     */
+    String OPEN_MSG = OPEN + " %d %d";
+
+    /** the message to discard a game, it has no reply */
+    String CLOSE = "CLOSE";
+
+    /** the close message with the ID of the game, e.g. "CLOSE 7" */
+    String CLOSE_MSG = CLOSE + " %d";
+
+    /** the prefix of a message to or from one of the opened games */
+    String GAME = "GAME";
+
+    /**
+     * a message routed to or from a game, e.g. "GAME 7 REVEAL 0 2".  The
+     * lines of a BATCH follow their prefixed header without a prefix.
+     */
+    String GAME_MSG = GAME + " %d %s";
+
+    /** the most games a connection may have open or tables it may watch, besides its first game */
+    int MAX_GAMES = 1024;
+
+    /*
+     * PLAYING AGAINST THE SERVER
+     */
+
+    /** the message to open a game against the server's own player */
+    String VERSUS = "VERSUS";
+
+    /**
+     * the versus message with the ID of the new game and its board
+     * dimension, e.g. "VERSUS 7 4", answered like an OPEN.  The client and
+     * the server's player take turns on the board, the client first, and a
+     * turn lasts until a pair does not match.  The cards the server's
+     * player reveals come as the CARD, MATCH and MISMATCH replies of the
+     * game right after the MISMATCH that ended the client's turn, and the
+     * client moves again once the MISMATCH ending the server's turn, or
+     * the GAME_OVER, arrived.  A REVEAL_BATCH stops at the end of the
+     * client's turn.
+     */
+    String VERSUS_MSG = VERSUS + " %d %d";
+
+    /*
+     * SHARED TABLES
+     */
+
+    /** the message to join a board shared with other players */
+    String JOIN = "JOIN";
+
+    /**
+     * the join message with the ID of the game, the number of the table and
+     * its board dimension, e.g. "JOIN 7 42 4".  A table nobody plays at is
+     * dealt a new board of that dimension.  The player is answered with
+     * "GAME 7 BOARD_DIM 4" and its seat, e.g. "GAME 7 SEAT 2", and may not
+     * join once the first card of the table was revealed.
+     */
+    String JOIN_MSG = JOIN + " %d %d %d";
+
+    /** the fewest players a table starts with */
+    int MIN_SEATS = 2;
+
+    /** the most players at a table */
+    int MAX_SEATS = 8;
+
+    /** the seat of the player at a table */
+    String SEAT = "SEAT";
+
+    /** the seat message with the number of the seat, from 0, e.g. "SEAT 2" */
+    String SEAT_MSG = SEAT + " %d";
+
+    /** whose turn it is at a table */
+    String TURN = "TURN";
+
+    /**
+     * the turn message with the seat whose turn it is, e.g. "TURN 0", sent
+     * to every seat once a table has MIN_SEATS players, to every player
+     * joining after that, after every MISMATCH and when the player whose
+     * turn it was leaves.  A turn lasts
+     * until a pair does not match.  Every CARD, MATCH, MISMATCH and the
+     * GAME_OVER of a table go to every seat, and a REVEAL out of turn is
+     * answered with an ERROR.  CLOSE leaves the table.
+     */
+    String TURN_MSG = TURN + " %d";
+
+    /** the message to follow a shared table without playing at it */
+    String WATCH = "WATCH";
+
+    /**
+     * the watch message with the number of the table, e.g. "WATCH 42".  The
+     * table is routed as game 42, so no game of the client may have that
+     * ID.  The spectator is sent the table as it stands, its BOARD_DIM, a
+     * CARD for every card face up and the TURN if a turn started, e.g.
+     * "GAME 42 BOARD_DIM 4", followed by every CARD, MATCH, MISMATCH, TURN
+     * and the GAME_OVER of the table as they happen, without the reveal
+     * delay.  A spectator that falls behind skips what it missed and is
+     * sent the table as it stands again, starting over with its BOARD_DIM.
+     * A table everybody left ends with "GAME 42 ERROR Table closed", and
+     * CLOSE stops following it.
+     */
+    String WATCH_MSG = WATCH + " %d";
+
+    /*
+     * LIVENESS AND TIMED GAMES
+     */
+
+    /** asks the other side to show it is still there, e.g. "PING" */
+    String PING = "PING";
+
+    /** the answer to a PING, e.g. "PONG" */
+    String PONG = "PONG";
+
+    /**
+     * the clock of a timed game ran out and the game is over, sent instead
+     * of GAME_OVER, e.g. "TIME_UP"
+     */
+    String TIME_UP = "TIME_UP";
+
+    /*
+     * RESUMING A GAME
+     */
+
+    /**
+     * the token the first game of a connection can be resumed with, always
+     * sent as text after its BOARD_DIM, e.g. "SESSION 5f1c09a2e4d3b871"
+     */
+    String SESSION = "SESSION";
+
+    /** the message resuming the game of a token, e.g. "RESUME 5f1c09a2e4d3b871" */
+    String RESUME = "RESUME";
+
+    /** the resume message with its token */
+    String RESUME_MSG = RESUME + " %s";
+
+    /*
+     * SERVER STATISTICS
+     */
+
+    /** the message asking for the server statistics, and its reply */
+    String STATS = "STATS";
+
+    /**
+     * the statistics reply with name=value pairs separated by spaces, e.g.
+     * "STATS accepted=12 active=3 moves=411 ..."
+     */
+    String STATS_MSG = STATS + " %s";
+
+    /*
+     * PROTOCOL NEGOTIATION, CLIENT -> SERVER AND SERVER -> CLIENT
+     */
+
+    /** asks for, or confirms, a wire encoding */
+    String PROTOCOL = "PROTOCOL";
+    /** the name of the binary wire encoding */
+    String BINARY = "BINARY";
+    /** the binary negotiation message, "PROTOCOL BINARY" */
+    String PROTOCOL_BINARY_MSG = PROTOCOL + " " + BINARY;
+
+    /*
+     * BINARY FRAME OPCODES
+     */
+
+    /** BOARD_DIM frame, payload is the dimension, only sent for an opened game */
+    byte OP_BOARD_DIM = 0;
+    /** ERROR frame, payload is the ASCII message */
+    byte OP_ERROR = 1;
+    /** CARD frame, payload is the cell and the pair number of the card */
+    byte OP_CARD = 2;
+    /** MATCH frame, payload is the cells of the two cards */
+    byte OP_MATCH = 3;
+    /** MISMATCH frame, payload is the cells of the two cards */
+    byte OP_MISMATCH = 4;
+    /** GAME_OVER frame, no payload */
+    byte OP_GAME_OVER = 5;
+    /** REVEAL frame, payload is the cell of the card */
+    byte OP_REVEAL = 6;
+    /** REVEAL_BATCH frame, payload is the number of cards and their cells */
+    byte OP_REVEAL_BATCH = 7;
+    /** BATCH frame, payload is the number of frames that follow inside it and the frames */
+    byte OP_BATCH = 8;
+    /** OPEN frame, payload is the ID of the game and its board dimension */
+    byte OP_OPEN = 9;
+    /** CLOSE frame, payload is the ID of the game */
+    byte OP_CLOSE = 10;
+    /** GAME frame, payload is the ID of the game and the opcode and payload of the routed frame */
+    byte OP_GAME = 11;
+    /** STATS frame, no payload when asked for, the ASCII statistics in reply */
+    byte OP_STATS = 12;
+    /** PING frame, no payload */
+    byte OP_PING = 13;
+    /** PONG frame, no payload */
+    byte OP_PONG = 14;
+    /** TIME_UP frame, no payload */
+    byte OP_TIME_UP = 15;
+    /** SESSION frame, payload is the ASCII token, never sent in binary */
+    byte OP_SESSION = 16;
+    /** RESUME frame, payload is the ASCII token */
+    byte OP_RESUME = 17;
+    /** VERSUS frame, payload is the ID of the game and its board dimension */
+    byte OP_VERSUS = 18;
+    /** JOIN frame, payload is the ID of the game, the number of the table and its board dimension */
+    byte OP_JOIN = 19;
+    /** SEAT frame, payload is the number of the seat */
+    byte OP_SEAT = 20;
+    /** TURN frame, payload is the seat whose turn it is */
+    byte OP_TURN = 21;
+    /** WATCH frame, payload is the number of the table */
+    byte OP_WATCH = 22;
 }
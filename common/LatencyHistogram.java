@@ -0,0 +1,159 @@
+package common;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies that any number of threads may record into at
+ * once without locking.  Values are counted in log-linear buckets: every
+ * power of two is split into SUB_BUCKETS equal parts, so a percentile is
+ * reported within about 6% of the true value however large it is, and
+ * recording is a few shifts and a few increments.  Every counter is a
+ * LongAdder, which spreads the threads that record at once over cells of
+ * their own and sums them on read, so busy threads do not fight over the
+ * cache lines of a few shared counters.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class LatencyHistogram {
+    /** the number of bits of a value below its highest set bit that pick its bucket */
+    private static final int SUB_BITS = 4;
+    /** the number of buckets every power of two is split into */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** the number of buckets, enough for every non negative long */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    /** the number of values in every bucket */
+    private final LongAdder[] counts;
+    /** the number of values recorded */
+    private final LongAdder total;
+    /** the sum of the values recorded */
+    private final LongAdder sum;
+    /** the largest value recorded */
+    private final LongAccumulator max;
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            this.counts[i] = new LongAdder();
+        }
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Get the bucket of a value.
+     *
+     * @param value the non negative value
+     * @return its bucket
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Get the largest value that falls into a bucket.
+     *
+     * @param bucket the bucket
+     * @return its upper bound
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value the value, negative values count as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.counts[bucket(value)].increment();
+        this.total.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Add every value recorded in another histogram, e.g. to merge the
+     * histograms filled by several threads.
+     *
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            long count = other.counts[i].sum();
+            if (count != 0) {
+                this.counts[i].add(count);
+            }
+        }
+        this.total.add(other.total.sum());
+        this.sum.add(other.sum.sum());
+        this.max.accumulate(other.max.get());
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.total.sum();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return the mean, 0 if there are none
+     */
+    public double getMean() {
+        long count = this.total.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the maximum, 0 if there are none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Get a percentile of the values recorded.  Values recorded while this
+     * runs may or may not be taken into account.
+     *
+     * @param percentile the percentile, e.g. 99.9
+     * @return the upper bound of the bucket the percentile falls into, 0 if
+     *     there are no values
+     */
+    public long getPercentile(double percentile) {
+        long count = this.total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += this.counts[i].sum();
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+}
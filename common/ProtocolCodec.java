@@ -0,0 +1,631 @@
+package common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses and encodes the text messages of the ConcentrationProtocol without
+ * creating any garbage.  Lines are parsed in place from the buffer they were
+ * read into, the numbers land in a caller owned int array, and replies are
+ * written straight into a caller owned buffer.  The text of every
+ * coordinate of a board, e.g. "3 1", is cached once per dimension and
+ * shared by all the games of that size.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ProtocolCodec implements ConcentrationProtocol {
+    /** parse result of a line that is not a well formed message */
+    public static final int UNKNOWN = -1;
+    /** parse result of a well formed message holding an invalid number */
+    public static final int BAD_NUMBER = -2;
+    /** the largest number a message may hold, the largest with the nine digits a text line allows */
+    public static final int MAX_NUMBER = 999_999_999;
+    /** the number of pairs named by a letter */
+    public static final int LETTERS = 26;
+    /** the largest dimension whose coordinates are cached */
+    public static final int TEMPLATE_MAX_DIM = 64;
+
+    /** the argument count of a message kind whose first argument counts coordinates */
+    private static final int COORDINATES = -1;
+    /** the keyword of every message kind, indexed by opcode */
+    private static final byte[][] KEYWORDS = new byte[OP_WATCH + 1][];
+    /** the number of arguments of every message kind, indexed by opcode */
+    private static final int[] ARGS = new int[OP_WATCH + 1];
+    /** the codecs with cached coordinates, indexed by dimension */
+    private static final ProtocolCodec[] CACHE = new ProtocolCodec[TEMPLATE_MAX_DIM + 1];
+
+    static {
+        keyword(OP_BOARD_DIM, BOARD_DIM, 1);
+        keyword(OP_ERROR, ERROR, 0);
+        keyword(OP_CARD, CARD, 3);
+        keyword(OP_MATCH, MATCH, 4);
+        keyword(OP_MISMATCH, MISMATCH, 4);
+        keyword(OP_GAME_OVER, GAME_OVER, 0);
+        keyword(OP_REVEAL, REVEAL, 2);
+        keyword(OP_REVEAL_BATCH, REVEAL_BATCH, COORDINATES);
+        keyword(OP_BATCH, BATCH, 1);
+        keyword(OP_OPEN, OPEN, 2);
+        keyword(OP_CLOSE, CLOSE, 1);
+        keyword(OP_GAME, GAME, 1);
+        keyword(OP_STATS, STATS, 0);
+        keyword(OP_PING, PING, 0);
+        keyword(OP_PONG, PONG, 0);
+        keyword(OP_TIME_UP, TIME_UP, 0);
+        keyword(OP_SESSION, SESSION, 0);
+        keyword(OP_RESUME, RESUME, 0);
+        keyword(OP_VERSUS, VERSUS, 2);
+        keyword(OP_JOIN, JOIN, 3);
+        keyword(OP_SEAT, SEAT, 1);
+        keyword(OP_TURN, TURN, 1);
+        keyword(OP_WATCH, WATCH, 1);
+    }
+
+    /** the square dimension of the board */
+    private final int dim;
+    /** the text of every cached coordinate back to back, null if not cached */
+    private final byte[] coords;
+    /** where the text of every cell starts in coords, one extra entry for the end */
+    private final int[] coordStart;
+
+    /**
+     * Create the codec of a board size, caching its coordinates if the
+     * board is small enough.
+     *
+     * @param dim the square dimension of the board
+     */
+    private ProtocolCodec(int dim) {
+        this.dim = dim;
+        if (dim > TEMPLATE_MAX_DIM) {
+            this.coords = null;
+            this.coordStart = null;
+            return;
+        }
+        ByteBuffer text = ByteBuffer.allocate(dim * dim * 8);
+        this.coordStart = new int[dim * dim + 1];
+        for (int row = 0; row < dim; ++row) {
+            for (int col = 0; col < dim; ++col) {
+                this.coordStart[row * dim + col] = text.position();
+                putNumber(text, row);
+                text.put((byte) ' ');
+                putNumber(text, col);
+            }
+        }
+        this.coordStart[dim * dim] = text.position();
+        this.coords = new byte[text.position()];
+        text.flip().get(this.coords);
+    }
+
+    /**
+     * Get the codec of a board size.
+     *
+     * @param dim the square dimension of the board
+     * @return the codec, shared by every board of that size
+     */
+    public static ProtocolCodec forDim(int dim) {
+        if (dim < 0 || dim > TEMPLATE_MAX_DIM) {
+            return new ProtocolCodec(dim);
+        }
+        synchronized (CACHE) {
+            if (CACHE[dim] == null) {
+                CACHE[dim] = new ProtocolCodec(dim);
+            }
+            return CACHE[dim];
+        }
+    }
+
+    /**
+     * Register the keyword of a message kind.
+     *
+     * @param op the opcode of the kind
+     * @param keyword the keyword
+     * @param args the number of arguments that follow it
+     */
+    private static void keyword(int op, String keyword, int args) {
+        KEYWORDS[op] = ascii(keyword);
+        ARGS[op] = args;
+    }
+
+    /**
+     * Get the bytes of an ASCII string.
+     *
+     * @param text the string
+     * @return its bytes
+     */
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Parse one line.  The numeric arguments are stored in args; for a
+     * CARD the third argument is the pair number of the card, see pairName.
+     * An ERROR, STATS, SESSION or RESUME keeps its free text in the buffer,
+     * after the keyword.
+     * A REVEAL_BATCH stores its card count followed by the coordinates.
+     *
+     * @param in the buffer holding the line
+     * @param start where the line starts
+     * @param end where the line ends, excluding its terminator
+     * @param args where the numeric arguments go, at least 4 long, and
+     *     1 + 2 * MAX_BATCH long to take a REVEAL_BATCH
+     * @return the opcode of the message, UNKNOWN if the keyword or the
+     *     number of arguments is wrong, BAD_NUMBER if an argument is not a
+     *     non negative number
+     */
+    public static int parse(ByteBuffer in, int start, int end, int[] args) {
+        int keywordEnd = next(in, start, end);
+        int op = UNKNOWN;
+        for (int i = 0; i < KEYWORDS.length && op == UNKNOWN; ++i) {
+            if (matches(in, start, keywordEnd, KEYWORDS[i])) {
+                op = i;
+            }
+        }
+        if (op == UNKNOWN || op == OP_ERROR || op == OP_STATS || op == OP_SESSION || op == OP_RESUME) {
+            return op;
+        }
+        int count = 0;
+        for (int pos = keywordEnd; pos < end; pos = next(in, pos + 1, end)) {
+            ++count;
+        }
+        if (ARGS[op] == COORDINATES ? count < 1 || count > args.length : count != ARGS[op]) {
+            return UNKNOWN;
+        }
+        int n = 0;
+        for (int pos = keywordEnd; pos < end; ) {
+            int tokenEnd = next(in, pos + 1, end);
+            int value = op == OP_CARD && n == 2
+                    ? pair(in, pos + 1, tokenEnd) : number(in, pos + 1, tokenEnd);
+            if (value < 0) {
+                return BAD_NUMBER;
+            }
+            args[n++] = value;
+            pos = tokenEnd;
+        }
+        if (ARGS[op] == COORDINATES && count != 1 + 2 * args[0]) {
+            return UNKNOWN;
+        }
+        return op;
+    }
+
+    /**
+     * Parse the prefix of a message routed to or from an opened game,
+     * "GAME id ".  The ID of the game is stored in args[0].
+     *
+     * @param in the buffer holding the line
+     * @param start where the line starts
+     * @param end where the line ends, excluding its terminator
+     * @param args where the ID goes
+     * @return where the routed message starts, UNKNOWN if the line has no
+     *     game prefix, BAD_NUMBER if the ID is not a non negative number
+     */
+    public static int parseGame(ByteBuffer in, int start, int end, int[] args) {
+        int keywordEnd = next(in, start, end);
+        if (keywordEnd == end || !matches(in, start, keywordEnd, KEYWORDS[OP_GAME])) {
+            return UNKNOWN;
+        }
+        int idEnd = next(in, keywordEnd + 1, end);
+        if (idEnd == end) {
+            return UNKNOWN;
+        }
+        int id = number(in, keywordEnd + 1, idEnd);
+        if (id < 0) {
+            return BAD_NUMBER;
+        }
+        args[0] = id;
+        return idEnd + 1;
+    }
+
+    /**
+     * Check whether a line starts with the given bytes.
+     *
+     * @param in the buffer holding the line
+     * @param start where the line starts
+     * @param end where the line ends
+     * @param prefix the bytes to look for
+     * @return whether the line starts with them
+     */
+    public static boolean startsWith(ByteBuffer in, int start, int end, byte[] prefix) {
+        return end - start >= prefix.length && matches(in, start, start + prefix.length, prefix);
+    }
+
+    /**
+     * Find the end of the token starting at a position.
+     *
+     * @param in the buffer holding the line
+     * @param pos where the token starts
+     * @param end where the line ends
+     * @return the position of the space after the token, or end
+     */
+    private static int next(ByteBuffer in, int pos, int end) {
+        while (pos < end && in.get(pos) != ' ') {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Compare a range of a buffer with a keyword.
+     *
+     * @param in the buffer
+     * @param start where the range starts
+     * @param end where the range ends
+     * @param keyword the keyword
+     * @return whether they are equal
+     */
+    private static boolean matches(ByteBuffer in, int start, int end, byte[] keyword) {
+        if (end - start != keyword.length) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length; ++i) {
+            if (in.get(start + i) != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a non negative decimal number.
+     *
+     * @param in the buffer
+     * @param start where the number starts
+     * @param end where the number ends
+     * @return the number, or -1 if it is not a number or too large
+     */
+    private static int number(ByteBuffer in, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            int digit = in.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse the name of a card into its pair number, see pairName.
+     *
+     * @param in the buffer
+     * @param start where the name starts
+     * @param end where the name ends
+     * @return the pair number, or -1 if it is not a valid name
+     */
+    private static int pair(ByteBuffer in, int start, int end) {
+        if (end - start == 1) {
+            int pair = in.get(start) - 'A';
+            if (pair >= 0 && pair < LETTERS) {
+                return pair;
+            }
+        }
+        return number(in, start, end);
+    }
+
+    /**
+     * Get the name of a pair as it is sent in a CARD message: the letters
+     * A to Z for the first 26 pairs, so small boards look as they always
+     * did, and the pair number itself for the pairs of large boards.
+     *
+     * @param pair the pair number
+     * @return its name
+     */
+    public static String pairName(int pair) {
+        return pair < LETTERS ? String.valueOf((char) ('A' + pair)) : String.valueOf(pair);
+    }
+
+    /**
+     * Get the pair number of a card from its name, see pairName.
+     *
+     * @param name the name of the card
+     * @return the pair number, or -1 if it is not a valid name
+     */
+    public static int pairNumber(String name) {
+        if (name.length() == 1 && name.charAt(0) >= 'A' && name.charAt(0) < 'A' + LETTERS) {
+            return name.charAt(0) - 'A';
+        }
+        int value = 0;
+        for (int i = 0; i < name.length(); ++i) {
+            int digit = name.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return name.isEmpty() ? -1 : value;
+    }
+
+    /**
+     * Write the name of a pair, see pairName.
+     *
+     * @param out the buffer to write to
+     * @param pair the pair number
+     */
+    public static void putPair(ByteBuffer out, int pair) {
+        if (pair < LETTERS) {
+            out.put((byte) ('A' + pair));
+        } else {
+            putNumber(out, pair);
+        }
+    }
+
+    /**
+     * Write a non negative decimal number.
+     *
+     * @param out the buffer to write to
+     * @param value the number
+     */
+    public static void putNumber(ByteBuffer out, int value) {
+        if (value >= 10) {
+            putNumber(out, value / 10);
+        }
+        out.put((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Write the text of a coordinate, "row col".
+     *
+     * @param out the buffer to write to
+     * @param row the row
+     * @param col the column
+     */
+    private void putCoord(ByteBuffer out, int row, int col) {
+        if (this.coords != null && row < this.dim && col < this.dim) {
+            int cell = row * this.dim + col;
+            out.put(this.coords, this.coordStart[cell], this.coordStart[cell + 1] - this.coordStart[cell]);
+        } else {
+            putNumber(out, row);
+            out.put((byte) ' ');
+            putNumber(out, col);
+        }
+    }
+
+    /**
+     * Write the keyword of a message kind followed by a space.
+     *
+     * @param out the buffer to write to
+     * @param op the opcode of the kind
+     */
+    private static void putKeyword(ByteBuffer out, int op) {
+        out.put(KEYWORDS[op]);
+        out.put((byte) ' ');
+    }
+
+    /**
+     * Write a BOARD_DIM line.
+     *
+     * @param out the buffer to write to
+     */
+    public void putBoardDim(ByteBuffer out) {
+        putKeyword(out, OP_BOARD_DIM);
+        putNumber(out, this.dim);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a CARD line.
+     *
+     * @param out the buffer to write to
+     * @param row the row of the card
+     * @param col the column of the card
+     * @param pair the pair number of the card, see pairName
+     */
+    public void putCard(ByteBuffer out, int row, int col, int pair) {
+        putKeyword(out, OP_CARD);
+        putCoord(out, row, col);
+        out.put((byte) ' ');
+        putPair(out, pair);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a MATCH or MISMATCH line.
+     *
+     * @param out the buffer to write to
+     * @param match whether the cards match
+     * @param row1 the row of the first card
+     * @param col1 the column of the first card
+     * @param row2 the row of the second card
+     * @param col2 the column of the second card
+     */
+    public void putMatch(ByteBuffer out, boolean match, int row1, int col1, int row2, int col2) {
+        putKeyword(out, match ? OP_MATCH : OP_MISMATCH);
+        putCoord(out, row1, col1);
+        out.put((byte) ' ');
+        putCoord(out, row2, col2);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a REVEAL line.
+     *
+     * @param out the buffer to write to
+     * @param row the row of the card
+     * @param col the column of the card
+     */
+    public void putReveal(ByteBuffer out, int row, int col) {
+        putKeyword(out, OP_REVEAL);
+        putCoord(out, row, col);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a REVEAL_BATCH line.
+     *
+     * @param out the buffer to write to
+     * @param coords the coordinates of the cards, row and column after each other
+     * @param count the number of cards
+     */
+    public void putRevealBatch(ByteBuffer out, int[] coords, int count) {
+        putKeyword(out, OP_REVEAL_BATCH);
+        putNumber(out, count);
+        for (int i = 0; i < count; ++i) {
+            out.put((byte) ' ');
+            putCoord(out, coords[2 * i], coords[2 * i + 1]);
+        }
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write the header line of a BATCH reply.
+     *
+     * @param out the buffer to write to
+     * @param count the number of reply lines that follow
+     */
+    public static void putBatch(ByteBuffer out, int count) {
+        putKeyword(out, OP_BATCH);
+        putNumber(out, count);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write an OPEN line.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the new game
+     * @param dim the square dimension of its board
+     */
+    public static void putOpen(ByteBuffer out, int id, int dim) {
+        putKeyword(out, OP_OPEN);
+        putNumber(out, id);
+        out.put((byte) ' ');
+        putNumber(out, dim);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a VERSUS line.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the new game
+     * @param dim the square dimension of its board
+     */
+    public static void putVersus(ByteBuffer out, int id, int dim) {
+        putKeyword(out, OP_VERSUS);
+        putNumber(out, id);
+        out.put((byte) ' ');
+        putNumber(out, dim);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a JOIN line.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the game
+     * @param table the number of the table
+     * @param dim the square dimension of its board
+     */
+    public static void putJoin(ByteBuffer out, int id, int table, int dim) {
+        putKeyword(out, OP_JOIN);
+        putNumber(out, id);
+        out.put((byte) ' ');
+        putNumber(out, table);
+        out.put((byte) ' ');
+        putNumber(out, dim);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a SEAT or TURN line.
+     *
+     * @param out the buffer to write to
+     * @param op OP_SEAT or OP_TURN
+     * @param seat the seat
+     */
+    public static void putSeat(ByteBuffer out, int op, int seat) {
+        putKeyword(out, op);
+        putNumber(out, seat);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a WATCH line.
+     *
+     * @param out the buffer to write to
+     * @param table the number of the table
+     */
+    public static void putWatch(ByteBuffer out, int table) {
+        putKeyword(out, OP_WATCH);
+        putNumber(out, table);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write a CLOSE line.
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the game
+     */
+    public static void putClose(ByteBuffer out, int id) {
+        putKeyword(out, OP_CLOSE);
+        putNumber(out, id);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write the prefix that routes the message written after it to or from
+     * an opened game, "GAME id ".
+     *
+     * @param out the buffer to write to
+     * @param id the ID of the game
+     */
+    public static void putGame(ByteBuffer out, int id) {
+        putKeyword(out, OP_GAME);
+        putNumber(out, id);
+        out.put((byte) ' ');
+    }
+
+    /**
+     * Write a GAME_OVER line.
+     *
+     * @param out the buffer to write to
+     */
+    public static void putGameOver(ByteBuffer out) {
+        putEmpty(out, OP_GAME_OVER);
+    }
+
+    /**
+     * Write a line made of nothing but the keyword of a message kind, e.g.
+     * GAME_OVER or PING.
+     *
+     * @param out the buffer to write to
+     * @param op the opcode of the message kind
+     */
+    public static void putEmpty(ByteBuffer out, int op) {
+        out.put(KEYWORDS[op]);
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write an ERROR line.  The message is cut short if the buffer is full.
+     *
+     * @param out the buffer to write to
+     * @param msg the error message
+     */
+    public static void putError(ByteBuffer out, String msg) {
+        putKeyword(out, OP_ERROR);
+        for (int i = 0; i < msg.length() && out.remaining() > 1; ++i) {
+            out.put((byte) msg.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+
+    /**
+     * Write any text line.
+     *
+     * @param out the buffer to write to
+     * @param line the line without its terminator
+     */
+    public static void putLine(ByteBuffer out, String line) {
+        for (int i = 0; i < line.length() && out.remaining() > 1; ++i) {
+            out.put((byte) line.charAt(i));
+        }
+        out.put((byte) '\n');
+    }
+}
@@ -1,14 +1,15 @@
 package controller;
 
 import common.ConcentrationProtocol;
+import common.ProtocolCodec;
 import model.ConcentrationModel;
 import view.ConcentrationGUI;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 /**
  * This class is the Controller layer
@@ -24,6 +25,34 @@ public class ConcentrationController implements ConcentrationProtocol,Runnable {
      * Instance of Socket
      */
     private Socket clientSocket = null;
+    /**
+     * the server's input stream
+     */
+    private InputStream in;
+    /**
+     * the server's output stream
+     */
+    private OutputStream out;
+    /**
+     * the bytes read from the server and not yet handled, kept ready for reading
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024).limit(0);
+    /**
+     * the buffer the REVEAL requests are encoded into
+     */
+    private final ByteBuffer request = ByteBuffer.allocate(64);
+    /**
+     * the buffer the PONG replies are encoded into, only used by the listener
+     */
+    private final ByteBuffer pong = ByteBuffer.allocate(16);
+    /**
+     * the numeric arguments of the last message parsed
+     */
+    private final int[] args = new int[4];
+    /**
+     * encodes the requests for the size of the board
+     */
+    private ProtocolCodec codec;
 
     /**
      * This constructor is responsible for initializing socket and model
@@ -35,6 +64,9 @@ public class ConcentrationController implements ConcentrationProtocol,Runnable {
      */
     public ConcentrationController(String hostName, int portNumber, ConcentrationModel model) throws IOException {
         this.clientSocket = new Socket(hostName, portNumber);
+        this.clientSocket.setTcpNoDelay(true);
+        this.in = this.clientSocket.getInputStream();
+        this.out = this.clientSocket.getOutputStream();
         this.model = model;
         initiate();
     }
@@ -46,14 +78,13 @@ public class ConcentrationController implements ConcentrationProtocol,Runnable {
      */
     private void initiate() throws IOException {
 
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(clientSocket.getInputStream()));
-            String fromServer = in.readLine();
-            if(fromServer!=null) {
-                String[] list = fromServer.split(" ");
-                if (list[0].equals(BOARD_DIM)) {
-                    this.model.createBoard(Integer.parseInt(list[1]));
+            int end = readLine();
+            if(end>=0) {
+                if (ProtocolCodec.parse(this.buffer, this.buffer.position(), end, this.args) == ProtocolCodec.OP_BOARD_DIM) {
+                    this.model.createBoard(this.args[0]);
+                    this.codec = ProtocolCodec.forDim(this.args[0]);
                 }
+                this.buffer.position(end + 1);
             }
             startListener();
     }
@@ -67,36 +98,63 @@ public class ConcentrationController implements ConcentrationProtocol,Runnable {
         new Thread(() -> run()).start();
     }
 
+    /**
+     * Read until the buffer holds a whole line.  The line starts at the
+     * buffer's position and is parsed in place from there.
+     *
+     * @return where the line ends, excluding its terminator, or -1 when
+     *     the server closed the connection
+     * @throws IOException if the read fails or the line does not fit the buffer
+     */
+    private int readLine() throws IOException {
+        while (true) {
+            for (int i = this.buffer.position(); i < this.buffer.limit(); ++i) {
+                if (this.buffer.get(i) == '\n') {
+                    return i;
+                }
+            }
+            this.buffer.compact();
+            if (!this.buffer.hasRemaining()) {
+                throw new IOException("Line too long");
+            }
+            int n = this.in.read(this.buffer.array(), this.buffer.position(), this.buffer.remaining());
+            if (n < 0) {
+                return -1;
+            }
+            this.buffer.position(this.buffer.position() + n);
+            this.buffer.flip();
+        }
+    }
+
     /**
      * It reads the output from server and updates the model
      * according to the protocol(ConcentrationProtocol)
      */
     @Override
     public void run() {
-        try (
-                BufferedReader in = new BufferedReader(
-                        new InputStreamReader(this.clientSocket.getInputStream()));
-        ) {
-            String fromServer;
-            while ((fromServer = in.readLine()) != null) {
-                String[] list = fromServer.split(" ");
-                if (list.length > 0) {
-                    if (list[0].equals(ERROR)) {
-                        this.model.setStatus(ConcentrationModel.Status.ERROR);
-                    } else if (list[0].equals(CARD)) {
-                        this.model.revealCard(Integer.parseInt(list[1]), Integer.parseInt(list[2]), list[3]);
-
-                    }else if (list[0].equals(MISMATCH)) {
-                        this.model.revertCard(Integer.parseInt(list[1]), Integer.parseInt(list[2]),
-                                Integer.parseInt(list[3]), Integer.parseInt(list[4]));
-                    }else if (list[0].equals(MATCH)) {
-                        this.model.updateMatchesMade();
-                    }
-                    else if (GAME_OVER.equals(list[0])) {
-                        this.model.setStatus(ConcentrationModel.Status.GAME_OVER);
-                        this.clientSocket.close();
-                        break;
-                    }
+        try {
+            int end;
+            while ((end = readLine()) >= 0) {
+                int op = ProtocolCodec.parse(this.buffer, this.buffer.position(), end, this.args);
+                this.buffer.position(end + 1);
+                if (op == OP_ERROR) {
+                    this.model.setStatus(ConcentrationModel.Status.ERROR);
+                } else if (op == OP_CARD) {
+                    this.model.revealCard(this.args[0], this.args[1], this.args[2]);
+                } else if (op == OP_MISMATCH) {
+                    this.model.revertCard(this.args[0], this.args[1], this.args[2], this.args[3]);
+                } else if (op == OP_MATCH) {
+                    this.model.updateMatchesMade();
+                } else if (op == OP_PING) {
+                    // the server checks we are still there, e.g. while the player thinks
+                    this.pong.clear();
+                    ProtocolCodec.putEmpty(this.pong, OP_PONG);
+                    write(this.pong);
+                } else if (op == OP_GAME_OVER || op == OP_TIME_UP) {
+                    this.model.setStatus(op == OP_GAME_OVER
+                            ? ConcentrationModel.Status.GAME_OVER : ConcentrationModel.Status.TIME_UP);
+                    this.clientSocket.close();
+                    break;
                 }
             }
         } catch (IOException e) {
@@ -110,18 +168,34 @@ public class ConcentrationController implements ConcentrationProtocol,Runnable {
      *
      * @param row row of the button
      * @param col column of the button
-     * @param btt button node
+     * @param btt button node, null when the board is drawn on a canvas
      */
     public void sendRequest(int row, int col, ConcentrationGUI.cellButton btt)
     {
         try  {
             if(!this.model.isRevealed(row, col) && this.model.setCard(btt)) {
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-                out.println(String.format(REVEAL_MSG, row, col));
+                this.request.clear();
+                this.codec.putReveal(this.request, row, col);
+                write(this.request);
             }
 
         } catch (IOException e) {System.exit(-1);}
     }
 
+    /**
+     * Send an encoded message to the server.  The FX thread sends the
+     * REVEAL requests and the listener the PONG replies, so a message is
+     * written whole before the other thread may write.
+     *
+     * @param msg the buffer the message was encoded into, up to its position
+     * @throws IOException if the write fails
+     */
+    private void write(ByteBuffer msg) throws IOException {
+        synchronized (this.out) {
+            this.out.write(msg.array(), 0, msg.position());
+            this.out.flush();
+        }
+    }
+
 
 }
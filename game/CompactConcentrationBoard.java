@@ -0,0 +1,300 @@
+package game;
+
+import common.AsyncLog;
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+
+import java.util.SplittableRandom;
+
+/**
+ * A game board that keeps the whole game in two primitive arrays instead of
+ * an object per card: the pair number of every cell and a bitset of the
+ * cells that are face up.  A 6x6 game takes a couple of hundred bytes
+ * rather than a few kilobytes, and a move creates no objects.  It plays
+ * exactly like ConcentrationBoard.
+ *
+ * In large mode the board may be up to LARGE_MAX_DIM on a side.  Its pairs
+ * are numbered rather than lettered, and dealing it takes time linear in
+ * the number of cells, a few milliseconds for the largest board.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class CompactConcentrationBoard implements ConcentrationProtocol, GameBoard {
+    /** the smallest board is 2x2 */
+    private final static int MIN_DIM = 2;
+    /** the largest board is 6x6 */
+    public final static int MAX_DIM = 6;
+    /** the largest board in large mode is 1024x1024 */
+    public final static int LARGE_MAX_DIM = 1024;
+    /** the most pairs that are stored in a char per cell */
+    private final static int CHAR_PAIRS = Character.MAX_VALUE + 1;
+
+    /** the square dimension of the board */
+    private final int DIM;
+    /** the seed the cards were shuffled with */
+    private final long seed;
+    /** the pair number of every cell, row by row, null if the board has too many pairs */
+    private final char[] pairs;
+    /** the pair number of every cell of a board with too many pairs for a char */
+    private final int[] widePairs;
+    /** one bit per cell, set while the card is face up */
+    private final long[] revealed;
+    /** the cell of the first card of the current pair, -1 if none */
+    private int revealedCell;
+    /** the number of card matches that have been made so far */
+    private int matches;
+    /** the cell revealed by the last flip */
+    private int lastCell;
+    /** the cell of the first card of the pair completed by the last flip */
+    private int firstCell;
+    /** contains Match or Mismatch string */
+    private String matchStatus;
+
+    /**
+     * Create the board in non-cheat mode.
+     *
+     * @param DIM square dimension
+     * @throws ConcentrationException if the dimension is illegal
+     */
+    public CompactConcentrationBoard(int DIM) throws ConcentrationException {
+        this(DIM, false);
+    }
+
+    /**
+     * Create the board.
+     *
+     * @param DIM square dimension
+     * @param cheat whether to display the fully revealed board or not
+     * @throws ConcentrationException if the dimensions are invalid
+     */
+    public CompactConcentrationBoard(int DIM, boolean cheat) throws ConcentrationException {
+        this(DIM, cheat, false);
+    }
+
+    /**
+     * Create the board, possibly in large mode.
+     *
+     * @param DIM square dimension
+     * @param cheat whether to display the fully revealed board or not
+     * @param large whether to allow boards up to LARGE_MAX_DIM
+     * @throws ConcentrationException if the dimensions are invalid
+     */
+    public CompactConcentrationBoard(int DIM, boolean cheat, boolean large) throws ConcentrationException {
+        this(DIM, cheat, large, SeedSource.PER_THREAD.nextSeed());
+    }
+
+    /**
+     * Create the board shuffled with a given seed, e.g. to deal again a
+     * board whose seed was logged.
+     *
+     * @param DIM square dimension
+     * @param cheat whether to display the fully revealed board or not
+     * @param large whether to allow boards up to LARGE_MAX_DIM
+     * @param seed the seed to shuffle the cards with
+     * @throws ConcentrationException if the dimensions are invalid
+     */
+    public CompactConcentrationBoard(int DIM, boolean cheat, boolean large, long seed)
+            throws ConcentrationException {
+        // check for bad dimensions
+        if (DIM < MIN_DIM || DIM > (large ? LARGE_MAX_DIM : MAX_DIM)) {
+            throw new ConcentrationException("Board size out of range: " + DIM);
+        } else if (DIM % 2 != 0) {
+            throw new ConcentrationException("Board size not even: " + DIM);
+        }
+        this.DIM = DIM;
+        this.seed = seed;
+        int cells = DIM * DIM;
+
+        // deal and shuffle in a single pass with the inside-out Fisher-Yates
+        // shuffle: card i goes to a random slot j <= i, whose card moves to i
+        SplittableRandom random = new SplittableRandom(seed);
+        if (cells / 2 <= CHAR_PAIRS) {
+            this.pairs = new char[cells];
+            this.widePairs = null;
+            for (int i = 0; i < cells; ++i) {
+                int j = random.nextInt(i + 1);
+                this.pairs[i] = this.pairs[j];
+                this.pairs[j] = (char) (i / 2);
+            }
+        } else {
+            this.pairs = null;
+            this.widePairs = new int[cells];
+            for (int i = 0; i < cells; ++i) {
+                int j = random.nextInt(i + 1);
+                this.widePairs[i] = this.widePairs[j];
+                this.widePairs[j] = i / 2;
+            }
+        }
+        this.revealed = new long[(cells + 63) >>> 6];
+
+        // if cheat mode is enabled log the fully revealed board
+        if (cheat) {
+            AsyncLog.get().log(AsyncLog.Level.INFO, "SOLUTION", AsyncLog.NO_SESSION, seed, render(true));
+        }
+
+        this.revealedCell = -1;
+        this.matches = 0;
+    }
+
+    @Override
+    public int getDIM() {
+        return this.DIM;
+    }
+
+    @Override
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Get the pair number of the card in a cell.
+     *
+     * @param cell the cell
+     * @return the pair number
+     */
+    private int pairAt(int cell) {
+        return this.pairs != null ? this.pairs[cell] : this.widePairs[cell];
+    }
+
+    /**
+     * Is the card in a cell face up?
+     *
+     * @param cell the cell
+     * @return whether it is face up
+     */
+    private boolean isRevealed(int cell) {
+        return (this.revealed[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Turn the card in a cell face up or face down.
+     *
+     * @param cell the cell
+     * @param up whether it should be face up
+     */
+    private void setRevealed(int cell, boolean up) {
+        if (up) {
+            this.revealed[cell >>> 6] |= 1L << cell;
+        } else {
+            this.revealed[cell >>> 6] &= ~(1L << cell);
+        }
+    }
+
+    @Override
+    public int flip(int row, int col) throws ConcentrationException {
+        if (gameOver()) {
+            throw new ConcentrationException("Invalid Coordinates " + row + " " + col);
+        }
+        if (row < 0 || col < 0 || row >= this.DIM || col >= this.DIM) {
+            throw new ConcentrationException("Coordinates out of range " + row + " " + col);
+        }
+        int cell = row * this.DIM + col;
+        if (isRevealed(cell)) {
+            throw new ConcentrationException("Card already revealed at " + row + " " + col);
+        }
+        setRevealed(cell, true);
+        this.lastCell = cell;
+        if (this.revealedCell < 0) {
+            this.revealedCell = cell;
+            return REVEALED_FIRST;
+        }
+        this.firstCell = this.revealedCell;
+        this.revealedCell = -1;
+        if (pairAt(this.firstCell) == pairAt(cell)) {
+            this.matches += 1;
+            return MATCHED;
+        }
+        setRevealed(this.firstCell, false);
+        setRevealed(cell, false);
+        return MISMATCHED;
+    }
+
+    @Override
+    public int getLastPair() {
+        return pairAt(this.lastCell);
+    }
+
+    @Override
+    public int getFirstRow() {
+        return this.firstCell / this.DIM;
+    }
+
+    @Override
+    public int getFirstCol() {
+        return this.firstCell % this.DIM;
+    }
+
+    @Override
+    public boolean gameOver() {
+        return this.matches >= (this.DIM * this.DIM) / 2;
+    }
+
+    @Override
+    public String processInput(int row, int col) throws ConcentrationException {
+        int outcome = flip(row, col);
+        if (outcome == REVEALED_FIRST) {
+            this.matchStatus = null;
+        } else {
+            this.matchStatus = (outcome == MATCHED ? MATCH : MISMATCH) + " " + getFirstRow() + " " + getFirstCol()
+                    + " " + row + " " + col;
+        }
+        return CARD + " " + row + " " + col + " " + ProtocolCodec.pairName(getLastPair());
+    }
+
+    @Override
+    public String getMatchStatus() {
+        return this.matchStatus;
+    }
+
+    /**
+     * Returns a string representation of the board in the same form as
+     * ConcentrationBoard.toString().  A board with more pairs than letters
+     * shows the pair names separated by spaces.
+     *
+     * @return the board as a string
+     */
+    @Override
+    public String toString() {
+        return render(false);
+    }
+
+    @Override
+    public String getSolution() {
+        return render(true);
+    }
+
+    /**
+     * Render the board.
+     *
+     * @param all whether to show the hidden cards as well
+     * @return the board as a string
+     */
+    private String render(boolean all) {
+        boolean wide = this.DIM > MAX_DIM;
+        StringBuilder str = new StringBuilder();
+        // build the top row of indices
+        str.append("  ");
+        for (int col = 0; col < this.DIM; ++col) {
+            str.append(wide ? " " : "").append(col);
+        }
+        str.append("\n");
+        // build each row of the actual board
+        for (int row = 0; row < this.DIM; ++row) {
+            str.append(row).append("|");
+            for (int col = 0; col < this.DIM; ++col) {
+                int cell = row * this.DIM + col;
+                if (wide) {
+                    str.append(' ');
+                }
+                if (all || isRevealed(cell)) {
+                    str.append(ProtocolCodec.pairName(pairAt(cell)));
+                } else {
+                    str.append(ConcentrationCard.HIDDEN);
+                }
+            }
+            str.append("\n");
+        }
+        return str.toString();
+    }
+}
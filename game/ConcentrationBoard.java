@@ -1,18 +1,17 @@
 package game;
 
+import common.AsyncLog;
 import common.ConcentrationException;
 import common.ConcentrationProtocol;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.SplittableRandom;
 
 /**
  * Represents the game board for the concentration game.
  *
  * @author Mayurreddy Sangepu
  */
-public class ConcentrationBoard implements ConcentrationProtocol{
+public class ConcentrationBoard implements ConcentrationProtocol, GameBoard {
     /** the smallest board is 2x2 */
     private final static int MIN_DIM = 2;
     /** the largest board is 6x6 */
@@ -20,6 +19,8 @@ public class ConcentrationBoard implements ConcentrationProtocol{
 
     /** the square dimension of the board */
     private int DIM;
+    /** the seed the cards were shuffled with */
+    private final long seed;
     /** the actual board is a 2-D grid of cards */
     private ConcentrationCard board[][];
     /** if the first card is revealed this is set (otherwise null) */
@@ -30,6 +31,12 @@ public class ConcentrationBoard implements ConcentrationProtocol{
     private CardMatch cardMatch;
     /** contains Match or Mismatch string*/
     private String matchStatus;
+    /** the pair number of the card revealed by the last flip */
+    private int lastPair;
+    /** the row of the first card of the pair completed by the last flip */
+    private int firstRow;
+    /** the column of the first card of the pair completed by the last flip */
+    private int firstCol;
 
     /**
      * An internal class used to determine a card match or mismatch.
@@ -110,6 +117,19 @@ public class ConcentrationBoard implements ConcentrationProtocol{
      * @throws ConcentrationException if the dimensions are invalid
      */
     public ConcentrationBoard(int DIM, boolean cheat) throws ConcentrationException {
+        this(DIM, cheat, SeedSource.PER_THREAD.nextSeed());
+    }
+
+    /**
+     * Create the board shuffled with a given seed, e.g. to deal again a
+     * board whose seed was logged.
+     *
+     * @param DIM square dimension
+     * @param cheat whether to display the fully revealed board or not
+     * @param seed the seed to shuffle the cards with
+     * @throws ConcentrationException if the dimensions are invalid
+     */
+    public ConcentrationBoard(int DIM, boolean cheat, long seed) throws ConcentrationException {
         // check for bad dimensions
         if (DIM < MIN_DIM || DIM > MAX_DIM) {
             throw new ConcentrationException("Board size out of range: " + DIM);
@@ -117,29 +137,36 @@ public class ConcentrationBoard implements ConcentrationProtocol{
             throw new ConcentrationException("Board size not even: " + DIM);
         }
 
-        /** create the pair of cards and shuffle them */
-        List<Character> chars = new ArrayList<>(DIM*DIM);
-        for (char i=0; i<(DIM*DIM)/2; ++i) {
-            chars.add((char)(i+'A'));
-            chars.add((char)(i+'A'));
+        /**
+         * create the pair of cards and shuffle them with the inside-out
+         * Fisher-Yates shuffle: card i goes to a random slot j <= i, whose
+         * card moves to i
+         */
+        this.seed = seed;
+        SplittableRandom random = new SplittableRandom(seed);
+        char[] chars = new char[DIM*DIM];
+        for (int i=0; i<chars.length; ++i) {
+            int j = random.nextInt(i + 1);
+            chars[i] = chars[j];
+            chars[j] = (char)(i/2+'A');
         }
-        Collections.shuffle(chars);
 
         /**
-         * Create the grid of cards and populate from the shuffled list.
+         * Create the grid of cards and populate from the shuffled list,
+         * walking it by index rather than removing from its front.
          */
         this.DIM = DIM;
         this.board = new ConcentrationCard[DIM][DIM];
+        int next = 0;
         for (int row=0; row<DIM; ++row) {
             for (int col=0; col<DIM; ++col) {
-                this.board[row][col] = new ConcentrationCard(row, col, chars.remove(0));
+                this.board[row][col] = new ConcentrationCard(row, col, chars[next++]);
             }
         }
 
-        // if cheat mode is enabled display the fully revealed board
+        // if cheat mode is enabled log the fully revealed board
         if (cheat) {
-            System.out.println("SOLUTION:");
-            System.out.println(this.toString());
+            AsyncLog.get().log(AsyncLog.Level.INFO, "SOLUTION", AsyncLog.NO_SESSION, seed, getSolution());
         }
 
         // hide all the cards in the board
@@ -154,14 +181,16 @@ public class ConcentrationBoard implements ConcentrationProtocol{
         this.matches = 0;
     }
 
-    /**
-     * Get the square dimension of the board
-     * @return square dimension
-     */
+    @Override
     public int getDIM() {
         return this.DIM;
     }
 
+    @Override
+    public long getSeed() {
+        return this.seed;
+    }
+
     /**
      * Get a card from the board at a coordinate.
      *
@@ -171,7 +200,7 @@ public class ConcentrationBoard implements ConcentrationProtocol{
      * @throws ConcentrationException if the coordinate is invalid
      */
     public ConcentrationCard getCard(int row, int col) throws ConcentrationException {
-        if(row>=this.DIM || col>=this.DIM)
+        if(row<0 || col<0 || row>=this.DIM || col>=this.DIM)
         {
             throw new ConcentrationException("Coordinates out of range " + row + " " + col);
         }
@@ -227,11 +256,7 @@ public class ConcentrationBoard implements ConcentrationProtocol{
         return this.cardMatch;
     }
 
-    /**
-     * The game is over when all the matches have been made.
-     *
-     * @return whether the game is over or not
-     */
+    @Override
     public boolean gameOver() {
         return this.matches >= (this.DIM * this.DIM) / 2;
     }
@@ -250,6 +275,21 @@ public class ConcentrationBoard implements ConcentrationProtocol{
      */
     @Override
     public String toString() {
+        return render(false);
+    }
+
+    @Override
+    public String getSolution() {
+        return render(true);
+    }
+
+    /**
+     * Render the board.
+     *
+     * @param all whether to show the hidden cards as well
+     * @return the board as a string
+     */
+    private String render(boolean all) {
         StringBuilder str = new StringBuilder();
         // build the top row of indices
         str.append("  ");
@@ -265,7 +305,7 @@ public class ConcentrationBoard implements ConcentrationProtocol{
                 ConcentrationCard card = this.board[row][col];
                 // based on whether the card is hidden or not display
                 // build with the correct letter
-                if (card.isHidden()) {
+                if (card.isHidden() && !all) {
                     str.append(ConcentrationCard.HIDDEN);
                 } else {
                     str.append(this.board[row][col].getLetter());
@@ -276,6 +316,55 @@ public class ConcentrationBoard implements ConcentrationProtocol{
         return str.toString();
     }
 
+    /**
+     * Reveal a card and settle the pair: when it is the second card of a
+     * pair that does not match, both cards are hidden again.
+     *
+     * @param row row of the card to be revealed
+     * @param col column of the card to be revealed
+     * @return the revealed card and, if it completed a pair, the first card
+     *     of the pair and whether they match
+     * @throws ConcentrationException if the game is over, the coordinate is invalid, or the
+     *     card has already been revealed.
+     */
+    public CardMatch play(int row, int col) throws ConcentrationException {
+        CardMatch cardMatch = reveal(row,col);
+        if(cardMatch.isReady() && !cardMatch.isMatch())
+        {
+            cardMatch.getCard1().hide();
+            cardMatch.getCard2().hide();
+        }
+        return cardMatch;
+    }
+
+    @Override
+    public int flip(int row, int col) throws ConcentrationException {
+        CardMatch cardMatch = play(row,col);
+        this.lastPair = cardMatch.getCard2().getLetter() - 'A';
+        if(!cardMatch.isReady())
+        {
+            return REVEALED_FIRST;
+        }
+        this.firstRow = cardMatch.getCard1().getRow();
+        this.firstCol = cardMatch.getCard1().getCol();
+        return cardMatch.isMatch() ? MATCHED : MISMATCHED;
+    }
+
+    @Override
+    public int getLastPair() {
+        return this.lastPair;
+    }
+
+    @Override
+    public int getFirstRow() {
+        return this.firstRow;
+    }
+
+    @Override
+    public int getFirstCol() {
+        return this.firstCol;
+    }
+
     /**
      * This method processes the input coordinates and
      * returns the message according to the protocol
@@ -285,34 +374,29 @@ public class ConcentrationBoard implements ConcentrationProtocol{
      * @return returns the message based on the protocol
      * @throws ConcentrationException
      */
+    @Override
     public String processInput(int row, int col) throws ConcentrationException {
-        String msg = "";
-        CardMatch cardMatch = reveal(row,col);
+        CardMatch cardMatch = play(row,col);
         if(cardMatch.isReady())
         {
             ConcentrationCard card1 = cardMatch.getCard1(),card2 = cardMatch.getCard2();
-            if(cardMatch.isMatch())
-            {
-                this.matchStatus = String.format(MATCH_MSG,card1.getRow(),card1.getCol(),card2.getRow(),card2.getCol());
-            }
-            else {
-                this.matchStatus = String.format(MISMATCH_MSG,card1.getRow(),card1.getCol(),card2.getRow(),card2.getCol());
-                card1.hide();
-                card2.hide();
-            }
+            this.matchStatus = (cardMatch.isMatch() ? MATCH : MISMATCH) + " " + card1.getRow() + " " + card1.getCol()
+                    + " " + card2.getRow() + " " + card2.getCol();
         }
         else
         {
-            row=this.revealedCard.getRow();
-            col=this.revealedCard.getCol();
             this.matchStatus = null;
         }
-        String letter = ""+this.board[row][col].getLetter();
-        msg = String.format(CARD_MSG,row,col,letter);
-
-        return msg;
+        return CARD + " " + row + " " + col + " " + this.board[row][col].getLetter();
     }
 
+    /**
+     * Get the MATCH or MISMATCH message of the last pair completed by
+     * processInput.
+     *
+     * @return the message, or null if the last card revealed was the first of a pair
+     */
+    @Override
     public String getMatchStatus() {
         return this.matchStatus;
     }
@@ -0,0 +1,260 @@
+package game;
+
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+
+import java.util.Arrays;
+
+/**
+ * A player with a perfect memory.  It only learns what any player at the
+ * table sees, the cards turned over and whether the pairs matched, and
+ * never looks at the board behind them: playing a board it reads the
+ * replies of processInput and getMatchStatus like a client reads the
+ * CARD, MATCH and MISMATCH messages.
+ *
+ * It reveals a pair it knows when it has one, otherwise a card it has not
+ * seen, and as the second card the partner of the first whenever it saw
+ * it.  Everything it knows is held in a few int arrays indexed by cell and
+ * by pair number: the pair of every cell seen, the cells seen of every
+ * pair, a stack of the pairs whose both cards are known and a list of the
+ * cells never seen, each with an index so a card is added or removed in
+ * constant time.  Picking a move and learning a card are O(1) and create
+ * no objects, and the arrays are reused from one game to the next, so a
+ * solver plays thousands of small games per second on a single core.
+ *
+ * Several solvers may watch the same board, e.g. a server side opponent
+ * and its client, or two solvers of a soak test taking turns; every one of
+ * them must be told every card revealed, in order.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ConcentrationSolver {
+    /** the square dimension of the board */
+    private int dim;
+    /** the pair number of every cell seen, -1 if not seen */
+    private int[] pairAt;
+    /** a cell seen of every pair, -1 if none */
+    private int[] seenCell;
+    /** the other cell seen of every pair, -1 unless both are */
+    private int[] otherCell;
+    /** the pairs whose both cards were seen and are not matched yet */
+    private int[] known;
+    /** where every pair is in known, -1 if it is not */
+    private int[] knownIndex;
+    /** the number of pairs in known */
+    private int knownCount;
+    /** the cells never seen, in front */
+    private int[] unseen;
+    /** where every cell is in unseen, -1 once it was seen */
+    private int[] unseenIndex;
+    /** the number of cells never seen */
+    private int unseenCount;
+    /** the first card of the current pair, -1 if the next card is a first card */
+    private int first;
+    /** the number of cards revealed since the game started */
+    private int moves;
+    /** the number of pairs matched since the game started */
+    private int matches;
+
+    /**
+     * Create a solver.  It has to be reset to a board size before it plays.
+     */
+    public ConcentrationSolver() {
+        this.pairAt = new int[0];
+        this.seenCell = new int[0];
+        this.first = -1;
+    }
+
+    /**
+     * Forget everything and start a new game.
+     *
+     * @param dim the square dimension of its board
+     */
+    public void reset(int dim) {
+        int cells = dim * dim;
+        if (this.pairAt.length != cells) {
+            this.pairAt = new int[cells];
+            this.unseen = new int[cells];
+            this.unseenIndex = new int[cells];
+            this.seenCell = new int[cells / 2];
+            this.otherCell = new int[cells / 2];
+            this.known = new int[cells / 2];
+            this.knownIndex = new int[cells / 2];
+        }
+        this.dim = dim;
+        Arrays.fill(this.pairAt, -1);
+        Arrays.fill(this.seenCell, -1);
+        Arrays.fill(this.otherCell, -1);
+        Arrays.fill(this.knownIndex, -1);
+        for (int i = 0; i < cells; ++i) {
+            this.unseen[i] = i;
+            this.unseenIndex[i] = i;
+        }
+        this.unseenCount = cells;
+        this.knownCount = 0;
+        this.first = -1;
+        this.moves = 0;
+        this.matches = 0;
+    }
+
+    /**
+     * Pick the next card to reveal.
+     *
+     * @return its cell, row * dim + col
+     * @throws IllegalStateException if every card is matched
+     */
+    public int nextCell() {
+        if (this.first < 0) {
+            if (this.knownCount > 0) {
+                return this.seenCell[this.known[this.knownCount - 1]];
+            }
+        } else {
+            int pair = this.pairAt[this.first];
+            int partner = this.seenCell[pair] == this.first ? this.otherCell[pair] : this.seenCell[pair];
+            if (partner >= 0) {
+                return partner;
+            }
+        }
+        if (this.unseenCount == 0) {
+            throw new IllegalStateException("No card left to reveal");
+        }
+        return this.unseen[this.unseenCount - 1];
+    }
+
+    /**
+     * Learn a card that was revealed, by this player or any other.
+     *
+     * @param cell the cell of the card
+     * @param pair its pair number
+     */
+    public void onCard(int cell, int pair) {
+        ++this.moves;
+        this.first = this.first < 0 ? cell : -1;
+        if (this.pairAt[cell] >= 0) {
+            return;
+        }
+        this.pairAt[cell] = pair;
+        int index = this.unseenIndex[cell];
+        int last = this.unseen[--this.unseenCount];
+        this.unseen[index] = last;
+        this.unseenIndex[last] = index;
+        this.unseenIndex[cell] = -1;
+        if (this.seenCell[pair] < 0) {
+            this.seenCell[pair] = cell;
+        } else {
+            this.otherCell[pair] = cell;
+            this.knownIndex[pair] = this.knownCount;
+            this.known[this.knownCount++] = pair;
+        }
+    }
+
+    /**
+     * Learn whether the last two cards revealed matched.
+     *
+     * @param cell1 the cell of the first card
+     * @param cell2 the cell of the second card
+     * @param match whether they matched
+     */
+    public void onPair(int cell1, int cell2, boolean match) {
+        if (!match) {
+            return;
+        }
+        ++this.matches;
+        int pair = this.pairAt[cell1];
+        int index = this.knownIndex[pair];
+        if (index >= 0) {
+            int last = this.known[--this.knownCount];
+            this.known[index] = last;
+            this.knownIndex[last] = index;
+            this.knownIndex[pair] = -1;
+        }
+    }
+
+    /**
+     * Play a whole game on a board, which must not have been played yet.
+     *
+     * @param board the board
+     * @return the number of cards revealed
+     * @throws ConcentrationException if the board rejects a move, which
+     *     means the board was played by someone the solver was not told of
+     */
+    public int play(GameBoard board) throws ConcentrationException {
+        reset(board.getDIM());
+        while (!board.gameOver()) {
+            playTurn(board, null);
+        }
+        return this.moves;
+    }
+
+    /**
+     * Play one turn: reveal cards until a pair does not match or the game
+     * is over.  Every card is also shown to another player, if any.
+     *
+     * @param board the board
+     * @param watcher another player watching the board, or null
+     * @return the number of pairs matched in the turn
+     * @throws ConcentrationException if the board rejects a move
+     */
+    public int playTurn(GameBoard board, ConcentrationSolver watcher) throws ConcentrationException {
+        int matched = 0;
+        while (!board.gameOver()) {
+            int firstCell = this.first;
+            int cell = nextCell();
+            int pair = reveal(board, cell);
+            onCard(cell, pair);
+            if (watcher != null) {
+                watcher.onCard(cell, pair);
+            }
+            String status = board.getMatchStatus();
+            if (status != null) {
+                boolean match = status.startsWith(ConcentrationProtocol.MATCH + " ");
+                onPair(firstCell, cell, match);
+                if (watcher != null) {
+                    watcher.onPair(firstCell, cell, match);
+                }
+                if (!match) {
+                    break;
+                }
+                ++matched;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Reveal a card through processInput and read its pair from the CARD
+     * reply.
+     *
+     * @param board the board
+     * @param cell the cell of the card
+     * @return its pair number
+     * @throws ConcentrationException if the board rejects the move or its reply
+     */
+    private int reveal(GameBoard board, int cell) throws ConcentrationException {
+        String card = board.processInput(cell / this.dim, cell % this.dim);
+        int pair = ProtocolCodec.pairNumber(card.substring(card.lastIndexOf(' ') + 1));
+        if (pair < 0 || pair >= this.seenCell.length) {
+            throw new ConcentrationException("Unexpected reply " + card);
+        }
+        return pair;
+    }
+    /**
+     * Get the number of cards revealed since the game started, by this
+     * player and every other it was told of.
+     *
+     * @return the count
+     */
+    public int getMoves() {
+        return this.moves;
+    }
+
+    /**
+     * Get the number of pairs matched since the game started.
+     *
+     * @return the count
+     */
+    public int getMatches() {
+        return this.matches;
+    }
+}
@@ -0,0 +1,102 @@
+package game;
+
+import common.ConcentrationException;
+
+/**
+ * The operations the server needs from a concentration game board, shared
+ * by the object based ConcentrationBoard and the memory saving
+ * CompactConcentrationBoard.
+ *
+ * Besides the text based processInput, a board offers flip, which reports
+ * the outcome of a move as a number and leaves the details to a few
+ * getters, so the server can encode its replies without creating objects.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public interface GameBoard {
+    /** flip outcome: the card was the first of a pair */
+    int REVEALED_FIRST = 0;
+    /** flip outcome: the card completed a matching pair */
+    int MATCHED = 1;
+    /** flip outcome: the card completed a pair that does not match, both are hidden again */
+    int MISMATCHED = 2;
+
+    /**
+     * Get the square dimension of the board
+     * @return square dimension
+     */
+    int getDIM();
+
+    /**
+     * Get the seed the cards were shuffled with.  Dealing a board of the
+     * same kind and size with this seed deals exactly the same board.
+     *
+     * @return the seed
+     */
+    long getSeed();
+
+    /**
+     * Reveal a hidden card and settle the pair it completes, if any.
+     *
+     * @param row the row
+     * @param col the column
+     * @return REVEALED_FIRST, MATCHED or MISMATCHED
+     * @throws ConcentrationException if the game is over, the coordinate is invalid, or the
+     *     card has already been revealed.
+     */
+    int flip(int row, int col) throws ConcentrationException;
+
+    /**
+     * Get the pair number of the card revealed by the last flip, 0 for A.
+     *
+     * @return the pair number
+     */
+    int getLastPair();
+
+    /**
+     * Get the row of the first card of the pair completed by the last flip.
+     *
+     * @return the row, only meaningful after MATCHED or MISMATCHED
+     */
+    int getFirstRow();
+
+    /**
+     * Get the column of the first card of the pair completed by the last flip.
+     *
+     * @return the column, only meaningful after MATCHED or MISMATCHED
+     */
+    int getFirstCol();
+
+    /**
+     * The game is over when all the matches have been made.
+     *
+     * @return whether the game is over or not
+     */
+    boolean gameOver();
+
+    /**
+     * Render the board with every card face up, as printed in cheat mode.
+     *
+     * @return the solution of the board
+     */
+    String getSolution();
+
+    /**
+     * Reveal a card and return the CARD message according to the protocol.
+     * The MATCH or MISMATCH message, if any, is left for getMatchStatus.
+     *
+     * @param row row of the card to be revealed
+     * @param col column of the card to be revealed
+     * @return the CARD message
+     * @throws ConcentrationException if the move is invalid
+     */
+    String processInput(int row, int col) throws ConcentrationException;
+
+    /**
+     * Get the MATCH or MISMATCH message of the last pair completed by
+     * processInput.
+     *
+     * @return the message, or null if the last card revealed was the first of a pair
+     */
+    String getMatchStatus();
+}
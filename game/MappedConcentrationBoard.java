@@ -0,0 +1,296 @@
+package game;
+
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * A game board whose whole state lives in a caller owned buffer rather than
+ * on the heap: the dimension, the seed, the match count, the pending first
+ * card, a bitset of the face up cards and the pair number of every cell.
+ * Backed by a slice of a memory mapped file the game outlives the process
+ * that plays it, and a move only writes a few bytes of the buffer.
+ *
+ * The cards are shuffled exactly like CompactConcentrationBoard, so both
+ * boards dealt with the same seed are the same board.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class MappedConcentrationBoard implements ConcentrationProtocol, GameBoard {
+    /** the smallest board is 2x2 */
+    private final static int MIN_DIM = 2;
+    /** where the dimension is stored */
+    private final static int DIM_OFFSET = 0;
+    /** where the number of matches is stored */
+    private final static int MATCHES_OFFSET = 4;
+    /** where the cell of the pending first card is stored, -1 if none */
+    private final static int FIRST_OFFSET = 8;
+    /** where the seed is stored */
+    private final static int SEED_OFFSET = 16;
+    /** where the bitset of the face up cards starts */
+    private final static int REVEALED_OFFSET = 24;
+
+    /** the state of the board */
+    private final ByteBuffer state;
+    /** the square dimension of the board */
+    private final int DIM;
+    /** where the pair numbers of the cells start */
+    private final int pairsOffset;
+    /** the cell revealed by the last flip */
+    private int lastCell;
+    /** the cell of the first card of the pair completed by the last flip */
+    private int firstCell;
+    /** contains Match or Mismatch string */
+    private String matchStatus;
+
+    /**
+     * Wrap the state of a board.
+     *
+     * @param state the buffer holding the state at its start
+     */
+    private MappedConcentrationBoard(ByteBuffer state) {
+        this.state = state;
+        this.DIM = state.getInt(DIM_OFFSET);
+        this.pairsOffset = REVEALED_OFFSET + bitsetBytes(this.DIM * this.DIM);
+    }
+
+    /**
+     * Get the size of the bitset of the face up cards.
+     *
+     * @param cells the number of cells
+     * @return its size in bytes
+     */
+    private static int bitsetBytes(int cells) {
+        return ((cells + 63) >>> 6) * Long.BYTES;
+    }
+
+    /**
+     * Get the number of bytes the state of a board takes.
+     *
+     * @param dim the square dimension of the board
+     * @return the size of its state
+     */
+    public static int size(int dim) {
+        return REVEALED_OFFSET + bitsetBytes(dim * dim) + dim * dim * Character.BYTES;
+    }
+
+    /**
+     * Deal a new board into a buffer.
+     *
+     * @param state the buffer to hold the state, at least size(dim) long
+     * @param dim the square dimension of the board
+     * @param seed the seed to shuffle the cards with
+     * @return the board
+     * @throws ConcentrationException if the dimension is invalid or does
+     *     not fit in the buffer
+     */
+    public static MappedConcentrationBoard deal(ByteBuffer state, int dim, long seed) throws ConcentrationException {
+        if (dim < MIN_DIM || size(dim) > state.capacity()) {
+            throw new ConcentrationException("Board size out of range: " + dim);
+        } else if (dim % 2 != 0) {
+            throw new ConcentrationException("Board size not even: " + dim);
+        }
+        int cells = dim * dim;
+        state.putInt(DIM_OFFSET, dim);
+        state.putInt(MATCHES_OFFSET, 0);
+        state.putInt(FIRST_OFFSET, -1);
+        state.putLong(SEED_OFFSET, seed);
+        for (int i = 0; i < bitsetBytes(cells); i += Long.BYTES) {
+            state.putLong(REVEALED_OFFSET + i, 0);
+        }
+        // the inside-out Fisher-Yates shuffle of CompactConcentrationBoard
+        int pairs = REVEALED_OFFSET + bitsetBytes(cells);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < cells; ++i) {
+            int j = random.nextInt(i + 1);
+            state.putChar(pairs + 2 * i, state.getChar(pairs + 2 * j));
+            state.putChar(pairs + 2 * j, (char) (i / 2));
+        }
+        return new MappedConcentrationBoard(state);
+    }
+
+    /**
+     * Take up a board whose state is already in a buffer, e.g. one dealt
+     * before the server restarted.
+     *
+     * @param state the buffer holding the state
+     * @return the board
+     * @throws ConcentrationException if the buffer does not hold a board
+     */
+    public static MappedConcentrationBoard attach(ByteBuffer state) throws ConcentrationException {
+        int dim = state.getInt(DIM_OFFSET);
+        if (dim < MIN_DIM || dim % 2 != 0 || size(dim) > state.capacity()) {
+            throw new ConcentrationException("No board in the buffer");
+        }
+        return new MappedConcentrationBoard(state);
+    }
+
+    @Override
+    public int getDIM() {
+        return this.DIM;
+    }
+
+    @Override
+    public long getSeed() {
+        return this.state.getLong(SEED_OFFSET);
+    }
+
+    /**
+     * Get the pair number of the card in a cell.
+     *
+     * @param cell the cell
+     * @return the pair number
+     */
+    private int pairAt(int cell) {
+        return this.state.getChar(this.pairsOffset + 2 * cell);
+    }
+
+    /**
+     * Is the card in a cell face up?
+     *
+     * @param cell the cell
+     * @return whether it is face up
+     */
+    private boolean isRevealed(int cell) {
+        return (this.state.getLong(REVEALED_OFFSET + (cell >>> 6) * Long.BYTES) & (1L << cell)) != 0;
+    }
+
+    /**
+     * Turn the card in a cell face up or face down.
+     *
+     * @param cell the cell
+     * @param up whether it should be face up
+     */
+    private void setRevealed(int cell, boolean up) {
+        int index = REVEALED_OFFSET + (cell >>> 6) * Long.BYTES;
+        long word = this.state.getLong(index);
+        this.state.putLong(index, up ? word | 1L << cell : word & ~(1L << cell));
+    }
+
+    /**
+     * Get the pair number of a card the player can see, to show the board
+     * again to a player who comes back to it.
+     *
+     * @param cell the cell
+     * @return the pair number, -1 if the card is face down
+     */
+    public int getFaceUpPair(int cell) {
+        return isRevealed(cell) ? pairAt(cell) : -1;
+    }
+
+    @Override
+    public int flip(int row, int col) throws ConcentrationException {
+        if (gameOver()) {
+            throw new ConcentrationException("Invalid Coordinates " + row + " " + col);
+        }
+        if (row < 0 || col < 0 || row >= this.DIM || col >= this.DIM) {
+            throw new ConcentrationException("Coordinates out of range " + row + " " + col);
+        }
+        int cell = row * this.DIM + col;
+        if (isRevealed(cell)) {
+            throw new ConcentrationException("Card already revealed at " + row + " " + col);
+        }
+        setRevealed(cell, true);
+        this.lastCell = cell;
+        int first = this.state.getInt(FIRST_OFFSET);
+        if (first < 0) {
+            this.state.putInt(FIRST_OFFSET, cell);
+            return REVEALED_FIRST;
+        }
+        this.firstCell = first;
+        this.state.putInt(FIRST_OFFSET, -1);
+        if (pairAt(first) == pairAt(cell)) {
+            this.state.putInt(MATCHES_OFFSET, this.state.getInt(MATCHES_OFFSET) + 1);
+            return MATCHED;
+        }
+        setRevealed(first, false);
+        setRevealed(cell, false);
+        return MISMATCHED;
+    }
+
+    @Override
+    public int getLastPair() {
+        return pairAt(this.lastCell);
+    }
+
+    @Override
+    public int getFirstRow() {
+        return this.firstCell / this.DIM;
+    }
+
+    @Override
+    public int getFirstCol() {
+        return this.firstCell % this.DIM;
+    }
+
+    @Override
+    public boolean gameOver() {
+        return this.state.getInt(MATCHES_OFFSET) >= (this.DIM * this.DIM) / 2;
+    }
+
+    @Override
+    public String processInput(int row, int col) throws ConcentrationException {
+        int outcome = flip(row, col);
+        if (outcome == REVEALED_FIRST) {
+            this.matchStatus = null;
+        } else {
+            this.matchStatus = (outcome == MATCHED ? MATCH : MISMATCH) + " " + getFirstRow() + " " + getFirstCol()
+                    + " " + row + " " + col;
+        }
+        return CARD + " " + row + " " + col + " " + ProtocolCodec.pairName(getLastPair());
+    }
+
+    @Override
+    public String getMatchStatus() {
+        return this.matchStatus;
+    }
+
+    @Override
+    public String getSolution() {
+        return render(true);
+    }
+
+    /**
+     * Returns a string representation of the board in the same form as
+     * ConcentrationBoard.toString().
+     *
+     * @return the board as a string
+     */
+    @Override
+    public String toString() {
+        return render(false);
+    }
+
+    /**
+     * Render the board.
+     *
+     * @param all whether to show the hidden cards as well
+     * @return the board as a string
+     */
+    private String render(boolean all) {
+        StringBuilder str = new StringBuilder();
+        // build the top row of indices
+        str.append("  ");
+        for (int col = 0; col < this.DIM; ++col) {
+            str.append(col);
+        }
+        str.append("\n");
+        // build each row of the actual board
+        for (int row = 0; row < this.DIM; ++row) {
+            str.append(row).append("|");
+            for (int col = 0; col < this.DIM; ++col) {
+                int cell = row * this.DIM + col;
+                if (all || isRevealed(cell)) {
+                    str.append(ProtocolCodec.pairName(pairAt(cell)));
+                } else {
+                    str.append(ConcentrationCard.HIDDEN);
+                }
+            }
+            str.append("\n");
+        }
+        return str.toString();
+    }
+}
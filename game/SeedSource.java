@@ -0,0 +1,56 @@
+package game;
+
+import java.util.SplittableRandom;
+
+/**
+ * Where the boards get the seeds they are shuffled with.  A board shuffles
+ * its cards with a SplittableRandom of its own, seeded with a single long,
+ * so a board is rebuilt exactly by dealing it again with the same seed.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public interface SeedSource {
+    /**
+     * The default source: every thread draws its seeds from a generator of
+     * its own, split off a randomly seeded root, so threads dealing boards
+     * at once never contend.
+     */
+    SeedSource PER_THREAD = new SeedSource() {
+        /** the generator the threads' generators are split from, guarded by itself */
+        private final SplittableRandom root = new SplittableRandom();
+        /** the generator of every thread */
+        private final ThreadLocal<SplittableRandom> local = ThreadLocal.withInitial(() -> {
+            synchronized (this.root) {
+                return this.root.split();
+            }
+        });
+
+        @Override
+        public long nextSeed() {
+            return this.local.get().nextLong();
+        }
+    };
+
+    /**
+     * Get the seed of the next board.
+     *
+     * @return the seed
+     */
+    long nextSeed();
+
+    /**
+     * Create a source that hands out the same seeds in the same order every
+     * time it is created with the same seed, for a reproducible run.
+     *
+     * @param seed the seed of the sequence
+     * @return the source
+     */
+    static SeedSource fixed(long seed) {
+        SplittableRandom root = new SplittableRandom(seed);
+        return () -> {
+            synchronized (root) {
+                return root.nextLong();
+            }
+        };
+    }
+}
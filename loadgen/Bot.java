@@ -0,0 +1,319 @@
+package loadgen;
+
+import game.ConcentrationSolver;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A player of one game of the load generator.  It only sees what a player
+ * sees, the cards turned over and whether they matched, and picks the next
+ * card to reveal and how long to think before revealing it.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public abstract class Bot {
+    /**
+     * The ways a bot may play.
+     */
+    public enum Strategy {
+        /** any card it does not know to be matched, without memory */
+        RANDOM,
+        /** remembers every card it saw and never wastes a move, see ConcentrationSolver */
+        MEMORY,
+        /** remembers most cards it saw and thinks before every move */
+        HUMAN
+    }
+
+    /** the chance a human bot remembers a card it saw */
+    private static final double HUMAN_RECALL = 0.8;
+
+    /** the random numbers of the bot */
+    protected final SplittableRandom random;
+    /** the cells matched so far */
+    protected boolean[] matched;
+    /** the first card of the current pair, -1 if the next card is a first card */
+    protected int first;
+
+    /**
+     * Create the bot.
+     *
+     * @param random the random numbers of the bot
+     */
+    protected Bot(SplittableRandom random) {
+        this.random = random;
+        this.matched = new boolean[0];
+        this.first = -1;
+    }
+
+    /**
+     * Create a bot.
+     *
+     * @param strategy how it plays
+     * @param random its random numbers
+     * @param thinkMillis the mean think time of a human bot, in milliseconds
+     * @return the bot
+     */
+    public static Bot create(Strategy strategy, SplittableRandom random, long thinkMillis) {
+        return switch (strategy) {
+            case RANDOM -> new RandomBot(random);
+            case MEMORY -> new SolverBot(random);
+            case HUMAN -> new MemoryBot(random, HUMAN_RECALL, thinkMillis);
+        };
+    }
+
+    /**
+     * Start a new game.
+     *
+     * @param dim the square dimension of its board
+     */
+    public void reset(int dim) {
+        if (this.matched.length != dim * dim) {
+            this.matched = new boolean[dim * dim];
+        } else {
+            Arrays.fill(this.matched, false);
+        }
+        this.first = -1;
+    }
+
+    /**
+     * Is the next card the second card of a pair?
+     *
+     * @return whether a first card is face up
+     */
+    public boolean hasFirst() {
+        return this.first >= 0;
+    }
+
+    /**
+     * Pick the next card to reveal.
+     *
+     * @return its cell
+     */
+    public abstract int nextCell();
+
+    /**
+     * Learn the card the server revealed.
+     *
+     * @param cell the cell of the card
+     * @param pair its pair number
+     */
+    public void onCard(int cell, int pair) {
+        this.first = this.first < 0 ? cell : -1;
+    }
+
+    /**
+     * Learn whether the last two cards matched.
+     *
+     * @param cell1 the cell of the first card
+     * @param cell2 the cell of the second card
+     * @param match whether they matched
+     */
+    public void onPair(int cell1, int cell2, boolean match) {
+        if (match) {
+            this.matched[cell1] = true;
+            this.matched[cell2] = true;
+        }
+    }
+
+    /**
+     * How long to wait before the next move.
+     *
+     * @return the think time in nanoseconds
+     */
+    public long thinkNanos() {
+        return 0;
+    }
+
+    /**
+     * Pick a random cell that is not matched and not the first card.
+     *
+     * @return the cell
+     */
+    protected int randomCell() {
+        int cell;
+        do {
+            cell = this.random.nextInt(this.matched.length);
+        } while (cell == this.first || this.matched[cell]);
+        return cell;
+    }
+
+    /**
+     * Reveals random cards and remembers nothing but the matched ones.
+     */
+    private static class RandomBot extends Bot {
+        /**
+         * Create the bot.
+         *
+         * @param random its random numbers
+         */
+        private RandomBot(SplittableRandom random) {
+            super(random);
+        }
+
+        @Override
+        public int nextCell() {
+            return randomCell();
+        }
+    }
+
+    /**
+     * Plays with a ConcentrationSolver, the perfect memory player of the
+     * game, fed with the same cards and pairs the bot is.
+     */
+    private static class SolverBot extends Bot {
+        /** the solver picking the moves */
+        private final ConcentrationSolver solver;
+
+        /**
+         * Create the bot.
+         *
+         * @param random its random numbers
+         */
+        private SolverBot(SplittableRandom random) {
+            super(random);
+            this.solver = new ConcentrationSolver();
+        }
+
+        @Override
+        public void reset(int dim) {
+            super.reset(dim);
+            this.solver.reset(dim);
+        }
+
+        @Override
+        public int nextCell() {
+            return this.solver.nextCell();
+        }
+
+        @Override
+        public void onCard(int cell, int pair) {
+            super.onCard(cell, pair);
+            this.solver.onCard(cell, pair);
+        }
+
+        @Override
+        public void onPair(int cell1, int cell2, boolean match) {
+            super.onPair(cell1, cell2, match);
+            this.solver.onPair(cell1, cell2, match);
+        }
+    }
+
+    /**
+     * Remembers the cards it saw: it reveals a known pair when it has one,
+     * otherwise a card it has not seen, and the partner of a first card when
+     * it knows it.  Unless it recalls everything it forgets some cards, and
+     * it may think before every move.
+     */
+    private static class MemoryBot extends Bot {
+        /** the chance of remembering a card */
+        private final double recall;
+        /** the mean think time in nanoseconds */
+        private final long thinkNanos;
+        /** the pair number of every cell remembered, -1 if not */
+        private int[] seen;
+        /** the cell remembered for every pair number, -1 if none */
+        private int[] partner;
+        /** every cell, those that may not have been remembered yet in front */
+        private int[] unseen;
+        /** the number of cells that may not have been remembered yet */
+        private int unseenCount;
+        /** a cell of a pair whose both cards are remembered, -1 if none */
+        private int knownPair;
+
+        /**
+         * Create the bot.
+         *
+         * @param random its random numbers
+         * @param recall the chance of remembering a card
+         * @param thinkMillis the mean think time in milliseconds
+         */
+        private MemoryBot(SplittableRandom random, double recall, long thinkMillis) {
+            super(random);
+            this.recall = recall;
+            this.thinkNanos = thinkMillis * 1_000_000L;
+        }
+
+        @Override
+        public void reset(int dim) {
+            super.reset(dim);
+            int cells = dim * dim;
+            if (this.seen == null || this.seen.length != cells) {
+                this.seen = new int[cells];
+                this.partner = new int[cells / 2];
+                this.unseen = new int[cells];
+            }
+            Arrays.fill(this.seen, -1);
+            Arrays.fill(this.partner, -1);
+            for (int i = 0; i < cells; ++i) {
+                this.unseen[i] = i;
+            }
+            this.unseenCount = cells;
+            this.knownPair = -1;
+        }
+
+        @Override
+        public int nextCell() {
+            if (this.first < 0) {
+                if (this.knownPair >= 0) {
+                    return this.knownPair;
+                }
+            } else {
+                int pair = this.seen[this.first];
+                int other = pair < 0 ? -1 : this.partner[pair];
+                if (other >= 0 && other != this.first && !this.matched[other]) {
+                    return other;
+                }
+            }
+            while (this.unseenCount > 0) {
+                int i = this.random.nextInt(this.unseenCount);
+                int cell = this.unseen[i];
+                if (this.seen[cell] >= 0 || this.matched[cell]) {
+                    this.unseen[i] = this.unseen[--this.unseenCount];
+                    this.unseen[this.unseenCount] = cell;
+                } else if (cell != this.first) {
+                    return cell;
+                } else if (this.unseenCount == 1) {
+                    break;
+                }
+            }
+            return randomCell();
+        }
+
+        @Override
+        public void onCard(int cell, int pair) {
+            boolean firstCard = this.first < 0;
+            super.onCard(cell, pair);
+            if (this.seen[cell] >= 0 || this.random.nextDouble() >= this.recall) {
+                return;
+            }
+            this.seen[cell] = pair;
+            int other = this.partner[pair];
+            if (other < 0) {
+                this.partner[pair] = cell;
+            } else if (other != cell && firstCard) {
+                this.knownPair = other;
+            } else if (other != cell) {
+                this.knownPair = cell;
+            }
+        }
+
+        @Override
+        public void onPair(int cell1, int cell2, boolean match) {
+            super.onPair(cell1, cell2, match);
+            if (match && (this.knownPair == cell1 || this.knownPair == cell2)) {
+                this.knownPair = -1;
+            }
+        }
+
+        @Override
+        public long thinkNanos() {
+            if (this.thinkNanos == 0) {
+                return 0;
+            }
+            // people mostly answer quickly and now and then take much longer
+            double gaussian = this.random.nextDouble() + this.random.nextDouble() + this.random.nextDouble() - 1.5;
+            return (long) (this.thinkNanos * Math.exp(0.5 * gaussian - 0.125));
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package loadgen;
+
+import common.BinaryCodec;
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * One connection of the load generator.  It plays several games at once
+ * over the connection, each opened with OPEN and played by its own bot,
+ * and opens a new game whenever one is over.  It never blocks: the worker
+ * that owns it calls it when the socket is ready and when a bot is done
+ * thinking.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class LoadConnection implements ConcentrationProtocol {
+    /** the game is waiting for its BOARD_DIM */
+    private static final int OPENING = 0;
+    /** the game is thinking about its next move */
+    private static final int THINKING = 1;
+    /** the game is waiting for the CARD of its move */
+    private static final int REVEALING = 2;
+    /** the game is waiting for the MATCH or MISMATCH of its pair */
+    private static final int PAIRING = 3;
+    /** the game is waiting for its GAME_OVER */
+    private static final int ENDING = 4;
+
+    /** the connection is waiting for its first BOARD_DIM */
+    private static final int CONNECTING = 0;
+    /** the connection is waiting for the binary encoding to be confirmed */
+    private static final int NEGOTIATING = 1;
+    /** the connection is playing */
+    private static final int PLAYING = 2;
+    /** the start of the line with the token of the first game, which is never resumed */
+    private static final byte[] SESSION_PREFIX = (SESSION + " ").getBytes(StandardCharsets.US_ASCII);
+
+    /** the connection */
+    private final SocketChannel channel;
+    /** where the measurements go */
+    private final LoadStats stats;
+    /** whether it speaks the binary encoding */
+    private final boolean binary;
+    /** the square dimension of the boards it opens */
+    private final int dim;
+    /** encodes the coordinates of the boards */
+    private final ProtocolCodec codec;
+    /** the bot of every game slot */
+    private final Bot[] bots;
+    /** the state of every game slot */
+    private final int[] states;
+    /** the ID of the game of every slot, slot = id % slots */
+    private final int[] ids;
+    /** when every slot sent its REVEAL, or may send the next one, in System.nanoTime() units */
+    private final long[] times;
+    /** the cells matched in the game of every slot */
+    private final int[] matches;
+    /** the bytes received, in read mode */
+    private final ByteBuffer in;
+    /** the bytes not written yet, in write mode */
+    private final ByteBuffer out;
+    /** a frame routed to a game before it gets its game prefix */
+    private final ByteBuffer routed;
+    /** the parsed arguments */
+    private final int[] args;
+    /** the selection key of the connection */
+    private SelectionKey key;
+    /** the state of the connection */
+    private int state;
+    /** when the connection was opened */
+    private long connectStart;
+    /** the errors still to come for reveals that crossed the TIME_UP of their game */
+    private int staleErrors;
+
+    /**
+     * Create the connection.
+     *
+     * @param stats where the measurements go
+     * @param binary whether to speak the binary encoding
+     * @param dim the square dimension of the boards to open
+     * @param games the number of games to play at once
+     * @param strategy how the bots play
+     * @param random where the bots get their random numbers
+     * @param thinkMillis the mean think time of a human bot
+     * @throws IOException if the channel can not be opened
+     */
+    public LoadConnection(LoadStats stats, boolean binary, int dim, int games,
+                          Bot.Strategy strategy, SplittableRandom random, long thinkMillis) throws IOException {
+        this.channel = SocketChannel.open();
+        this.stats = stats;
+        this.binary = binary;
+        this.dim = dim;
+        this.codec = ProtocolCodec.forDim(dim);
+        this.bots = new Bot[games];
+        this.states = new int[games];
+        this.ids = new int[games];
+        this.times = new long[games];
+        this.matches = new int[games];
+        for (int i = 0; i < games; ++i) {
+            this.bots[i] = Bot.create(strategy, random.split(), thinkMillis);
+            this.ids[i] = i;
+        }
+        this.in = ByteBuffer.allocate(4 * BinaryCodec.MAX_FRAME).limit(0);
+        this.out = ByteBuffer.allocate(games * 64 + BinaryCodec.MAX_FRAME);
+        this.routed = ByteBuffer.allocate(64);
+        this.args = new int[1 + 2 * MAX_BATCH];
+    }
+
+    /**
+     * Start connecting.
+     *
+     * @param selector the selector of the worker owning the connection
+     * @param address where the server listens
+     * @throws IOException if the connection fails
+     */
+    public void connect(Selector selector, InetSocketAddress address) throws IOException {
+        this.channel.configureBlocking(false);
+        this.connectStart = System.nanoTime();
+        if (this.channel.connect(address)) {
+            this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+        } else {
+            this.key = this.channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
+    }
+
+    /**
+     * Handle the socket being ready.
+     *
+     * @param now the current time in System.nanoTime() units
+     * @throws IOException if the connection fails or the server broke the protocol
+     */
+    public void ready(long now) throws IOException {
+        if (this.key.isConnectable()) {
+            this.channel.finishConnect();
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+        if (this.key.isWritable()) {
+            flush();
+        }
+        if (this.key.isReadable()) {
+            this.in.compact();
+            int n = this.channel.read(this.in);
+            this.in.flip();
+            if (n < 0) {
+                throw new IOException("Connection closed by the server");
+            }
+            receive(now);
+        }
+    }
+
+    /**
+     * Send the moves of the games done thinking.
+     *
+     * @param now the current time in System.nanoTime() units
+     * @return when the next game is done thinking, Long.MAX_VALUE if none is thinking
+     * @throws IOException if the connection fails
+     */
+    public long tick(long now) throws IOException {
+        long next = Long.MAX_VALUE;
+        if (this.state != PLAYING) {
+            return next;
+        }
+        for (int slot = 0; slot < this.states.length; ++slot) {
+            if (this.states[slot] == THINKING && this.out.remaining() >= 64) {
+                if (this.times[slot] - now <= 0) {
+                    reveal(slot, now);
+                } else {
+                    next = Math.min(next, this.times[slot]);
+                }
+            }
+        }
+        flush();
+        return next;
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException ioe) {
+            // nothing left to do with it
+        }
+    }
+
+    /**
+     * Handle every complete message received.
+     *
+     * @param now the current time in System.nanoTime() units
+     * @throws IOException if the server broke the protocol
+     */
+    private void receive(long now) throws IOException {
+        while (this.in.hasRemaining()) {
+            if (this.state != PLAYING || !this.binary) {
+                int end = this.in.position();
+                while (end < this.in.limit() && this.in.get(end) != '\n') {
+                    ++end;
+                }
+                if (end == this.in.limit()) {
+                    return;
+                }
+                int start = this.in.position();
+                this.in.position(end + 1);
+                handleLine(start, end, now);
+            } else {
+                int length;
+                try {
+                    length = BinaryCodec.nextFrame(this.in);
+                } catch (ConcentrationException ce) {
+                    throw new IOException(ce.getMessage());
+                }
+                if (length < 0) {
+                    return;
+                }
+                int end = this.in.position() + length;
+                handleFrame(length, now);
+                this.in.position(end);
+            }
+        }
+    }
+
+    /**
+     * Handle one text line.
+     *
+     * @param start where the line starts
+     * @param end where the line ends
+     * @param now the current time in System.nanoTime() units
+     * @throws IOException if the server broke the protocol
+     */
+    private void handleLine(int start, int end, long now) throws IOException {
+        if (this.state != CONNECTING && ProtocolCodec.startsWith(this.in, start, end, SESSION_PREFIX)) {
+            return;
+        } else if (this.state == CONNECTING) {
+            this.stats.connect.record(now - this.connectStart);
+            this.stats.connected.increment();
+            if (this.binary) {
+                ProtocolCodec.putLine(this.out, PROTOCOL_BINARY_MSG);
+                this.state = NEGOTIATING;
+            } else {
+                openAll();
+            }
+            flush();
+            return;
+        } else if (this.state == NEGOTIATING) {
+            openAll();
+            flush();
+            return;
+        }
+        int id = -1;
+        int routedStart = ProtocolCodec.parseGame(this.in, start, end, this.args);
+        if (routedStart >= 0) {
+            id = this.args[0];
+            start = routedStart;
+        }
+        int op = ProtocolCodec.parse(this.in, start, end, this.args);
+        if (op == OP_ERROR) {
+            StringBuilder msg = new StringBuilder();
+            for (int i = start + ERROR.length() + 1; i < end; ++i) {
+                msg.append((char) this.in.get(i));
+            }
+            error(msg.toString());
+            return;
+        } else if (op == OP_CARD) {
+            this.args[0] = this.args[0] * this.dim + this.args[1];
+            this.args[1] = this.args[2];
+        } else if (op == OP_MATCH || op == OP_MISMATCH) {
+            this.args[0] = this.args[0] * this.dim + this.args[1];
+            this.args[1] = this.args[2] * this.dim + this.args[3];
+        } else if (op == OP_BATCH) {
+            throw new IOException("Unexpected BATCH reply");
+        }
+        handle(id, op, now);
+    }
+
+    /**
+     * Handle one binary frame, the length prefix already consumed.
+     *
+     * @param length the length of the frame body
+     * @param now the current time in System.nanoTime() units
+     * @throws IOException if the server broke the protocol
+     */
+    private void handleFrame(int length, long now) throws IOException {
+        int id = -1;
+        int end = this.in.position() + length;
+        int op = this.in.get();
+        if (op == OP_GAME) {
+            id = BinaryCodec.getVarint(this.in);
+            op = this.in.get();
+            length = end - this.in.position() + 1;
+        }
+        if (op == OP_ERROR) {
+            error(BinaryCodec.getText(this.in, length));
+            return;
+        } else if (op == OP_CARD || op == OP_MATCH || op == OP_MISMATCH) {
+            this.args[0] = BinaryCodec.getVarint(this.in);
+            this.args[1] = BinaryCodec.getVarint(this.in);
+        }
+        handle(id, op, now);
+    }
+
+    /**
+     * Count an error the server sent.  The bots never make an invalid
+     * move, so an error means the server misbehaved and the connection is
+     * given up, unless it answers a reveal that crossed the TIME_UP of its
+     * game.
+     *
+     * @param msg the error message
+     * @throws IOException to give up the connection
+     */
+    private void error(String msg) throws IOException {
+        if (this.staleErrors > 0) {
+            --this.staleErrors;
+            return;
+        }
+        this.stats.errors.increment();
+        throw new IOException("Server error: " + msg);
+    }
+
+    /**
+     * Handle a reply, its cells and pair number in args.
+     *
+     * @param id the ID of the game it is for, -1 if none
+     * @param op its opcode
+     * @param now the current time in System.nanoTime() units
+     * @throws IOException if the server broke the protocol
+     */
+    private void handle(int id, int op, long now) throws IOException {
+        if (id < 0 && op == OP_PING) {
+            if (this.binary) {
+                BinaryCodec.putEmpty(this.out, OP_PONG);
+            } else {
+                ProtocolCodec.putEmpty(this.out, OP_PONG);
+            }
+            flush();
+            return;
+        } else if (id < 0 && op == OP_TIME_UP) {
+            // the first game is never played, only the opened ones
+            return;
+        }
+        int slot = id < 0 ? -1 : id % this.states.length;
+        if (slot < 0 || this.ids[slot] != id) {
+            throw new IOException("Reply for an unknown game " + id);
+        }
+        Bot bot = this.bots[slot];
+        if (op == ProtocolCodec.OP_BOARD_DIM && this.states[slot] == OPENING) {
+            bot.reset(this.dim);
+            this.matches[slot] = 0;
+            think(slot, now);
+        } else if (op == OP_CARD && this.states[slot] == REVEALING) {
+            this.stats.reveal.record(now - this.times[slot]);
+            this.stats.moves.increment();
+            boolean second = bot.hasFirst();
+            bot.onCard(this.args[0], this.args[1]);
+            if (second) {
+                this.states[slot] = PAIRING;
+            } else {
+                think(slot, now);
+            }
+        } else if ((op == OP_MATCH || op == OP_MISMATCH) && this.states[slot] == PAIRING) {
+            bot.onPair(this.args[0], this.args[1], op == OP_MATCH);
+            if (op == OP_MATCH) {
+                this.matches[slot] += 2;
+            }
+            if (this.matches[slot] == this.dim * this.dim) {
+                this.states[slot] = ENDING;
+            } else {
+                think(slot, now);
+            }
+        } else if (op == OP_TIME_UP) {
+            if (this.states[slot] == REVEALING) {
+                // the server discarded the game before the reveal reached it
+                ++this.staleErrors;
+            }
+            this.stats.games.increment();
+            this.ids[slot] += this.states.length;
+            openGame(slot);
+            flush();
+        } else if (op == OP_GAME_OVER && this.states[slot] == ENDING) {
+            this.stats.games.increment();
+            this.ids[slot] += this.states.length;
+            openGame(slot);
+            flush();
+        } else {
+            throw new IOException("Unexpected reply " + op + " for game " + id);
+        }
+    }
+
+    /**
+     * Open every game slot.
+     */
+    private void openAll() {
+        this.state = PLAYING;
+        for (int slot = 0; slot < this.states.length; ++slot) {
+            openGame(slot);
+        }
+    }
+
+    /**
+     * Open the current game of a slot.
+     *
+     * @param slot the slot
+     */
+    private void openGame(int slot) {
+        this.states[slot] = OPENING;
+        if (this.binary) {
+            BinaryCodec.putOpen(this.out, this.ids[slot], this.dim);
+        } else {
+            ProtocolCodec.putOpen(this.out, this.ids[slot], this.dim);
+        }
+    }
+
+    /**
+     * Let the bot of a slot think about its next move.
+     *
+     * @param slot the slot
+     * @param now the current time in System.nanoTime() units
+     */
+    private void think(int slot, long now) {
+        this.states[slot] = THINKING;
+        this.times[slot] = now + this.bots[slot].thinkNanos();
+    }
+
+    /**
+     * Send the next move of a slot.
+     *
+     * @param slot the slot
+     * @param now the current time in System.nanoTime() units
+     */
+    private void reveal(int slot, long now) {
+        int cell = this.bots[slot].nextCell();
+        if (this.binary) {
+            this.routed.clear();
+            BinaryCodec.putReveal(this.routed, cell);
+            BinaryCodec.putGame(this.out, this.ids[slot], this.routed.flip());
+        } else {
+            ProtocolCodec.putGame(this.out, this.ids[slot]);
+            this.codec.putReveal(this.out, cell / this.dim, cell % this.dim);
+        }
+        this.states[slot] = REVEALING;
+        this.times[slot] = now;
+    }
+
+    /**
+     * Write as much of the pending output as the socket takes, and ask to
+     * be told when it takes more if some is left.
+     *
+     * @throws IOException if the connection fails
+     */
+    private void flush() throws IOException {
+        if (this.out.position() == 0) {
+            return;
+        }
+        this.out.flip();
+        this.channel.write(this.out);
+        this.out.compact();
+        this.key.interestOps(this.out.position() > 0
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+}
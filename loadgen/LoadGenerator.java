@@ -0,0 +1,281 @@
+package loadgen;
+
+import common.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * A headless client that puts a ConcentrationServer under load.  It opens
+ * many connections, plays many games at once over every one of them with
+ * bots, and reports the moves per second, the connect latency and the
+ * latency from a REVEAL to its CARD.  Run it against a server without the
+ * reveal delay to measure the server rather than the delay, e.g.
+ * <pre>
+ *     java server.ConcentrationServer 5000 4 --mode=nio --reveal-delay=0
+ *     java loadgen.LoadGenerator localhost 5000 --connections=100 --games=50
+ * </pre>
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class LoadGenerator {
+    /** how to run the load generator */
+    public static final String USAGE =
+            "Usage: java loadgen.LoadGenerator <host> <port number> [--connections=n] [--games=n] [--dim=n]"
+                    + " [--bot=random|memory|human] [--think=ms] [--duration=s] [--threads=n] [--binary]"
+                    + " [--seed=n]";
+
+    /** where the server listens */
+    private InetSocketAddress address;
+    /** the number of connections */
+    private int connections = 10;
+    /** the number of games played at once over every connection */
+    private int games = 10;
+    /** the square dimension of the boards */
+    private int dim = 4;
+    /** how the bots play */
+    private Bot.Strategy strategy = Bot.Strategy.MEMORY;
+    /** the mean think time of a human bot, in milliseconds */
+    private long think = 500;
+    /** how long to run, in seconds */
+    private int duration = 10;
+    /** the number of threads driving the connections */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** whether to use the binary encoding */
+    private boolean binary;
+    /** the seed of the bots' random numbers */
+    private long seed = System.nanoTime();
+
+    /**
+     * Run the load generator.
+     *
+     * @param args the host, the port and the options, see USAGE
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        generator.run();
+    }
+
+    /**
+     * Parse the command line.
+     *
+     * @param args the host, the port and the options
+     * @throws IllegalArgumentException if they are invalid
+     */
+    private void parse(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing host or port number");
+        }
+        this.address = new InetSocketAddress(args[0], positive("port", args[1]));
+        for (int i = 2; i < args.length; ++i) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") ? arg.substring(2, eq < 0 ? arg.length() : eq) : arg;
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "connections" -> this.connections = positive(name, value);
+                case "games" -> this.games = positive(name, value);
+                case "dim" -> this.dim = positive(name, value);
+                case "think" -> this.think = positive(name, value);
+                case "duration" -> this.duration = positive(name, value);
+                case "threads" -> this.threads = positive(name, value);
+                case "binary" -> this.binary = true;
+                case "seed" -> this.seed = Long.parseLong(value);
+                case "bot" -> {
+                    try {
+                        this.strategy = Bot.Strategy.valueOf(value.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown bot: " + value);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    /**
+     * Parse a value that has to be a positive integer.
+     *
+     * @param name the name of the option
+     * @param value its value
+     * @return the value
+     * @throws IllegalArgumentException if the value is not a positive integer
+     */
+    private static int positive(String name, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+    }
+
+    /**
+     * Start the workers, report every second and summarize at the end.
+     *
+     * @throws InterruptedException if interrupted while running
+     */
+    private void run() throws InterruptedException {
+        System.out.printf("%d connections x %d games of %dx%d, %s bots, %s, seed %d%n",
+                this.connections, this.games, this.dim, this.dim, this.strategy.name().toLowerCase(Locale.ROOT),
+                this.binary ? "binary" : "text", this.seed);
+        LoadStats stats = new LoadStats();
+        SplittableRandom random = new SplittableRandom(this.seed);
+        long start = System.nanoTime();
+        long deadline = start + this.duration * 1_000_000_000L;
+        int workerCount = Math.min(this.threads, this.connections);
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < workerCount; ++w) {
+            List<LoadConnection> owned = new ArrayList<>();
+            for (int c = w; c < this.connections; c += workerCount) {
+                try {
+                    owned.add(new LoadConnection(stats, this.binary, this.dim, this.games,
+                            this.strategy, random.split(), this.think));
+                } catch (IOException e) {
+                    System.err.println("Could not open a connection: " + e.getMessage());
+                }
+            }
+            Thread worker = new Thread(new Worker(owned, deadline), "loadgen.Worker-" + w);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+
+        long lastMoves = 0;
+        for (int second = 1; second <= this.duration; ++second) {
+            Thread.sleep(Math.max(0, (start + second * 1_000_000_000L - System.nanoTime()) / 1_000_000L));
+            long moves = stats.moves.sum();
+            System.out.printf("%4ds %10d moves/s %8d games %6d connected  reveal p50 %s p99 %s%n",
+                    second, moves - lastMoves, stats.games.sum(), stats.connected.sum(),
+                    millis(stats.reveal.getPercentile(50)), millis(stats.reveal.getPercentile(99)));
+            lastMoves = moves;
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println();
+        System.out.printf("moves       %d, %.0f moves/s%n", stats.moves.sum(), stats.moves.sum() / seconds);
+        System.out.printf("games       %d, %.1f games/s%n", stats.games.sum(), stats.games.sum() / seconds);
+        System.out.printf("errors      %d%n", stats.errors.sum());
+        report("connect", stats.connect);
+        report("reveal", stats.reveal);
+    }
+
+    /**
+     * Print the percentiles of a latency histogram.
+     *
+     * @param name what it measured
+     * @param histogram the latencies in nanoseconds
+     */
+    private static void report(String name, LatencyHistogram histogram) {
+        System.out.printf("%-11s n=%d mean %s p50 %s p99 %s p999 %s max %s%n", name, histogram.getCount(),
+                millis((long) histogram.getMean()), millis(histogram.getPercentile(50)),
+                millis(histogram.getPercentile(99)), millis(histogram.getPercentile(99.9)),
+                millis(histogram.getMax()));
+    }
+
+    /**
+     * Format nanoseconds as milliseconds.
+     *
+     * @param nanos the nanoseconds
+     * @return the text
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+    }
+
+    /**
+     * Drives some of the connections from one selector until the deadline.
+     */
+    private class Worker implements Runnable {
+        /** the connections of the worker */
+        private final List<LoadConnection> owned;
+        /** when to stop, in System.nanoTime() units */
+        private final long deadline;
+
+        /**
+         * Create the worker.
+         *
+         * @param owned its connections
+         * @param deadline when to stop
+         */
+        private Worker(List<LoadConnection> owned, long deadline) {
+            this.owned = owned;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                for (LoadConnection connection : new ArrayList<>(this.owned)) {
+                    try {
+                        connection.connect(selector, address);
+                    } catch (IOException e) {
+                        fail(connection, e);
+                    }
+                }
+                long now = System.nanoTime();
+                while (now - this.deadline < 0 && !this.owned.isEmpty()) {
+                    long next = this.deadline;
+                    for (LoadConnection connection : new ArrayList<>(this.owned)) {
+                        try {
+                            long due = connection.tick(now);
+                            if (due != Long.MAX_VALUE && due - next < 0) {
+                                next = due;
+                            }
+                        } catch (IOException e) {
+                            fail(connection, e);
+                        }
+                    }
+                    selector.select(Math.max(1, (next - now + 999_999L) / 1_000_000L));
+                    now = System.nanoTime();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        LoadConnection connection = (LoadConnection) key.attachment();
+                        try {
+                            connection.ready(now);
+                        } catch (IOException e) {
+                            fail(connection, e);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                System.err.println(Thread.currentThread().getName() + " stopped: " + e.getMessage());
+            }
+            for (LoadConnection connection : this.owned) {
+                connection.close();
+            }
+        }
+
+        /**
+         * Give up a connection.
+         *
+         * @param connection the connection
+         * @param e why
+         */
+        private void fail(LoadConnection connection, IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+            connection.close();
+            this.owned.remove(connection);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package loadgen;
+
+import common.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the connections of a load run measured, shared by all of them.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class LoadStats {
+    /** the number of cards revealed */
+    final LongAdder moves = new LongAdder();
+    /** the number of games played to the end */
+    final LongAdder games = new LongAdder();
+    /** the number of errors the server sent */
+    final LongAdder errors = new LongAdder();
+    /** the number of connections up and playing */
+    final LongAdder connected = new LongAdder();
+    /** the nanoseconds from opening a connection to its BOARD_DIM */
+    final LatencyHistogram connect = new LatencyHistogram();
+    /** the nanoseconds from sending a REVEAL to receiving its CARD */
+    final LatencyHistogram reveal = new LatencyHistogram();
+}
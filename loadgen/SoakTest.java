@@ -0,0 +1,219 @@
+package loadgen;
+
+import common.ConcentrationException;
+import common.LatencyHistogram;
+import game.CompactConcentrationBoard;
+import game.ConcentrationBoard;
+import game.ConcentrationSolver;
+import game.GameBoard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays games between ConcentrationSolvers in process, without a server,
+ * to soak the boards and the solver and to see how many games a core gets
+ * through.  Every thread deals its own boards from seeds split off the
+ * seed of the run and plays them alone or with two solvers taking turns,
+ * and every game is checked to end with every pair matched, e.g.
+ * <pre>
+ *     java loadgen.SoakTest --games=1000000 --dim=6 --players=2
+ * </pre>
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class SoakTest {
+    /** how to run the soak test */
+    public static final String USAGE =
+            "Usage: java loadgen.SoakTest [--games=n] [--dim=n] [--players=1|2] [--board=object|compact]"
+                    + " [--threads=n] [--seed=n]";
+
+    /** the number of games to play, over all threads */
+    private int games = 100_000;
+    /** the square dimension of the boards */
+    private int dim = 6;
+    /** the number of solvers taking turns on a board */
+    private int players = 1;
+    /** whether to play ConcentrationBoards rather than CompactConcentrationBoards */
+    private boolean object;
+    /** the number of threads playing */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** the seed of the run */
+    private long seed = System.nanoTime();
+
+    /** the cards revealed in every game */
+    private final LatencyHistogram moves = new LatencyHistogram();
+    /** the number of games played */
+    private final LongAdder played = new LongAdder();
+    /** the number of games the first player matched more pairs in */
+    private final LongAdder firstWins = new LongAdder();
+    /** the number of games the second player matched more pairs in */
+    private final LongAdder secondWins = new LongAdder();
+    /** the number of games that did not end with every pair matched */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Run the soak test.
+     *
+     * @param args the options, see USAGE
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws InterruptedException {
+        SoakTest test = new SoakTest();
+        try {
+            test.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        test.run();
+    }
+
+    /**
+     * Parse the command line.
+     *
+     * @param args the options
+     * @throws IllegalArgumentException if they are invalid
+     */
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--") ? arg.substring(2, eq < 0 ? arg.length() : eq) : arg;
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "games" -> this.games = positive(name, value);
+                case "dim" -> this.dim = positive(name, value);
+                case "threads" -> this.threads = positive(name, value);
+                case "seed" -> this.seed = Long.parseLong(value);
+                case "players" -> {
+                    this.players = positive(name, value);
+                    if (this.players > 2) {
+                        throw new IllegalArgumentException("--players must be 1 or 2: " + value);
+                    }
+                }
+                case "board" -> {
+                    if (!value.equals("object") && !value.equals("compact")) {
+                        throw new IllegalArgumentException("Unknown board: " + value);
+                    }
+                    this.object = value.equals("object");
+                }
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    /**
+     * Parse a value that has to be a positive integer.
+     *
+     * @param name the name of the option
+     * @param value its value
+     * @return the value
+     * @throws IllegalArgumentException if the value is not a positive integer
+     */
+    private static int positive(String name, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+    }
+
+    /**
+     * Play the games on every thread and report.
+     *
+     * @throws InterruptedException if interrupted while running
+     */
+    private void run() throws InterruptedException {
+        System.out.printf("%d games of %dx%d, %d player%s on %s boards, %d threads, seed %d%n",
+                this.games, this.dim, this.dim, this.players, this.players == 1 ? "" : "s",
+                this.object ? "object" : "compact", this.threads, this.seed);
+        SplittableRandom random = new SplittableRandom(this.seed);
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < this.threads; ++t) {
+            int share = this.games / this.threads + (t < this.games % this.threads ? 1 : 0);
+            SplittableRandom seeds = random.split();
+            Thread worker = new Thread(() -> play(share, seeds), "loadgen.SoakTest-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long games = this.played.sum();
+        System.out.printf("games       %d, %.0f games/s, %.0f games/s per thread%n",
+                games, games / seconds, games / seconds / this.threads);
+        System.out.printf("moves       mean %.1f p50 %d p99 %d max %d, %.0f moves/s%n", this.moves.getMean(),
+                this.moves.getPercentile(50), this.moves.getPercentile(99), this.moves.getMax(),
+                this.moves.getMean() * games / seconds);
+        if (this.players == 2) {
+            System.out.printf("wins        first %d second %d tied %d%n", this.firstWins.sum(),
+                    this.secondWins.sum(), games - this.firstWins.sum() - this.secondWins.sum());
+        }
+        System.out.printf("failed      %d%n", this.failed.sum());
+        if (this.failed.sum() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Play games on the calling thread.  The solvers are reused for every
+     * game, so a game creates nothing but its board and the replies the
+     * board returns.
+     *
+     * @param games the number of games to play
+     * @param seeds where the seeds of the boards come from
+     */
+    private void play(int games, SplittableRandom seeds) {
+        ConcentrationSolver first = new ConcentrationSolver();
+        ConcentrationSolver second = new ConcentrationSolver();
+        LatencyHistogram moves = new LatencyHistogram();
+        int cells = this.dim * this.dim;
+        for (int i = 0; i < games; ++i) {
+            long seed = seeds.nextLong();
+            try {
+                GameBoard board = this.object ? new ConcentrationBoard(this.dim, false, seed)
+                        : new CompactConcentrationBoard(this.dim, false, true, seed);
+                if (this.players == 1) {
+                    first.play(board);
+                } else {
+                    first.reset(this.dim);
+                    second.reset(this.dim);
+                    int firstPairs = 0;
+                    int secondPairs = 0;
+                    while (!board.gameOver()) {
+                        firstPairs += first.playTurn(board, second);
+                        if (!board.gameOver()) {
+                            secondPairs += second.playTurn(board, first);
+                        }
+                    }
+                    if (firstPairs != secondPairs) {
+                        (firstPairs > secondPairs ? this.firstWins : this.secondWins).increment();
+                    }
+                }
+                if (first.getMatches() * 2 != cells || !board.gameOver()) {
+                    throw new ConcentrationException("Game ended with " + first.getMatches() + " pairs");
+                }
+                moves.record(first.getMoves());
+            } catch (ConcentrationException | IllegalStateException e) {
+                if (this.failed.sum() == 0) {
+                    System.err.println("Game of seed " + seed + " failed: " + e.getMessage());
+                }
+                this.failed.increment();
+            }
+            this.played.increment();
+        }
+        synchronized (this.moves) {
+            this.moves.add(moves);
+        }
+    }
+}
@@ -13,9 +13,13 @@ import java.util.*;
 
 public class ConcentrationModel {
     /**
-     * Instance of board with 2d array
+     * the pair number of every revealed card, HIDDEN for the others
      */
-    private Card clientBoard[][];
+    private int clientBoard[][];
+    /**
+     * the value of a card in clientBoard that is not revealed
+     */
+    public static final int HIDDEN = -1;
     /**
      * dimension of the board
      */
@@ -32,6 +36,10 @@ public class ConcentrationModel {
      * It holds object of second button clicked
      */
     private ConcentrationGUI.cellButton card2;
+    /**
+     * how many cards of the current pair were clicked, 0 to 2
+     */
+    private int picked;
 
     /**
      * Enum that holds the card values
@@ -64,6 +72,16 @@ public class ConcentrationModel {
          */
         public String value;
 
+        /**
+         * the cards with a picture of their own, indexed by pair number
+         */
+        private static final Card[] PAIRS = Arrays.copyOf(values(), values().length - 1);
+
+        /**
+         * the number of pictures, the pairs past it share them
+         */
+        public static final int PICTURES = PAIRS.length;
+
         /**
          * initializes value of enum
          * @param val it is the value of image
@@ -73,12 +91,24 @@ public class ConcentrationModel {
             value = val;
         }
 
+        /**
+         * Get the card of a pair number without looking up its name.  The
+         * pairs of large boards outnumber the pictures, so they share them
+         * @param pair the pair number, 0 for A
+         * @return the card
+         */
+        public static Card forPair(int pair)
+        {
+            return PAIRS[pair % PAIRS.length];
+        }
+
     }
 
     /** the game status */
     public enum Status {
         OK,
         GAME_OVER,
+        TIME_UP,
         ERROR
     }
 
@@ -106,11 +136,9 @@ public class ConcentrationModel {
     public void createBoard(int dim)
     {
         this.dim = dim;
-        this.clientBoard = new Card[dim][dim];
+        this.clientBoard = new int[dim][dim];
         for (int row=0; row<this.dim; ++row) {
-            for (int col=0; col<this.dim; ++col) {
-                this.clientBoard[row][col] = Card.def;
-            }
+            Arrays.fill(this.clientBoard[row], HIDDEN);
         }
     }
 
@@ -140,16 +168,28 @@ public class ConcentrationModel {
      */
     public void revealCard(int row,int col,String card)
     {
-        this.clientBoard[row][col] = Card.valueOf(card);
+        revealCard(row, col, card.length() == 1 && Character.isUpperCase(card.charAt(0))
+                ? card.charAt(0) - 'A' : Integer.parseInt(card));
+    }
+
+    /**
+     * Reveals a card on the board
+     * @param row row of the card's position
+     * @param col column of the card's position
+     * @param pair pair number of the card, 0 for A
+     */
+    public void revealCard(int row,int col,int pair)
+    {
+        this.clientBoard[row][col] = pair;
         this.status = Status.OK;
         this.movesMade++;
-        if(this.card2!=null)
+        if(this.picked==2)
         {
-            notifyObservers(new CardUpdate(this.card2,Card.valueOf(card)));
+            notifyObservers(new CardUpdate(this.card2,row,col,pair));
         }
         else
         {
-            notifyObservers(new CardUpdate(this.card1,Card.valueOf(card)));
+            notifyObservers(new CardUpdate(this.card1,row,col,pair));
         }
     }
 
@@ -163,24 +203,25 @@ public class ConcentrationModel {
      */
     public void revertCard(int row1, int col1, int row2, int col2)
     {
-        this.clientBoard[row1][col1] = this.clientBoard[row2][col2] = Card.def;
+        this.clientBoard[row1][col1] = this.clientBoard[row2][col2] = HIDDEN;
         this.status = Status.OK;
-        notifyObservers(new CardUpdate(this.card1,Card.def));
-        notifyObservers(new CardUpdate(this.card2,Card.def));
+        notifyObservers(new CardUpdate(this.card1,row1,col1,HIDDEN));
+        notifyObservers(new CardUpdate(this.card2,row2,col2,HIDDEN));
         this.card1 = null;
         this.card2 = null;
+        this.picked = 0;
     }
 
     /**
      * It sets the button object
-     * @param card it is the button clicked
+     * @param card it is the button clicked, null when the board is drawn on a canvas
      * @return it returns if successful or not
      */
     public boolean setCard(ConcentrationGUI.cellButton card)
     {
-        if(this.card1!=null && this.card2!=null){return false;}
+        if(this.picked==2){return false;}
         else{
-            if(this.card1==null)
+            if(this.picked==0)
             {
                 this.card1 = card;
             }
@@ -188,6 +229,7 @@ public class ConcentrationModel {
             {
                 this.card2 = card;
             }
+            this.picked++;
             return true;
         }
 
@@ -202,6 +244,7 @@ public class ConcentrationModel {
         this.matchesMade++;
         this.card1 = null;
         this.card2 = null;
+        this.picked = 0;
         notifyObservers(null);
     }
 
@@ -213,7 +256,18 @@ public class ConcentrationModel {
      */
     public boolean isRevealed(int row, int col)
     {
-        return this.clientBoard[row][col]!=Card.def;
+        return this.clientBoard[row][col]!=HIDDEN;
+    }
+
+    /**
+     * it returns the pair number of a card
+     * @param row row of the card's position
+     * @param col column of the card's position
+     * @return the pair number, HIDDEN if the card is not revealed
+     */
+    public int getPair(int row, int col)
+    {
+        return this.clientBoard[row][col];
     }
 
     /**
@@ -226,12 +280,14 @@ public class ConcentrationModel {
     }
 
     /**
-     * This method sets the status of the game as the game progresses
+     * This method sets the status of the game as the game progresses, and
+     * tells the observers, since the game may end without a card changing
      * @param status status of the game
      */
     public void setStatus(Status status)
     {
         this.status = status;
+        notifyObservers(null);
     }
 
     /**
@@ -253,19 +309,31 @@ public class ConcentrationModel {
          */
         private ConcentrationGUI.cellButton button;
         /**
-         * instance of card value
+         * row of the card's position
          */
-        private Card card;
+        private int row;
+        /**
+         * column of the card's position
+         */
+        private int col;
+        /**
+         * pair number of the card, HIDDEN when it is turned back over
+         */
+        private int pair;
 
         /**
          * It initializes the card object
-         * @param button button of the card
-         * @param card value of the card
+         * @param button button of the card, null when the board is drawn on a canvas
+         * @param row row of the card's position
+         * @param col column of the card's position
+         * @param pair pair number of the card, HIDDEN when it is turned back over
          */
-        public CardUpdate(ConcentrationGUI.cellButton button, Card card)
+        public CardUpdate(ConcentrationGUI.cellButton button, int row, int col, int pair)
         {
             this.button = button;
-            this.card = card;
+            this.row = row;
+            this.col = col;
+            this.pair = pair;
         }
 
         /**
@@ -277,13 +345,40 @@ public class ConcentrationModel {
             return this.button;
         }
 
+        /**
+         * This method returns row of the card's position
+         * @return row of the card
+         */
+        public int getRow()
+        {
+            return this.row;
+        }
+
+        /**
+         * This method returns column of the card's position
+         * @return column of the card
+         */
+        public int getCol()
+        {
+            return this.col;
+        }
+
         /**
          * This method returns value of the card
          * @return value of the card
          */
         public Card getCard()
         {
-            return this.card;
+            return this.pair == HIDDEN ? Card.def : Card.forPair(this.pair);
+        }
+
+        /**
+         * This method returns pair number of the card
+         * @return pair number of the card, HIDDEN when it is turned back over
+         */
+        public int getPair()
+        {
+            return this.pair;
         }
     }
 
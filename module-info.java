@@ -1,4 +1,6 @@
 module ConcentrationGUI {
     requires transitive javafx.controls;
+    requires java.management;
+    requires jdk.management;
     exports view;
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package server;
+
+import common.AsyncLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Bounds the number of sessions a server runs at once.  A connection
+ * arriving at a full server waits in a bounded queue for a session to end,
+ * and once the queue is full too it is turned away, so an overloaded
+ * server keeps serving the games it has instead of running out of threads
+ * or memory.
+ *
+ * A session that can not be started, e.g. because no thread could be
+ * created for it, gives its slot straight back and has its connection
+ * closed, so the failure neither leaks a slot nor reaches the accept loop.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class AdmissionController {
+    /**
+     * A connection waiting for a session.
+     */
+    private static class Waiting {
+        /** starts the session */
+        private final Runnable start;
+        /** the connection, closed if the session can not be started */
+        private final Closeable connection;
+
+        /**
+         * Create the waiting connection.
+         *
+         * @param start starts the session
+         * @param connection the connection
+         */
+        private Waiting(Runnable start, Closeable connection) {
+            this.start = start;
+            this.connection = connection;
+        }
+    }
+
+    /** the most sessions running at once, 0 for no limit */
+    private final int capacity;
+    /** the most connections waiting for a session */
+    private final int queueLimit;
+    /** the connections waiting for a session, oldest first */
+    private final Queue<Waiting> waiting;
+    /** the number of sessions running */
+    private int active;
+
+    /**
+     * Create the controller.
+     *
+     * @param capacity the most sessions running at once, 0 for no limit
+     * @param queueLimit the most connections waiting for a session
+     */
+    public AdmissionController(int capacity, int queueLimit) {
+        this.capacity = capacity;
+        this.queueLimit = queueLimit;
+        this.waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * Admit a connection: start its session now if there is room, or
+     * once another session ends if there is room in the queue.
+     *
+     * @param start starts the session, run on the calling thread or on the
+     *     thread of the session that makes room
+     * @param connection the connection, closed if its session can not be started
+     * @return false if the connection was turned away
+     */
+    public boolean admit(Runnable start, Closeable connection) {
+        synchronized (this) {
+            if (this.capacity > 0 && this.active >= this.capacity) {
+                if (this.waiting.size() >= this.queueLimit) {
+                    return false;
+                }
+                this.waiting.add(new Waiting(start, connection));
+                return true;
+            }
+            ++this.active;
+        }
+        if (!start(start, connection)) {
+            release();
+        }
+        return true;
+    }
+
+    /**
+     * Give back the slot of a session that ended, handing it straight to
+     * the oldest waiting connection if there is one.  Must be called once
+     * for every admitted connection.
+     */
+    public void release() {
+        while (true) {
+            Waiting next;
+            synchronized (this) {
+                next = this.waiting.poll();
+                if (next == null) {
+                    --this.active;
+                    return;
+                }
+            }
+            if (start(next.start, next.connection)) {
+                return;
+            }
+            // the slot is still free, hand it to the next one waiting
+        }
+    }
+
+    /**
+     * Start the session of a connection that holds a slot.  If it can not
+     * be started the failure is logged and the connection closed, and the
+     * caller gives the slot back.
+     *
+     * @param start starts the session
+     * @param connection the connection
+     * @return whether the session started
+     */
+    private static boolean start(Runnable start, Closeable connection) {
+        try {
+            start.run();
+            return true;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // OutOfMemoryError is what Thread.start throws when no thread can be created
+            AsyncLog.get().log(AsyncLog.Level.ERROR, "SESSION_NOT_STARTED", e.toString());
+            try {
+                connection.close();
+            } catch (IOException ce) {
+                // nothing left to do with a connection that can not be closed
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Get the number of sessions running.
+     *
+     * @return the count
+     */
+    public synchronized int getActive() {
+        return this.active;
+    }
+
+    /**
+     * Get the number of connections waiting for a session.
+     *
+     * @return the count
+     */
+    public synchronized int getWaiting() {
+        return this.waiting.size();
+    }
+}
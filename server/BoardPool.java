@@ -0,0 +1,196 @@
+package server;
+
+import common.AsyncLog;
+import common.ConcentrationException;
+import game.GameBoard;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Boards dealt ahead of time, so a connection gets its board without
+ * waiting for it to be shuffled.  Every dimension asked for gets a shelf of
+ * up to capacity ready boards; a background thread tops a shelf up again
+ * once it drops below the low water mark.  When a burst of connections
+ * empties a shelf the boards are simply dealt on the spot as before.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class BoardPool {
+    /** the largest dimension pooled, larger boards take too much memory to keep around */
+    public static final int MAX_POOLED_DIM = 64;
+
+    /**
+     * Deals a new board.
+     */
+    public interface Dealer {
+        /**
+         * Deal a new board without printing its solution.
+         *
+         * @param dim the square dimension of the board
+         * @return the board
+         * @throws ConcentrationException if the dimension is invalid
+         */
+        GameBoard deal(int dim) throws ConcentrationException;
+    }
+
+    /**
+     * The ready boards of one dimension.
+     */
+    private static class Shelf {
+        /** the square dimension of the boards */
+        private final int dim;
+        /** the ready boards */
+        private final BlockingQueue<GameBoard> boards;
+        /** set while a refill of the shelf is queued or running */
+        private final AtomicBoolean refilling;
+
+        /**
+         * Create an empty shelf.
+         *
+         * @param dim the square dimension of the boards
+         * @param capacity the most boards it holds
+         */
+        private Shelf(int dim, int capacity) {
+            this.dim = dim;
+            this.boards = new ArrayBlockingQueue<>(capacity);
+            this.refilling = new AtomicBoolean();
+        }
+    }
+
+    /** deals the boards */
+    private final Dealer dealer;
+    /** the most boards kept per dimension */
+    private final int capacity;
+    /** the number of boards below which a shelf is refilled */
+    private final int lowWater;
+    /** where the boards are counted */
+    private final ServerMetrics metrics;
+    /** the shelves by dimension, only of dimensions a board was dealt for */
+    private final Map<Integer, Shelf> shelves;
+    /** deals the boards that refill the shelves */
+    private final ExecutorService refiller;
+
+    /**
+     * Create an empty pool.
+     *
+     * @param dealer deals the boards
+     * @param capacity the most boards kept per dimension
+     * @param lowWater the number of boards below which a shelf is refilled
+     * @param metrics where the boards handed out are counted
+     */
+    public BoardPool(Dealer dealer, int capacity, int lowWater, ServerMetrics metrics) {
+        this.dealer = dealer;
+        this.capacity = capacity;
+        this.lowWater = Math.min(lowWater, capacity);
+        this.metrics = metrics;
+        this.shelves = new ConcurrentHashMap<>();
+        this.refiller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server.BoardPool");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Start filling the shelf of a dimension before any connection asks
+     * for it, e.g. the dimension of every first game.
+     *
+     * @param dim the square dimension
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public void prefill(int dim) throws ConcentrationException {
+        GameBoard board = this.dealer.deal(dim);
+        if (dim <= MAX_POOLED_DIM) {
+            Shelf shelf = shelf(dim);
+            shelf.boards.offer(board);
+            refill(shelf);
+        }
+    }
+
+    /**
+     * Take a ready board, or deal one on the spot if there is none.
+     *
+     * @param dim the square dimension of the board
+     * @return the board
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public GameBoard take(int dim) throws ConcentrationException {
+        if (dim > MAX_POOLED_DIM) {
+            return this.dealer.deal(dim);
+        }
+        Shelf shelf = this.shelves.get(dim);
+        GameBoard board = shelf == null ? null : shelf.boards.poll();
+        if (board != null) {
+            this.metrics.poolHit();
+        } else {
+            // an invalid dimension throws here and never gets a shelf
+            board = this.dealer.deal(dim);
+            this.metrics.poolMiss();
+            if (shelf == null) {
+                shelf = shelf(dim);
+            }
+        }
+        if (shelf.boards.size() < this.lowWater || shelf.boards.isEmpty()) {
+            refill(shelf);
+        }
+        return board;
+    }
+
+    /**
+     * Get the shelf of a dimension, creating it if needed.
+     *
+     * @param dim the square dimension
+     * @return its shelf
+     */
+    private Shelf shelf(int dim) {
+        return this.shelves.computeIfAbsent(dim, d -> new Shelf(d, this.capacity));
+    }
+
+    /**
+     * Have the background thread fill a shelf up, unless it is on it
+     * already.
+     *
+     * @param shelf the shelf
+     */
+    private void refill(Shelf shelf) {
+        if (!shelf.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        this.refiller.execute(() -> {
+            try {
+                while (shelf.boards.remainingCapacity() > 0) {
+                    shelf.boards.offer(this.dealer.deal(shelf.dim));
+                }
+            } catch (ConcentrationException e) {
+                AsyncLog.get().log(AsyncLog.Level.WARN, "POOL_FAILED", "dim=" + shelf.dim + " " + e.getMessage());
+            } finally {
+                shelf.refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * Get the number of ready boards of a dimension.
+     *
+     * @param dim the square dimension
+     * @return the count
+     */
+    public int getReady(int dim) {
+        Shelf shelf = this.shelves.get(dim);
+        return shelf == null ? 0 : shelf.boards.size();
+    }
+
+    /**
+     * Stop refilling the shelves.
+     */
+    public void close() {
+        this.refiller.shutdownNow();
+    }
+}
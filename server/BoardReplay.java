@@ -0,0 +1,41 @@
+package server;
+
+import common.ConcentrationException;
+
+/**
+ * Deals again a board the server logged, from the seed, kind and dimension
+ * of its DEALT event, and prints its solution, e.g.
+ * <pre>
+ *     2026-10-17T20:31:02.123Z INFO DEALT session=12 seed=-3372919270213496373 compact 4
+ *     java server.BoardReplay compact 4 -3372919270213496373
+ * </pre>
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class BoardReplay {
+    /** how to run the replay */
+    public static final String USAGE = "Usage: java server.BoardReplay object|compact|large <board dimension> <seed>";
+
+    /**
+     * Print the solution of a logged board.
+     *
+     * @param args the kind, the dimension and the seed of the board
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        try {
+            ServerOptions.Board kind = ServerOptions.Board.valueOf(args[0].toUpperCase());
+            int dim = Integer.parseInt(args[1]);
+            long seed = Long.decode(args[2]);
+            System.out.println("SOLUTION:");
+            System.out.println(ServerContext.deal(kind, dim, seed).getSolution());
+        } catch (IllegalArgumentException | ConcentrationException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+    }
+}
@@ -1,47 +1,52 @@
 package server;
 
+import common.AsyncLog;
 import common.ConcentrationException;
-import common.ConcentrationProtocol;
-import game.ConcentrationBoard;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 /**
  * this class helps to create multiple server instances
  *
  * @author Mayur Reddy Sangepu
  */
-public class ConcentrationClientServerThread extends Thread implements ConcentrationProtocol{
+public class ConcentrationClientServerThread extends Thread {
     /**
      *instance of server socket
      */
     private Socket socket = null;
     /**
-     * dimension of the board
+     * the server this session belongs to
      */
-    private int dim;
+    private ServerContext context;
     /**
-     * instance of server side game board
+     * the game played over this socket
      */
-    private ConcentrationBoard serverBoard;
+    private ConcentrationSession session;
     /**
-     * sleep time of the thread
+     * where the session writes, its session lock is held while the session is touched
      */
-    private static final int SLEEP_TIME = 1000;
+    private StreamOutput output;
+    /**
+     * write to the socket when this thread is not there to
+     */
+    private Executor writers;
 
     /**
      * constructor to initialize class variables
      * @param socket : server socket
-     * @param dim : dimension of the game board
+     * @param context : the server this session belongs to
+     * @param writers : write to the socket when this thread is not there to
      */
-    public ConcentrationClientServerThread(Socket socket,int dim) {
+    public ConcentrationClientServerThread(Socket socket,ServerContext context,Executor writers) {
         super("server.ConcentrationClientServerThread");
         this.socket = socket;
-        this.dim = dim;
+        this.context = context;
+        this.writers = writers;
     }
 
     /**
@@ -51,66 +56,83 @@ public class ConcentrationClientServerThread extends Thread implements Concentra
      *  until the client disconnects or the game is completed
      *
      *  It strictly follows the ConcentrationProtocol
+     *
+     *  Whatever goes wrong only ends this session: the socket is closed,
+     *  the failure reported and the admission slot given back, while the
+     *  other sessions keep running.
      */
     public void run() {
         try (
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(
-                        new InputStreamReader(
-                                socket.getInputStream()));
+                Socket socket = this.socket;
+                InputStream in = socket.getInputStream();
         ) {
-            String outputLine;
-            this.serverBoard = new ConcentrationBoard(this.dim,true);
-            outputLine = String.format(BOARD_DIM_MSG,this.serverBoard.getDIM());
-            out.println(outputLine);
-            runHelper(out,in);
-            socket.close();
+            socket.setTcpNoDelay(true);
+            this.output = new StreamOutput(socket.getOutputStream(), socket, this.context.getScheduler(),
+                    this.writers);
+            this.output.lockSession();
+            try {
+                this.session = new ConcentrationSession(this.context, this.output);
+                this.session.open();
+            } finally {
+                this.output.unlockSession();
+            }
+            runHelper(in);
+            this.output.awaitDrained();
         } catch (IOException | ConcentrationException e) {
-            System.exit(-1);
+            if (this.output == null || !this.output.isFinished()) {
+                AsyncLog.get().log(AsyncLog.Level.WARN, "SESSION_ENDED", sessionId(), e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            AsyncLog.get().log(AsyncLog.Level.ERROR, "SESSION_FAILED", sessionId(), e.toString());
+        } finally {
+            if (this.output != null) {
+                // closed first, so closing the session writes nothing more
+                this.output.close();
+            }
+            if (this.session != null) {
+                this.output.lockSession();
+                try {
+                    this.session.close();
+                } finally {
+                    this.output.unlockSession();
+                }
+            }
+            this.context.getAdmission().release();
         }
 
     }
     /**
-     * this method is the helper method for the run
-     * @param out: Prints formatted representations of objects to a text-output stream
-     * @param in: Reads text from a character-input stream, buffering characters so as to
-     *            provide for the efficient reading of characters, arrays, and lines.
+     * Get the ID of the session, for the log.
+     *
+     * @return the ID, AsyncLog.NO_SESSION if the session was not created
+     */
+    private long sessionId() {
+        return this.session == null ? AsyncLog.NO_SESSION : this.session.getId();
+    }
+
+    /**
+     * this method is the helper method for the run, it hands the bytes
+     * read from the client to the session until the game is over or the
+     * client disconnects
+     * @param in: the client's input stream
      * @throws IOException:Signals that an I/O exception of some sort has occurred.
      */
-    private void runHelper(PrintWriter out,BufferedReader in ) throws IOException {
-        String inputLine;
-        while ((inputLine = in.readLine()) != null) {
-            String outputLine;
+    private void runHelper(InputStream in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ConcentrationSession.INPUT_BUFFER);
+        int n;
+        while ((n = in.read(buffer.array(), buffer.position(), buffer.remaining())) > 0) {
+            buffer.position(buffer.position() + n);
+            buffer.flip();
+            boolean finished;
+            this.output.lockSession();
             try {
-                String[] list = inputLine.split(" ");
-                if(list.length==3 && list[0].equals(REVEAL)) {
-                    outputLine = this.serverBoard.processInput(Integer.parseInt(list[1]),Integer.parseInt(list[2]));
-                    out.println(outputLine);
-                    if(this.serverBoard.getMatchStatus()!=null)
-                    {
-                        outputLine = this.serverBoard.getMatchStatus();
-                        this.sleep(SLEEP_TIME);
-                        out.println(outputLine);
-                    }
-                    if (this.serverBoard.gameOver()) {
-                        outputLine = GAME_OVER_MSG;
-                        out.println(outputLine);
-                        break;
-                    }
-                }
-                else{
-                    outputLine = String.format(ERROR_MSG,"Invalid Arguments");
-                    out.println(outputLine);
-                }
-            }catch(NumberFormatException ne)
-            {
-                outputLine = String.format(ERROR_MSG,"Invalid Coordinates");
-                out.println(outputLine);
+                finished = this.session.receive(buffer);
+            } finally {
+                this.output.unlockSession();
             }
-            catch (ConcentrationException | InterruptedException ce)
-            {
-                outputLine = String.format(ERROR_MSG,ce.getMessage());
-                out.println(outputLine);
+            buffer.compact();
+            if (finished) {
+                break;
             }
         }
     }
@@ -0,0 +1,209 @@
+package server;
+
+import common.AsyncLog;
+import common.ConcentrationException;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector event loop of the nio server.  Every connection handed to a
+ * reactor stays pinned to it for its whole life, so a session is only ever
+ * touched by the reactor's own thread and needs no locking.  Besides the
+ * socket events the loop runs timed tasks, which is how the match status is
+ * held back without blocking the thread.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ConcentrationReactor implements Runnable {
+    /**
+     * A task due to run on the reactor thread at a point in time.
+     */
+    private static class Timer implements Comparable<Timer> {
+        /** when the task is due, in System.nanoTime() units */
+        private final long due;
+        /** what to run */
+        private final Runnable task;
+
+        /**
+         * Create the timer.
+         *
+         * @param due when the task is due
+         * @param task what to run
+         */
+        private Timer(long due, Runnable task) {
+            this.due = due;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(this.due, other.due);
+        }
+    }
+
+    /** the selector of this event loop */
+    private final Selector selector;
+    /** the server this reactor belongs to */
+    private final ServerContext context;
+    /** connections accepted but not yet registered with the selector */
+    private final Queue<SocketChannel> pending;
+    /** tasks handed over from other threads, run on the next pass */
+    private final Queue<Runnable> submitted;
+    /** the timed tasks ordered by due time, only touched by the reactor thread */
+    private final PriorityQueue<Timer> timers;
+    /** the thread running the loop */
+    private final Thread thread;
+
+    /**
+     * Create the reactor and start its thread.
+     *
+     * @param index the number of the reactor, used to name its thread
+     * @param context the server this reactor belongs to
+     * @throws IOException if the selector can not be opened
+     */
+    public ConcentrationReactor(int index, ServerContext context) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.submitted = new ConcurrentLinkedQueue<>();
+        this.timers = new PriorityQueue<>();
+        this.thread = new Thread(this, "server.ConcentrationReactor-" + index);
+        this.thread.start();
+    }
+
+    /**
+     * Hand an accepted connection over to this reactor.  Safe to call from
+     * any thread.
+     *
+     * @param channel the accepted connection
+     */
+    public void register(SocketChannel channel) {
+        this.pending.add(channel);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Run a task on the reactor thread as soon as it gets to it.  Safe to
+     * call from any thread, e.g. the timer wheel.
+     *
+     * @param task what to run
+     */
+    public void submit(Runnable task) {
+        this.submitted.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Run a task on the reactor thread after a delay.  Must be called from
+     * the reactor thread.
+     *
+     * @param millis the delay in milliseconds
+     * @param task what to run
+     */
+    public void schedule(long millis, Runnable task) {
+        this.timers.add(new Timer(System.nanoTime() + millis * 1_000_000L, task));
+    }
+
+    /**
+     * The event loop: register new connections, run the due timers and
+     * dispatch the ready sockets until the selector is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (this.selector.isOpen()) {
+                registerPending();
+                long timeout = runTimers();
+                if (timeout < 0) {
+                    this.selector.selectNow();
+                } else {
+                    this.selector.select(timeout);
+                }
+                for (SelectionKey key : this.selector.selectedKeys()) {
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        session.ready(key);
+                    } catch (RuntimeException e) {
+                        session.fail(e);
+                    }
+                }
+                this.selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (this.selector.isOpen()) {
+                AsyncLog.get().log(AsyncLog.Level.ERROR, "REACTOR_STOPPED", this.thread.getName() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Register the connections handed over since the last pass and send
+     * each of them its board dimension.
+     */
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = this.pending.poll()) != null) {
+            NioSession session = new NioSession(this, this.context, channel);
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                session.open(channel.register(this.selector, SelectionKey.OP_READ, session));
+            } catch (IOException | ConcentrationException e) {
+                session.close();
+            } catch (RuntimeException e) {
+                session.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Run the tasks handed over and every timer that is due.  A task that
+     * fails is reported and dropped without stopping the others.
+     *
+     * @return how long the selector may block before the next timer is due:
+     *     0 to block indefinitely, negative to not block at all
+     */
+    private long runTimers() {
+        Runnable task;
+        while ((task = this.submitted.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                AsyncLog.get().log(AsyncLog.Level.ERROR, "TASK_FAILED", this.thread.getName() + " " + e);
+            }
+        }
+        long now = System.nanoTime();
+        while (!this.timers.isEmpty() && this.timers.peek().due <= now) {
+            try {
+                this.timers.poll().task.run();
+            } catch (RuntimeException e) {
+                AsyncLog.get().log(AsyncLog.Level.ERROR, "TIMER_FAILED", this.thread.getName() + " " + e);
+            }
+        }
+        if (!this.pending.isEmpty() || !this.submitted.isEmpty()) {
+            return -1;
+        }
+        if (this.timers.isEmpty()) {
+            return 0;
+        }
+        long millis = (this.timers.peek().due - now + 999_999L) / 1_000_000L;
+        return Math.max(1, millis);
+    }
+
+    /**
+     * Stop the event loop.
+     *
+     * @throws IOException if the selector can not be closed
+     */
+    public void close() throws IOException {
+        this.selector.close();
+    }
+}
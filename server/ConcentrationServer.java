@@ -1,7 +1,18 @@
 package server;
 
+import common.ConcentrationProtocol;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * This class is responsible for sending the input to the
@@ -20,23 +31,134 @@ public class ConcentrationServer {
      */
     public static void main(String[] args) throws IOException {
 
-        if (args.length != 2) {
-            System.err.println("Usage: java server.ConcentrationServer <port number> <board dimension>");
+        ServerOptions options = null;
+        try {
+            options = ServerOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ServerOptions.USAGE);
+            System.exit(1);
+        }
+
+        ServerContext context = null;
+        try {
+            context = new ServerContext(options);
+        } catch (UncheckedIOException e) {
+            System.err.println("Could not open the arena or the journal: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+        try {
+            switch (options.getMode()) {
+                case NIO -> serveNio(context);
+                case VIRTUAL -> serveVirtual(context);
+                default -> serveThreads(context);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not listen on port " + options.getPort());
+            System.exit(-1);
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
             System.exit(1);
+        } finally {
+            context.close();
         }
 
-        int portNumber = Integer.parseInt(args[0]);
-        int dimension = Integer.parseInt(args[1]);
+    }
+
+    /**
+     * Serve every client with its own thread.
+     *
+     * @param context the server the sessions belong to
+     * @throws IOException if the server socket can not be opened
+     */
+    private static void serveThreads(ServerContext context) throws IOException {
         boolean listening = true;
+        try (ServerSocket serverSocket = new ServerSocket(context.getOptions().getPort())) {
+            while (listening) {
+                Socket socket = serverSocket.accept();
+                context.getMetrics().accepted();
+                if (!context.getAdmission().admit(() -> new ConcentrationClientServerThread(socket, context,
+                        context.getWriters()).start(), socket)) {
+                    reject(context, socket.getOutputStream(), socket);
+                }
+            }
+        }
+    }
 
-        try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
+    /**
+     * Serve every client with its own virtual thread.  The sessions run the
+     * same blocking game loop as in thread mode.
+     *
+     * @param context the server the sessions belong to
+     * @throws IOException if the server socket can not be opened
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    private static void serveVirtual(ServerContext context) throws IOException {
+        boolean listening = true;
+        ServerOptions options = context.getOptions();
+        SessionExecutor executor = new SessionExecutor(options.getCarriers());
+        try (ServerSocket serverSocket = new ServerSocket(options.getPort())) {
             while (listening) {
-                new ConcentrationClientServerThread(serverSocket.accept(), dimension).start();
+                Socket socket = serverSocket.accept();
+                context.getMetrics().accepted();
+                if (!context.getAdmission().admit(() -> executor.execute(
+                        new ConcentrationClientServerThread(socket, context, executor::execute)), socket)) {
+                    reject(context, socket.getOutputStream(), socket);
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Could not listen on port " + portNumber);
-            System.exit(-1);
         }
+    }
+
+    /**
+     * Serve the clients from a fixed number of selector event loops.  The
+     * connections are accepted here and dealt round robin to the reactors
+     * they then stay pinned to.
+     *
+     * @param context the server the sessions belong to
+     * @throws IOException if the server socket or a selector can not be opened
+     */
+    private static void serveNio(ServerContext context) throws IOException {
+        boolean listening = true;
+        ServerOptions options = context.getOptions();
+        ConcentrationReactor[] reactors = new ConcentrationReactor[options.getReactors()];
+        for (int i = 0; i < reactors.length; ++i) {
+            reactors[i] = new ConcentrationReactor(i, context);
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(options.getPort()), 1024);
+            int next = 0;
+            while (listening) {
+                SocketChannel channel = serverChannel.accept();
+                context.getMetrics().accepted();
+                ConcentrationReactor reactor = reactors[next];
+                if (!context.getAdmission().admit(() -> reactor.register(channel), channel)) {
+                    reject(context, Channels.newOutputStream(channel), channel);
+                }
+                next = (next + 1) % reactors.length;
+            }
+        } finally {
+            for (ConcentrationReactor reactor : reactors) {
+                reactor.close();
+            }
+        }
+    }
 
+    /**
+     * Turn a client away because the server is full: tell it so in the
+     * text encoding, which every client understands before negotiating,
+     * and hang up.  A client that already went away is simply dropped.
+     *
+     * @param context the server the client connected to
+     * @param out where to tell the client
+     * @param connection the connection to close
+     */
+    private static void reject(ServerContext context, OutputStream out, Closeable connection) {
+        context.getMetrics().rejected();
+        try (connection) {
+            out.write((ConcentrationProtocol.ERROR + " Server busy\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        } catch (IOException e) {
+            // the client is gone, there is nobody left to tell
+        }
     }
 }
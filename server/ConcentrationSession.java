@@ -0,0 +1,1340 @@
+package server;
+
+import common.BinaryCodec;
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+import game.ConcentrationSolver;
+import game.GameBoard;
+import game.MappedConcentrationBoard;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server side of one connection, independent of how the client is
+ * connected.  It owns the client's boards, the first one and any opened
+ * later, and turns the bytes the client sends into the replies required by
+ * the ConcentrationProtocol, in either its text or its binary encoding.
+ * Both the blocking ConcentrationClientServerThread and the selector based
+ * ConcentrationReactor feed it bytes and hand it an Output to carry the
+ * replies back.
+ *
+ * The session also keeps its timers on the server's TimerWheel: it pings a
+ * client that went quiet, hangs up on one that stays quiet, and ends a
+ * timed game when its clock runs out.  A timer never touches the session
+ * itself; it hands its work to Output.execute.
+ *
+ * With a SessionArena the first game is kept in it, so the client can
+ * resume the game with its token on a new connection, even one to a
+ * restarted server.  With a MoveJournal every card revealed is journaled
+ * under the ID of the session.
+ *
+ * A game opened with VERSUS is played against a ConcentrationSolver, which
+ * watches every card the client reveals and takes its turn as soon as the
+ * client's turn ends.
+ *
+ * A game opened with JOIN is a seat at a SharedTable.  Its moves are
+ * queued on the table, and the table's replies come back through
+ * Output.execute, so they are encoded and sent on the session's own
+ * thread like every other reply.  WATCH follows a table as a Spectator,
+ * whose events are encoded by the table once for all its spectators.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ConcentrationSession implements ConcentrationProtocol {
+    /**
+     * how long the match status is held back by default so the player gets
+     * to see the second card, in milliseconds
+     */
+    public static final int SLEEP_TIME = 1000;
+    /** the longest line a text client may send, enough for a full REVEAL_BATCH */
+    public static final int MAX_LINE = 1024;
+    /** the start of a protocol negotiation line */
+    private static final byte[] PROTOCOL_PREFIX = (PROTOCOL + " ").getBytes(StandardCharsets.US_ASCII);
+    /** the start of a line routed to an opened game */
+    private static final byte[] GAME_PREFIX = (GAME + " ").getBytes(StandardCharsets.US_ASCII);
+    /** the start of a line resuming a game */
+    private static final byte[] RESUME_PREFIX = (RESUME + " ").getBytes(StandardCharsets.US_ASCII);
+    /** the ID of the first game, whose messages carry no game prefix */
+    private static final int FIRST_GAME = -1;
+    /** the size of the input buffer a transport keeps for the session */
+    public static final int INPUT_BUFFER = 2 * BinaryCodec.MAX_FRAME;
+    /** the most bytes of replies waiting for a client before it is taken to be gone */
+    public static final long MAX_BACKLOG = 1024 * 1024;
+
+    /**
+     * Where the session writes its replies.
+     */
+    public interface Output {
+        /**
+         * Send a message to the client.  The buffer holds one encoded
+         * message between its position and limit and may be reused by the
+         * session once this returns.
+         *
+         * @param msg the encoded message
+         */
+        void send(ByteBuffer msg);
+
+        /**
+         * Send a message to the client after a delay.  Messages sent after
+         * this one must not overtake it.  The buffer may be reused by the
+         * session once this returns.
+         *
+         * @param msg the encoded message
+         * @param millis the delay in milliseconds
+         */
+        void sendDelayed(ByteBuffer msg, long millis);
+
+        /**
+         * Run a task of one of the session's timers where it does not race
+         * with receive.  Called from the timer thread, must not block.
+         *
+         * @param task the task
+         */
+        void execute(Runnable task);
+
+        /**
+         * Close the connection once everything sent was written.  Called by
+         * a task handed to execute.
+         */
+        void finish();
+
+        /**
+         * Send messages encoded once and shared with other sessions, with a
+         * single gathering write where the transport can.  The buffers are
+         * read only views of their own, which the output may keep instead
+         * of copying them.  Called where execute runs its tasks.
+         *
+         * @param msgs the encoded messages
+         * @param count how many of them to send
+         */
+        void sendShared(ByteBuffer[] msgs, int count);
+
+        /**
+         * Get the number of bytes sent and not yet written to the client.
+         *
+         * @return the count, 0 for a transport that writes before send returns
+         */
+        long getBacklog();
+    }
+
+    /** the server the session belongs to */
+    private final ServerContext context;
+    /** where the session counts what it does */
+    private final ServerMetrics metrics;
+    /** the game the connection started with, or the one it resumed */
+    private Game first;
+    /** where the first game is kept across restarts, null if it is not */
+    private final SessionArena arena;
+    /** the slot of the first game in the arena, null if it is not kept */
+    private SessionArena.Slot slot;
+    /** where every move is journaled, null if moves are not */
+    private final MoveJournal journal;
+    /** the ID the moves of the session are journaled under */
+    private final long sessionId;
+    /** the games opened on the connection, by ID */
+    private final Map<Integer, Game> games;
+    /** the tables followed on the connection, by number */
+    private final Map<Integer, Spectator> watching;
+    /** where the replies go */
+    private final Output out;
+    /** how long the match status is held back, in milliseconds */
+    private final long revealDelay;
+    /** the buffer every reply is encoded into */
+    private final ByteBuffer reply;
+    /** the buffer the replies of a batch are gathered in before their header is known */
+    private final ByteBuffer batch;
+    /** the buffer a reply of an opened game is given its game prefix in */
+    private final ByteBuffer routed;
+    /** the numeric arguments of the last message parsed */
+    private final int[] args;
+    /** runs the idle timeout, the heartbeat and the game clocks */
+    private final TimerWheel timers;
+    /** how long the client may stay quiet before it is hung up on, in nanoseconds, 0 for ever */
+    private final long idleTimeout;
+    /** how long the client may stay quiet before it is pinged, in nanoseconds, 0 to never ping */
+    private final long heartbeat;
+    /** how long a game may last, in milliseconds, 0 for no limit */
+    private final long timeLimit;
+    /** whether the client switched to the binary encoding */
+    private boolean binary;
+    /** whether the client sent anything but the protocol negotiation yet */
+    private boolean started;
+    /** the opcode of the message being handled, negative if it is not valid */
+    private int op;
+    /** whether the session was closed */
+    private boolean closed;
+    /** when the client last sent anything, in System.nanoTime() units */
+    private long lastActive;
+    /** when the client was last pinged, in System.nanoTime() units */
+    private long lastPing;
+    /** the timer of the next idle or heartbeat check, null if there is none */
+    private TimerWheel.Timeout watch;
+
+    /**
+     * Create the session and deal its first board.
+     *
+     * @param context the server the session belongs to
+     * @param out where the replies go
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public ConcentrationSession(ServerContext context, Output out) throws ConcentrationException {
+        this.context = context;
+        this.metrics = context.getMetrics();
+        this.out = out;
+        this.revealDelay = context.getOptions().getRevealDelay();
+        this.reply = ByteBuffer.allocate(BinaryCodec.MAX_FRAME + 8);
+        this.batch = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+        this.routed = ByteBuffer.allocate(BinaryCodec.MAX_FRAME + 16);
+        this.args = new int[1 + 2 * MAX_BATCH];
+        this.games = new HashMap<>();
+        this.watching = new HashMap<>();
+        ServerOptions options = context.getOptions();
+        this.timers = context.getTimers();
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(options.getIdleTimeout());
+        this.heartbeat = TimeUnit.MILLISECONDS.toNanos(options.getHeartbeat());
+        this.timeLimit = options.getTimeLimit();
+        this.lastActive = System.nanoTime();
+        this.lastPing = this.lastActive;
+        this.arena = context.getArena();
+        this.journal = context.getJournal();
+        this.sessionId = context.nextSessionId();
+        this.slot = context.openSlot(this.sessionId);
+        this.first = new Game(FIRST_GAME,
+                this.slot != null ? this.slot.getBoard() : context.newBoard(this.sessionId));
+        this.metrics.sessionOpened();
+    }
+
+    /**
+     * Get the ID of the session, which its moves are journaled and its
+     * events logged under.
+     *
+     * @return the ID
+     */
+    public long getId() {
+        return this.sessionId;
+    }
+
+    /**
+     * Start the game by telling the client the board dimension, and the
+     * token to resume it with if it is kept.
+     */
+    public void open() {
+        this.first.open();
+        if (this.slot != null) {
+            sendLine(SESSION + " " + this.slot.getToken());
+        }
+        watch();
+    }
+
+    /**
+     * End the session once its connection is closed, cancelling its
+     * timers.  Safe to call more than once.
+     */
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.metrics.sessionClosed();
+            if (this.watch != null) {
+                this.watch.cancel();
+            }
+            this.first.stopClock();
+            for (Game game : this.games.values()) {
+                game.discard();
+            }
+            for (Spectator spectator : this.watching.values()) {
+                spectator.close();
+            }
+            if (this.slot != null) {
+                this.arena.detach(this.slot);
+                this.slot = null;
+            }
+        }
+    }
+
+    /**
+     * Free the slot of the first game once it is over, so it can not be
+     * resumed.
+     */
+    private void freeSlot() {
+        if (this.slot != null) {
+            this.arena.free(this.slot);
+            this.slot = null;
+        }
+    }
+
+    /**
+     * Swap the first game for a kept game the client comes back to, and
+     * show the client its board again.
+     *
+     * @param token the token of the game
+     */
+    private void resume(String token) {
+        SessionArena.Slot resumed = this.arena == null ? null : this.arena.resume(token);
+        if (resumed == null) {
+            sendError("Unknown session");
+            return;
+        }
+        this.started = true;
+        freeSlot();
+        this.first.stopClock();
+        this.slot = resumed;
+        this.first = new Game(FIRST_GAME, resumed.getBoard());
+        this.first.resume(resumed.getBoard());
+    }
+
+    /**
+     * Arm the timer of the next idle or heartbeat check, if either is on.
+     * The timer is only armed once per check rather than on every message:
+     * a message merely updates lastActive, and a check that comes too early
+     * arms the next one.
+     */
+    private void watch() {
+        long next = Long.MAX_VALUE;
+        if (this.idleTimeout > 0) {
+            next = this.lastActive + this.idleTimeout;
+        }
+        if (this.heartbeat > 0) {
+            next = Math.min(next, Math.max(this.lastActive, this.lastPing) + this.heartbeat);
+        }
+        if (next != Long.MAX_VALUE) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, next - System.nanoTime()));
+            this.watch = this.timers.arm(millis, () -> this.out.execute(this::checkIdle));
+        }
+    }
+
+    /**
+     * Hang up on a client that stayed quiet too long, ping one that went
+     * quiet, and arm the next check.
+     */
+    private void checkIdle() {
+        if (this.closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (this.idleTimeout > 0 && now - this.lastActive >= this.idleTimeout) {
+            this.metrics.idleClosed();
+            this.reply.clear();
+            putError(this.reply, "Idle timeout");
+            this.out.send(this.reply.flip());
+            this.out.finish();
+            return;
+        }
+        if (this.heartbeat > 0 && now - Math.max(this.lastActive, this.lastPing) >= this.heartbeat) {
+            this.lastPing = now;
+            this.reply.clear();
+            putEmpty(this.reply, OP_PING);
+            this.out.send(this.reply.flip());
+        }
+        watch();
+    }
+
+    /**
+     * Handle every complete message in the bytes received from the client.
+     * The bytes of an incomplete message are left in the buffer for the
+     * caller to keep until more arrive.
+     *
+     * @param in the received bytes, between position and limit
+     * @return true when the first game is over, or the client broke the
+     *     protocol, and the connection should be closed
+     */
+    public boolean receive(ByteBuffer in) {
+        this.lastActive = System.nanoTime();
+        while (in.hasRemaining()) {
+            if (this.binary) {
+                int length;
+                try {
+                    length = BinaryCodec.nextFrame(in);
+                } catch (ConcentrationException ce) {
+                    sendError(ce.getMessage());
+                    return true;
+                }
+                if (length < 0) {
+                    return false;
+                }
+                int limit = in.limit();
+                int end = in.position() + length;
+                boolean finished;
+                long begin = System.nanoTime();
+                this.op = ProtocolCodec.UNKNOWN;
+                in.limit(end);
+                try {
+                    finished = handleFrame(in);
+                } catch (BufferUnderflowException e) {
+                    sendError("Invalid Arguments");
+                    finished = false;
+                }
+                this.metrics.message(this.op, System.nanoTime() - begin);
+                in.limit(limit);
+                in.position(end);
+                if (finished) {
+                    return true;
+                }
+            } else {
+                int start = in.position();
+                int end = start;
+                while (end < in.limit() && in.get(end) != '\n') {
+                    ++end;
+                }
+                if (end == in.limit()) {
+                    if (end - start >= MAX_LINE) {
+                        sendError("Line too long");
+                        return true;
+                    }
+                    return false;
+                }
+                in.position(end + 1);
+                if (end > start && in.get(end - 1) == '\r') {
+                    --end;
+                }
+                long begin = System.nanoTime();
+                this.op = ProtocolCodec.UNKNOWN;
+                boolean finished = handleLine(in, start, end);
+                this.metrics.message(this.op, System.nanoTime() - begin);
+                if (finished) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handle one line received from a text client.  The line is parsed in
+     * place, without being turned into a string.
+     *
+     * @param in the buffer holding the line
+     * @param start where the line starts
+     * @param end where the line ends, excluding its terminator
+     * @return true when the first game is over and the connection should be closed
+     */
+    private boolean handleLine(ByteBuffer in, int start, int end) {
+        if (!this.started && ProtocolCodec.startsWith(in, start, end, PROTOCOL_PREFIX)) {
+            negotiate(text(in, start + PROTOCOL_PREFIX.length, end));
+            return false;
+        } else if (!this.started && ProtocolCodec.startsWith(in, start, end, RESUME_PREFIX)) {
+            this.op = OP_RESUME;
+            resume(text(in, start + RESUME_PREFIX.length, end));
+            return false;
+        }
+        this.started = true;
+        Game game = this.first;
+        if (ProtocolCodec.startsWith(in, start, end, GAME_PREFIX)) {
+            start = ProtocolCodec.parseGame(in, start, end, this.args);
+            if (start == ProtocolCodec.BAD_NUMBER) {
+                sendError("Invalid Game");
+                return false;
+            } else if (start < 0) {
+                sendError("Invalid Arguments");
+                return false;
+            }
+            game = findGame(this.args[0]);
+            if (game == null) {
+                return false;
+            }
+        }
+        this.op = ProtocolCodec.parse(in, start, end, this.args);
+        if (this.op == ProtocolCodec.BAD_NUMBER) {
+            game.sendError("Invalid Coordinates");
+            return false;
+        }
+        return dispatch(game, this.op);
+    }
+
+    /**
+     * Get the free text of a line.
+     *
+     * @param in the buffer holding the line
+     * @param start where the text starts
+     * @param end where the line ends, excluding its terminator
+     * @return the text
+     */
+    private static String text(ByteBuffer in, int start, int end) {
+        StringBuilder text = new StringBuilder();
+        for (int i = start; i < end; ++i) {
+            text.append((char) (in.get(i) & 0xff));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Switch to the encoding the client asked for.  Only allowed before
+     * the first move.
+     *
+     * @param protocol the name of the encoding
+     */
+    private void negotiate(String protocol) {
+        if (BINARY.equals(protocol)) {
+            sendLine(PROTOCOL_BINARY_MSG);
+            this.binary = true;
+        } else {
+            sendError("Unsupported protocol " + protocol);
+        }
+    }
+
+    /**
+     * Handle one frame received from a binary client.  The length prefix
+     * was already consumed, the buffer is at the opcode and its limit is
+     * the end of the frame.  The arguments are decoded into args the same
+     * way a text line is parsed.
+     *
+     * @param in the buffer holding the frame
+     * @return true when the first game is over and the connection should be closed
+     */
+    private boolean handleFrame(ByteBuffer in) {
+        Game game = this.first;
+        byte op = in.get();
+        if (op == OP_RESUME && !this.started) {
+            this.op = op;
+            resume(BinaryCodec.getText(in, in.remaining() + 1));
+            return false;
+        }
+        this.started = true;
+        if (op == OP_GAME) {
+            int id = BinaryCodec.getNumber(in);
+            if (id < 0) {
+                sendError("Invalid Game");
+                return false;
+            }
+            game = findGame(id);
+            if (game == null) {
+                return false;
+            }
+            op = in.get();
+        }
+        this.op = op;
+        if (op == OP_REVEAL) {
+            if (!game.toCoords(BinaryCodec.getNumber(in), 0)) {
+                return false;
+            }
+        } else if (op == OP_REVEAL_BATCH) {
+            int count = BinaryCodec.getNumber(in);
+            if (count < 1 || count > MAX_BATCH) {
+                game.sendError("Invalid Arguments");
+                return false;
+            }
+            this.args[0] = count;
+            for (int i = 0; i < count; ++i) {
+                if (!game.toCoords(BinaryCodec.getNumber(in), 1 + 2 * i)) {
+                    return false;
+                }
+            }
+        } else if (op == OP_OPEN || op == OP_VERSUS) {
+            if (!getNumbers(game, in, 2)) {
+                return false;
+            }
+        } else if (op == OP_JOIN) {
+            if (!getNumbers(game, in, 3)) {
+                return false;
+            }
+        } else if (op == OP_CLOSE || op == OP_WATCH) {
+            if (!getNumbers(game, in, 1)) {
+                return false;
+            }
+        }
+        return dispatch(game, op);
+    }
+
+    /**
+     * Decode the numbers of a frame into args, refusing the ones a text
+     * line could not hold just as handleLine does, so a negative ID never
+     * reaches dispatch and is never taken for FIRST_GAME.
+     *
+     * @param game the game the frame was routed to, told if a number is invalid
+     * @param in the buffer holding the frame
+     * @param count the number of numbers
+     * @return whether every number is valid
+     */
+    private boolean getNumbers(Game game, ByteBuffer in, int count) {
+        for (int i = 0; i < count; ++i) {
+            this.args[i] = BinaryCodec.getNumber(in);
+            if (this.args[i] < 0) {
+                game.sendError("Invalid Coordinates");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Carry out a parsed message.
+     *
+     * @param game the game the message was routed to
+     * @param op the opcode of the message, its arguments are in args
+     * @return true when the first game is over and the connection should be closed
+     */
+    private boolean dispatch(Game game, int op) {
+        if ((op == OP_REVEAL || op == OP_REVEAL_BATCH) && game.over) {
+            game.sendError("Game over");
+        } else if (op == OP_REVEAL && game.serverBoard == null) {
+            if (game.table == null) {
+                game.sendError("Waiting for a seat");
+            } else {
+                game.table.reveal(game, this.args[0], this.args[1]);
+            }
+        } else if (op == OP_REVEAL_BATCH && game.serverBoard == null) {
+            game.sendError("No batches at a table");
+        } else if (op == OP_REVEAL) {
+            return game.end(game.reveal(this.args[0], this.args[1]));
+        } else if (op == OP_REVEAL_BATCH) {
+            return game.end(game.revealBatch(this.args[0]));
+        } else if ((op == OP_OPEN || op == OP_VERSUS) && game == this.first) {
+            openGame(this.args[0], this.args[1], op == OP_VERSUS);
+        } else if (op == OP_JOIN && game == this.first) {
+            joinTable(this.args[0], this.args[1], this.args[2]);
+        } else if (op == OP_WATCH && game == this.first) {
+            watchTable(this.args[0]);
+        } else if (op == OP_CLOSE && game == this.first) {
+            Game closing = this.games.remove(this.args[0]);
+            Spectator unwatched = closing == null ? this.watching.remove(this.args[0]) : null;
+            if (closing != null) {
+                closing.discard();
+            } else if (unwatched != null) {
+                unwatched.close();
+            } else {
+                sendError("Unknown game " + this.args[0]);
+            }
+        } else if (op == OP_STATS && game == this.first) {
+            sendStats();
+        } else if (op == OP_PING && game == this.first) {
+            this.reply.clear();
+            putEmpty(this.reply, OP_PONG);
+            this.out.send(this.reply.flip());
+        } else if (op == OP_PONG && game == this.first) {
+            // the client is alive, which receiving it already noted
+        } else {
+            game.sendError("Invalid Arguments");
+        }
+        return false;
+    }
+
+    /**
+     * Deal the board of a new game and send its dimension.
+     *
+     * @param id the ID the client picked for the game
+     * @param dim the square dimension of the board
+     * @param versus whether the server's player takes turns with the client
+     */
+    private void openGame(int id, int dim, boolean versus) {
+        if (this.games.containsKey(id) || this.watching.containsKey(id)) {
+            sendError("Game already open " + id);
+        } else if (this.games.size() + this.watching.size() >= MAX_GAMES) {
+            sendError("Too many games");
+        } else {
+            try {
+                Game game = new Game(id, this.context.newBoard(this.sessionId, dim, false));
+                if (versus) {
+                    game.opponent = new ConcentrationSolver();
+                    game.opponent.reset(dim);
+                }
+                this.games.put(id, game);
+                game.open();
+            } catch (ConcentrationException ce) {
+                sendError(ce.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Join a shared table under a game ID.  The table answers once it got
+     * to the request, and only then is the board dimension sent.
+     *
+     * @param id the ID the client picked for the game
+     * @param number the number of the table
+     * @param dim the square dimension of its board
+     */
+    private void joinTable(int id, int number, int dim) {
+        if (this.games.containsKey(id) || this.watching.containsKey(id)) {
+            sendError("Game already open " + id);
+        } else if (this.games.size() + this.watching.size() >= MAX_GAMES) {
+            sendError("Too many games");
+        } else {
+            Game game = new Game(id, dim);
+            this.games.put(id, game);
+            try {
+                this.context.joinTable(number, dim, game);
+            } catch (ConcentrationException ce) {
+                this.games.remove(id);
+                sendError(ce.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Follow a shared table, routed as the game numbered like the table.
+     * Served in every mode: a slow spectator only backs up its own Output,
+     * which it stops feeding once its backlog passes Spectator.MAX_BACKLOG.
+     *
+     * @param number the number of the table
+     */
+    private void watchTable(int number) {
+        SharedTable table = this.context.findTable(number);
+        if (this.games.containsKey(number) || this.watching.containsKey(number)) {
+            sendError("Game already open " + number);
+        } else if (this.games.size() + this.watching.size() >= MAX_GAMES) {
+            sendError("Too many games");
+        } else if (table == null) {
+            sendError("Unknown table " + number);
+        } else {
+            // a spectator closed by CLOSE never ends, so the one ending is still the one watching
+            Spectator spectator = new Spectator(table, this.binary, this.out, this.timers,
+                    () -> this.watching.remove(number));
+            this.watching.put(number, spectator);
+            table.watch(spectator);
+        }
+    }
+
+    /**
+     * Look up an opened game, telling the client if there is none.
+     *
+     * @param id the ID of the game
+     * @return the game, or null if it is not open
+     */
+    private Game findGame(int id) {
+        Game game = this.games.get(id);
+        if (game == null) {
+            sendError("Unknown game " + id);
+        }
+        return game;
+    }
+
+    /**
+     * One board played over the connection, with the replies it sends.
+     * The board of a seat at a shared table belongs to the table.
+     */
+    private class Game implements SharedTable.Seat {
+        /** the ID the client picked, FIRST_GAME for the first game */
+        private final int id;
+        /** instance of server side game board, null at a shared table */
+        private final GameBoard serverBoard;
+        /** the square dimension of the board */
+        private final int dim;
+        /** encodes the text replies for the size of this board */
+        private final ProtocolCodec codec;
+        /** when the game was dealt, in System.nanoTime() units */
+        private final long dealt;
+        /** the number of cards revealed so far */
+        private int moves;
+        /** whether the game is over, won or out of time */
+        private boolean over;
+        /** whether the game was resumed, so its first move here is not its first move */
+        private boolean resumed;
+        /** the clock of a timed game, null if the game is not timed */
+        private TimerWheel.Timeout clock;
+        /** the server's player of a VERSUS game, null if the client plays alone */
+        private ConcentrationSolver opponent;
+        /** the shared table the game is played at, null until it seated the client, set by the table's thread */
+        private volatile SharedTable table;
+        /** whether the game was discarded, read by the table's thread */
+        private volatile boolean discarded;
+        /** the seat at the table, -1 until the table seated the client */
+        private int seat;
+
+        /**
+         * Create the game.
+         *
+         * @param id the ID of the game
+         * @param serverBoard its board
+         */
+        private Game(int id, GameBoard serverBoard) {
+            this.id = id;
+            this.serverBoard = serverBoard;
+            this.dim = serverBoard.getDIM();
+            this.codec = ProtocolCodec.forDim(this.dim);
+            this.dealt = System.nanoTime();
+            this.seat = -1;
+        }
+
+        /**
+         * Create a seat at a shared table, which the table has not taken
+         * yet.
+         *
+         * @param id the ID of the game
+         * @param dim the square dimension of the board of the table
+         */
+        private Game(int id, int dim) {
+            this.id = id;
+            this.serverBoard = null;
+            this.dim = dim;
+            this.codec = ProtocolCodec.forDim(dim);
+            this.dealt = System.nanoTime();
+            this.seat = -1;
+        }
+
+        /**
+         * Tell the client the board dimension, and start the clock if
+         * games are timed.  The first game always does so in text, before
+         * the encoding is negotiated.
+         */
+        private void open() {
+            reply.clear();
+            if (binary) {
+                BinaryCodec.putBoardDim(reply, this.dim);
+            } else {
+                this.codec.putBoardDim(reply);
+            }
+            send(reply.flip(), 0);
+            startClock();
+        }
+
+        /**
+         * Show the board of a resumed game again: a BATCH of its BOARD_DIM
+         * and a CARD for every card face up, the pending first card of a
+         * pair included.  A timed game gets a fresh clock.
+         *
+         * @param board the board, whose state was kept in the arena
+         */
+        private void resume(MappedConcentrationBoard board) {
+            this.resumed = true;
+            int replies = 1;
+            batch.clear();
+            if (binary) {
+                BinaryCodec.putBoardDim(batch, this.dim);
+            } else {
+                this.codec.putBoardDim(batch);
+            }
+            for (int cell = 0; cell < this.dim * this.dim; ++cell) {
+                int pair = board.getFaceUpPair(cell);
+                if (pair >= 0) {
+                    if (binary) {
+                        BinaryCodec.putCard(batch, cell, pair);
+                    } else {
+                        this.codec.putCard(batch, cell / this.dim, cell % this.dim, pair);
+                    }
+                    ++replies;
+                }
+            }
+            batch.flip();
+            reply.clear();
+            if (binary) {
+                BinaryCodec.putBatch(reply, replies, batch);
+            } else {
+                ProtocolCodec.putBatch(reply, replies);
+                reply.put(batch);
+            }
+            send(reply.flip(), 0);
+            startClock();
+        }
+
+        /**
+         * Start the clock of the game if games are timed.
+         */
+        private void startClock() {
+            if (timeLimit > 0 && this.serverBoard != null) {
+                this.clock = timers.arm(timeLimit, () -> out.execute(this::timeUp));
+            }
+        }
+
+        /**
+         * Stop the clock of the game, if it has one.
+         */
+        private void stopClock() {
+            if (this.clock != null) {
+                this.clock.cancel();
+            }
+        }
+
+        /**
+         * Let go of the game when it is closed or the connection is: stop
+         * its clock and leave its table, or the table it is about to sit at.
+         */
+        private void discard() {
+            stopClock();
+            this.discarded = true;
+            SharedTable seated = this.table;
+            if (seated != null) {
+                seated.leave(this);
+            }
+        }
+
+        /**
+         * Run the reply to an event of the table on the session's own
+         * thread, unless the game was discarded since.
+         *
+         * @param task the reply
+         */
+        private void fromTable(Runnable task) {
+            out.execute(() -> {
+                if (!closed && games.get(this.id) == this) {
+                    task.run();
+                }
+            });
+        }
+
+        @Override
+        public void seated(SharedTable table, int seat) {
+            // a game discarded while the table got to it leaves here, or in discard if that comes later
+            this.table = table;
+            if (this.discarded) {
+                table.leave(this);
+                return;
+            }
+            fromTable(() -> {
+                this.seat = seat;
+                open();
+                reply.clear();
+                if (binary) {
+                    BinaryCodec.putSeat(reply, OP_SEAT, seat);
+                } else {
+                    ProtocolCodec.putSeat(reply, OP_SEAT, seat);
+                }
+                send(reply.flip(), 0);
+            });
+        }
+
+        @Override
+        public void card(int cell, int pair) {
+            fromTable(() -> {
+                reply.clear();
+                if (binary) {
+                    BinaryCodec.putCard(reply, cell, pair);
+                } else {
+                    this.codec.putCard(reply, cell / this.dim, cell % this.dim, pair);
+                }
+                send(reply.flip(), 0);
+            });
+        }
+
+        @Override
+        public void pair(int firstCell, int cell, boolean match) {
+            fromTable(() -> {
+                reply.clear();
+                if (binary) {
+                    BinaryCodec.putMatch(reply, match, firstCell, cell);
+                } else {
+                    this.codec.putMatch(reply, match, firstCell / this.dim, firstCell % this.dim,
+                            cell / this.dim, cell % this.dim);
+                }
+                send(reply.flip(), revealDelay);
+            });
+        }
+
+        @Override
+        public void turn(int seat) {
+            fromTable(() -> {
+                reply.clear();
+                if (binary) {
+                    BinaryCodec.putSeat(reply, OP_TURN, seat);
+                } else {
+                    ProtocolCodec.putSeat(reply, OP_TURN, seat);
+                }
+                send(reply.flip(), 0);
+            });
+        }
+
+        @Override
+        public void gameOver() {
+            fromTable(() -> {
+                this.over = true;
+                games.remove(this.id);
+                reply.clear();
+                putGameOver(reply);
+                send(reply.flip(), 0);
+            });
+        }
+
+        @Override
+        public void error(String msg) {
+            fromTable(() -> {
+                if (this.seat < 0) {
+                    games.remove(this.id);
+                    ConcentrationSession.this.sendError(msg);
+                } else {
+                    sendError(msg);
+                }
+            });
+        }
+
+        /**
+         * End the game when its clock runs out, unless it ended already.
+         * The first game running out of time ends the connection, unless
+         * the client still plays games it opened.
+         */
+        private void timeUp() {
+            if (closed || this.over || (this.id != FIRST_GAME && games.get(this.id) != this)) {
+                return;
+            }
+            this.over = true;
+            metrics.timeUp();
+            reply.clear();
+            putEmpty(reply, OP_TIME_UP);
+            send(reply.flip(), 0);
+            if (this.id == FIRST_GAME) {
+                freeSlot();
+                if (games.isEmpty()) {
+                    out.finish();
+                }
+            } else {
+                games.remove(this.id);
+            }
+        }
+
+        /**
+         * Unpack a cell into coordinates in args, telling the client if it
+         * is not on the board.
+         *
+         * @param cell the cell
+         * @param index where the row goes in args, the column follows it
+         * @return whether the cell is on the board
+         */
+        private boolean toCoords(int cell, int index) {
+            if (cell < 0 || cell >= this.dim * this.dim) {
+                sendError("Invalid Coordinates");
+                return false;
+            }
+            args[index] = cell / this.dim;
+            args[index + 1] = cell % this.dim;
+            return true;
+        }
+
+        /**
+         * Handle the end of a move.  An opened game that is over is
+         * discarded; the first game ends the connection.
+         *
+         * @param over whether the game is over
+         * @return true when the connection should be closed
+         */
+        private boolean end(boolean over) {
+            if (over) {
+                this.over = true;
+                stopClock();
+                metrics.gameOver(System.nanoTime() - this.dealt, this.moves);
+                if (this.id == FIRST_GAME) {
+                    freeSlot();
+                }
+            }
+            if (over && this.id != FIRST_GAME) {
+                games.remove(this.id);
+                return false;
+            }
+            return over;
+        }
+
+        /**
+         * Reveal a card and send the CARD, MATCH or MISMATCH and GAME_OVER
+         * replies it calls for, in the encoding the client uses.
+         *
+         * @param row the row of the card
+         * @param col the column of the card
+         * @return true when the game is over
+         */
+        private boolean reveal(int row, int col) {
+            try {
+                int outcome = flip(row, col);
+                reply.clear();
+                putCard(reply, row, col);
+                send(reply.flip(), 0);
+                if (outcome != GameBoard.REVEALED_FIRST) {
+                    reply.clear();
+                    putStatus(reply, outcome == GameBoard.MATCHED, row, col);
+                    send(reply.flip(), revealDelay);
+                }
+                if (outcome == GameBoard.MISMATCHED && this.opponent != null) {
+                    return opponentTurn();
+                }
+                if (this.serverBoard.gameOver()) {
+                    reply.clear();
+                    putGameOver(reply);
+                    send(reply.flip(), 0);
+                    return true;
+                }
+            } catch (ConcentrationException ce) {
+                sendError(ce.getMessage());
+            }
+            return false;
+        }
+
+        /**
+         * Reveal the cards of a REVEAL_BATCH in order and send all their
+         * replies as a single BATCH message, without the reveal delay.  The
+         * batch stops at the first card that can not be revealed, whose
+         * ERROR ends the reply, and in a VERSUS game at the end of the
+         * client's turn, which the server's turn follows.
+         *
+         * @param count the number of cards, whose coordinates follow the
+         *     count in args
+         * @return true when the game is over
+         */
+        private boolean revealBatch(int count) {
+            if (count < 1 || count > MAX_BATCH) {
+                sendError("Invalid Arguments");
+                return false;
+            }
+            boolean finished = false;
+            boolean turnOver = false;
+            int replies = 0;
+            batch.clear();
+            for (int i = 0; i < count && !finished && !turnOver; ++i) {
+                int row = args[1 + 2 * i];
+                int col = args[2 + 2 * i];
+                try {
+                    int outcome = flip(row, col);
+                    putCard(batch, row, col);
+                    ++replies;
+                    if (outcome != GameBoard.REVEALED_FIRST) {
+                        putStatus(batch, outcome == GameBoard.MATCHED, row, col);
+                        ++replies;
+                    }
+                    if (this.serverBoard.gameOver()) {
+                        putGameOver(batch);
+                        ++replies;
+                        finished = true;
+                    } else if (outcome == GameBoard.MISMATCHED && this.opponent != null) {
+                        turnOver = true;
+                    }
+                } catch (ConcentrationException ce) {
+                    metrics.error();
+                    putError(batch, ce.getMessage());
+                    ++replies;
+                    break;
+                }
+            }
+            batch.flip();
+            reply.clear();
+            if (binary) {
+                BinaryCodec.putBatch(reply, replies, batch);
+            } else {
+                ProtocolCodec.putBatch(reply, replies);
+                reply.put(batch);
+            }
+            send(reply.flip(), 0);
+            return turnOver ? opponentTurn() : finished;
+        }
+
+        /**
+         * Reveal a card, count it, journal it and show it to the server's
+         * player, if any.
+         *
+         * @param row the row of the card
+         * @param col the column of the card
+         * @return REVEALED_FIRST, MATCHED or MISMATCHED
+         * @throws ConcentrationException if the card can not be revealed
+         */
+        private int flip(int row, int col) throws ConcentrationException {
+            int outcome = this.serverBoard.flip(row, col);
+            ++this.moves;
+            metrics.move();
+            journal(row, col, outcome);
+            if (this.opponent != null) {
+                int cell = row * this.dim + col;
+                this.opponent.onCard(cell, this.serverBoard.getLastPair());
+                if (outcome != GameBoard.REVEALED_FIRST) {
+                    int firstCell = this.serverBoard.getFirstRow() * this.dim + this.serverBoard.getFirstCol();
+                    this.opponent.onPair(firstCell, cell, outcome == GameBoard.MATCHED);
+                }
+            }
+            return outcome;
+        }
+
+        /**
+         * Play the turn of the server's player, which lasts until a pair
+         * does not match or the game is over.  Its cards are held back one
+         * reveal delay apart, so the client sees them turned over one by
+         * one after its own MISMATCH.
+         *
+         * @return true when the game is over
+         */
+        private boolean opponentTurn() {
+            long delay = revealDelay;
+            try {
+                while (!this.serverBoard.gameOver()) {
+                    int cell = this.opponent.nextCell();
+                    int row = cell / this.dim;
+                    int col = cell % this.dim;
+                    int outcome = flip(row, col);
+                    reply.clear();
+                    putCard(reply, row, col);
+                    send(reply.flip(), delay);
+                    delay += revealDelay;
+                    if (outcome != GameBoard.REVEALED_FIRST) {
+                        reply.clear();
+                        putStatus(reply, outcome == GameBoard.MATCHED, row, col);
+                        send(reply.flip(), delay);
+                    }
+                    if (outcome == GameBoard.MISMATCHED) {
+                        return false;
+                    }
+                }
+            } catch (ConcentrationException ce) {
+                // the solver only picks cards it has not seen matched, which the board always reveals
+                throw new IllegalStateException(ce);
+            }
+            reply.clear();
+            putGameOver(reply);
+            send(reply.flip(), 0);
+            return true;
+        }
+
+        /**
+         * Journal a card the board just revealed, if moves are journaled.
+         *
+         * @param row the row of the card
+         * @param col the column of the card
+         * @param outcome what the reveal did
+         */
+        private void journal(int row, int col, int outcome) {
+            if (journal != null) {
+                int flags = (this.moves == 1 && !this.resumed ? MoveJournal.FLAG_FIRST_MOVE : 0)
+                        | (this.serverBoard.gameOver() ? MoveJournal.FLAG_GAME_OVER : 0);
+                journal.append(sessionId, this.serverBoard.getSeed(), this.dim, row * this.dim + col, outcome, flags);
+            }
+        }
+
+        /**
+         * Encode the CARD reply to the card the board just revealed.
+         *
+         * @param buf the buffer to write to
+         * @param row the row of the card
+         * @param col the column of the card
+         */
+        private void putCard(ByteBuffer buf, int row, int col) {
+            int pair = this.serverBoard.getLastPair();
+            if (binary) {
+                BinaryCodec.putCard(buf, BinaryCodec.cell(row, col, this.dim), pair);
+            } else {
+                this.codec.putCard(buf, row, col, pair);
+            }
+        }
+
+        /**
+         * Encode the MATCH or MISMATCH reply to the pair the board just
+         * completed.
+         *
+         * @param buf the buffer to write to
+         * @param match whether the cards match
+         * @param row the row of the second card
+         * @param col the column of the second card
+         */
+        private void putStatus(ByteBuffer buf, boolean match, int row, int col) {
+            int firstRow = this.serverBoard.getFirstRow();
+            int firstCol = this.serverBoard.getFirstCol();
+            if (binary) {
+                BinaryCodec.putMatch(buf, match,
+                        BinaryCodec.cell(firstRow, firstCol, this.dim), BinaryCodec.cell(row, col, this.dim));
+            } else {
+                this.codec.putMatch(buf, match, firstRow, firstCol, row, col);
+            }
+        }
+
+        /**
+         * Send an error about this game.
+         *
+         * @param msg the error message
+         */
+        private void sendError(String msg) {
+            metrics.error();
+            reply.clear();
+            putError(reply, msg);
+            send(reply.flip(), 0);
+        }
+
+        /**
+         * Send a reply of this game, with its game prefix unless it is the
+         * first game.
+         *
+         * @param msg the encoded reply
+         * @param delay how long to hold it back, in milliseconds
+         */
+        private void send(ByteBuffer msg, long delay) {
+            if (this.id != FIRST_GAME) {
+                routed.clear();
+                if (binary) {
+                    BinaryCodec.putGame(routed, this.id, msg);
+                } else {
+                    ProtocolCodec.putGame(routed, this.id);
+                    routed.put(msg);
+                }
+                msg = routed.flip();
+            }
+            if (delay > 0) {
+                out.sendDelayed(msg, delay);
+            } else {
+                out.send(msg);
+            }
+        }
+    }
+
+    /**
+     * Encode the GAME_OVER reply.
+     *
+     * @param buf the buffer to write to
+     */
+    private void putGameOver(ByteBuffer buf) {
+        if (this.binary) {
+            BinaryCodec.putGameOver(buf);
+        } else {
+            ProtocolCodec.putGameOver(buf);
+        }
+    }
+
+    /**
+     * Encode a message without arguments, e.g. PING, in the encoding the
+     * client uses.
+     *
+     * @param buf the buffer to write to
+     * @param op the opcode of the message
+     */
+    private void putEmpty(ByteBuffer buf, byte op) {
+        if (this.binary) {
+            BinaryCodec.putEmpty(buf, op);
+        } else {
+            ProtocolCodec.putEmpty(buf, op);
+        }
+    }
+
+    /**
+     * Encode an error in the encoding the client uses.
+     *
+     * @param buf the buffer to write to
+     * @param msg the error message
+     */
+    private void putError(ByteBuffer buf, String msg) {
+        if (this.binary) {
+            BinaryCodec.putError(buf, msg);
+        } else {
+            ProtocolCodec.putError(buf, msg);
+        }
+    }
+
+    /**
+     * Send a text line.
+     *
+     * @param line the protocol message without its terminator
+     */
+    private void sendLine(String line) {
+        this.reply.clear();
+        ProtocolCodec.putLine(this.reply, line);
+        this.out.send(this.reply.flip());
+    }
+
+    /**
+     * Send the server statistics in the encoding the client uses.
+     */
+    private void sendStats() {
+        String stats = this.metrics.getSummary();
+        this.reply.clear();
+        if (this.binary) {
+            BinaryCodec.putStats(this.reply, stats);
+        } else {
+            ProtocolCodec.putLine(this.reply, STATS + " " + stats);
+        }
+        this.out.send(this.reply.flip());
+    }
+
+    /**
+     * Send an error in the encoding the client uses.
+     *
+     * @param msg the error message
+     */
+    private void sendError(String msg) {
+        this.metrics.error();
+        this.reply.clear();
+        putError(this.reply, msg);
+        this.out.send(this.reply.flip());
+    }
+}
@@ -0,0 +1,338 @@
+package server;
+
+import common.AsyncLog;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An append-only binary journal of every card revealed on the server and
+ * its outcome.  The sessions hand their records to a ring buffer, which a
+ * single writer thread drains into the journal files in large batches,
+ * forcing them to disk at most every 10 ms rather than once per move.  An append
+ * claims a slot with one atomic increment and copies four longs into it, so
+ * it costs a session next to nothing and never waits for the disk, unless
+ * the writer falls a whole ring behind.
+ *
+ * The journal is a directory of files named moves-&lt;start&gt;-&lt;n&gt;.journal,
+ * a new one started every ROLL_BYTES.  A file is a HEADER followed by
+ * records of RECORD bytes, big endian.  The header holds:
+ * <pre>
+ *     0  int    MAGIC
+ *     4  short  VERSION
+ *     6  short  RECORD
+ *     8  long   when the server started, which the session IDs are unique for
+ * </pre>
+ * and every record:
+ * <pre>
+ *     0  long   the ID of the session
+ *     8  long   when the card was revealed, in nanoseconds since the epoch
+ *     16 long   the seed of the board, see BoardReplay
+ *     24 int    the cell of the card, row * dim + col
+ *     28 short  the dimension of the board
+ *     30 byte   the outcome, GameBoard.REVEALED_FIRST, MATCHED or MISMATCHED
+ *     31 byte   FLAG_FIRST_MOVE and FLAG_GAME_OVER
+ * </pre>
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class MoveJournal implements Runnable {
+    /** marks a journal file, "CJNL" */
+    public static final int MAGIC = 0x434a4e4c;
+    /** the version of the record layout */
+    public static final int VERSION = 1;
+    /** the size of the file header */
+    public static final int HEADER = 16;
+    /** the size of a record */
+    public static final int RECORD = 32;
+    /** where the session ID is in a record */
+    public static final int SESSION_OFFSET = 0;
+    /** where the time is in a record */
+    public static final int TIME_OFFSET = 8;
+    /** where the seed is in a record */
+    public static final int SEED_OFFSET = 16;
+    /** where the cell is in a record */
+    public static final int CELL_OFFSET = 24;
+    /** where the dimension is in a record */
+    public static final int DIM_OFFSET = 28;
+    /** where the outcome is in a record */
+    public static final int OUTCOME_OFFSET = 30;
+    /** where the flags are in a record */
+    public static final int FLAGS_OFFSET = 31;
+    /** the flag of the reveal that ended its game */
+    public static final int FLAG_GAME_OVER = 1;
+    /** the flag of the first reveal of a game, which starts on a freshly dealt board */
+    public static final int FLAG_FIRST_MOVE = 2;
+    /** the name every journal file ends with */
+    public static final String SUFFIX = ".journal";
+    /** the size at which a new journal file is started */
+    public static final long ROLL_BYTES = 1L << 30;
+    /** the default number of records the ring holds, a power of two */
+    public static final int CAPACITY = 1 << 16;
+
+    /** the most records written with one call */
+    private static final int BATCH = 4096;
+    /** how long the writer lets records pile up once it caught up, in nanoseconds */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** the least time between two forces to disk, in nanoseconds */
+    private static final long COMMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /** the longs a record takes in the ring */
+    private static final int LONGS = 4;
+    /** publishes a slot of the ring to the writer */
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /** the directory of the journal files */
+    private final Path dir;
+    /** when the journal was opened, in milliseconds since the epoch, which names its files */
+    private final long started;
+    /** the nanoseconds since the epoch at System.nanoTime() 0 */
+    private final long epoch;
+    /** the records waiting to be written, LONGS longs each */
+    private final long[] ring;
+    /** the sequence number of the record in every slot, once it is complete */
+    private final long[] published;
+    /** selects the slot of a sequence number */
+    private final int mask;
+    /** the next sequence number to hand out */
+    private final AtomicLong claimed;
+    /** the records are gathered here before they are written */
+    private final ByteBuffer batch;
+    /** the writer thread */
+    private final Thread thread;
+    /** the sequence number of the next record the writer takes */
+    private volatile long consumed;
+    /** set once the journal is closed */
+    private volatile boolean stopped;
+    /** the file being written, only touched by the writer */
+    private FileChannel file;
+    /** the number of the file being written */
+    private int files;
+    /** the number of records written */
+    private volatile long written;
+    /** the number of times the files were forced to disk */
+    private volatile long commits;
+    /** the number of records lost to a write error */
+    private volatile long lost;
+
+    /**
+     * Open a journal, creating its directory if needed, and start its
+     * writer.
+     *
+     * @param dir the directory of the journal files
+     * @param capacity the number of records the ring holds, rounded up to a power of two
+     * @throws IOException if the first journal file can not be created
+     */
+    public MoveJournal(Path dir, int capacity) throws IOException {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.dir = dir;
+        this.started = System.currentTimeMillis();
+        this.epoch = TimeUnit.MILLISECONDS.toNanos(this.started) - System.nanoTime();
+        this.ring = new long[size * LONGS];
+        this.published = new long[size];
+        for (int i = 0; i < size; ++i) {
+            this.published[i] = -1;
+        }
+        this.mask = size - 1;
+        this.claimed = new AtomicLong();
+        this.batch = ByteBuffer.allocateDirect(BATCH * RECORD);
+        Files.createDirectories(dir);
+        roll();
+        this.thread = new Thread(this, "server.MoveJournal");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Append the record of a card revealed.  Safe to call from any thread.
+     * Waits while the writer is a whole ring behind, unless the journal is
+     * closed and the writer gone, in which case the record is dropped.
+     *
+     * @param session the ID of the session
+     * @param seed the seed of the board
+     * @param dim the dimension of the board
+     * @param cell the cell of the card
+     * @param outcome what the reveal did, as returned by GameBoard.flip
+     * @param flags FLAG_FIRST_MOVE and FLAG_GAME_OVER
+     */
+    public void append(long session, long seed, int dim, int cell, int outcome, int flags) {
+        long seq = this.claimed.getAndIncrement();
+        int spins = 0;
+        while (seq - this.consumed > this.mask) {
+            // the writer is a whole ring behind
+            if (this.stopped) {
+                // nobody will ever make room, e.g. a session still playing while the server shuts down
+                return;
+            }
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        int slot = (int) (seq & this.mask);
+        int i = slot * LONGS;
+        this.ring[i] = session;
+        this.ring[i + 1] = this.epoch + System.nanoTime();
+        this.ring[i + 2] = seed;
+        this.ring[i + 3] = (long) cell << 32 | (dim & 0xffff) << 16 | (outcome & 0xff) << 8 | (flags & 0xff);
+        PUBLISHED.setRelease(this.published, slot, seq);
+    }
+
+    /**
+     * Drain the ring into the journal files until the journal is closed.
+     * The writer sleeps a little whenever it caught up with the sessions so
+     * the records pile up into large writes, and forces what it wrote at
+     * most every COMMIT_NANOS, so the busier the server, the more records
+     * share a force.
+     */
+    @Override
+    public void run() {
+        long next = 0;
+        boolean dirty = false;
+        long committed = System.nanoTime();
+        while (true) {
+            boolean stopping = this.stopped;
+            int count = 0;
+            this.batch.clear();
+            while (count < BATCH && (long) PUBLISHED.getAcquire(this.published, (int) (next & this.mask)) == next) {
+                int i = (int) (next & this.mask) * LONGS;
+                long packed = this.ring[i + 3];
+                this.batch.putLong(this.ring[i]).putLong(this.ring[i + 1]).putLong(this.ring[i + 2])
+                        .putInt((int) (packed >>> 32)).putShort((short) (packed >>> 16))
+                        .put((byte) (packed >>> 8)).put((byte) packed);
+                ++next;
+                ++count;
+            }
+            if (count > 0) {
+                this.consumed = next;
+                write(this.batch.flip(), count);
+                dirty = true;
+            }
+            if (count == BATCH) {
+                continue;
+            }
+            long now = System.nanoTime();
+            if (dirty && (stopping || now - committed >= COMMIT_NANOS)) {
+                force();
+                dirty = false;
+                committed = now;
+            }
+            if (stopping && count == 0) {
+                break;
+            } else if (!stopping) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        try {
+            this.file.close();
+        } catch (IOException e) {
+            AsyncLog.get().log(AsyncLog.Level.WARN, "JOURNAL_CLOSE_FAILED", e.getMessage());
+        }
+    }
+
+    /**
+     * Write a batch of records, starting a new file if the current one is
+     * full.  Records that can not be written are counted as lost, so the
+     * sessions never stall on a broken disk.
+     *
+     * @param records the records
+     * @param count the number of records
+     */
+    private void write(ByteBuffer records, int count) {
+        try {
+            if (this.file.position() + records.remaining() > ROLL_BYTES) {
+                this.file.force(false);
+                this.file.close();
+                roll();
+            }
+            while (records.hasRemaining()) {
+                this.file.write(records);
+            }
+            this.written += count;
+        } catch (IOException e) {
+            if (this.lost == 0) {
+                AsyncLog.get().log(AsyncLog.Level.ERROR, "JOURNAL_WRITE_FAILED", e.getMessage());
+            }
+            this.lost += count;
+        }
+    }
+
+    /**
+     * Force what was written to disk.
+     */
+    private void force() {
+        try {
+            this.file.force(false);
+            ++this.commits;
+        } catch (IOException e) {
+            AsyncLog.get().log(AsyncLog.Level.WARN, "JOURNAL_FORCE_FAILED", e.getMessage());
+        }
+    }
+
+    /**
+     * Start the next journal file.
+     *
+     * @throws IOException if the file can not be created
+     */
+    private void roll() throws IOException {
+        Path path = this.dir.resolve(String.format("moves-%d-%04d%s", this.started, this.files++, SUFFIX));
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putShort((short) VERSION)
+                .putShort((short) RECORD).putLong(this.started).flip();
+        while (header.hasRemaining()) {
+            this.file.write(header);
+        }
+    }
+
+    /**
+     * Get the number of records written.
+     *
+     * @return the count
+     */
+    public long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Get the number of times the journal was forced to disk, each time
+     * for a whole batch of records.
+     *
+     * @return the count
+     */
+    public long getCommits() {
+        return this.commits;
+    }
+
+    /**
+     * Get the number of records lost to write errors.
+     *
+     * @return the count
+     */
+    public long getLost() {
+        return this.lost;
+    }
+
+    /**
+     * Write out every record appended so far and close the journal.
+     */
+    public void close() {
+        this.stopped = true;
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package server;
+
+import common.AsyncLog;
+import common.ConcentrationException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A client connection served by a ConcentrationReactor.  It hands the bytes
+ * read from the socket to its ConcentrationSession and queues the replies
+ * the socket can not take right away.  The queue is bounded: a client that
+ * lets more than ConcentrationSession.MAX_BACKLOG bytes pile up is taken to
+ * be gone and hung up on, as StreamOutput does.  Only the owning reactor
+ * thread ever touches it.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class NioSession implements ConcentrationSession.Output {
+    /**
+     * A reply waiting to be written.
+     */
+    private static class Pending {
+        /** the encoded reply */
+        private final ByteBuffer bytes;
+        /** the earliest time it may be written, in System.nanoTime() units */
+        private final long due;
+        /** the number of bytes it had when it was queued */
+        private final int size;
+
+        /**
+         * Create the pending reply.
+         *
+         * @param bytes the encoded reply
+         * @param due the earliest time it may be written
+         */
+        private Pending(ByteBuffer bytes, long due) {
+            this.bytes = bytes;
+            this.due = due;
+            this.size = bytes.remaining();
+        }
+    }
+
+    /** the reactor this connection is pinned to */
+    private final ConcentrationReactor reactor;
+    /** the server this connection belongs to */
+    private final ServerContext context;
+    /** the client connection */
+    private final SocketChannel channel;
+    /** the bytes read from the socket and not yet consumed by the session */
+    private final ByteBuffer readBuffer;
+    /** the replies not yet written, in order */
+    private final ArrayDeque<Pending> writes;
+    /** the bytes of the replies not yet written */
+    private long backlog;
+    /** the selection key of the channel */
+    private SelectionKey key;
+    /** the game played over this connection */
+    private ConcentrationSession session;
+    /** set once the game is over, the connection closes after the last write */
+    private boolean finished;
+    /** set once the connection is closed and its admission slot given back */
+    private boolean closed;
+
+    /**
+     * Create the connection.
+     *
+     * @param reactor the reactor this connection is pinned to
+     * @param context the server this connection belongs to
+     * @param channel the client connection
+     */
+    public NioSession(ConcentrationReactor reactor, ServerContext context, SocketChannel channel) {
+        this.reactor = reactor;
+        this.context = context;
+        this.channel = channel;
+        this.readBuffer = ByteBuffer.allocate(ConcentrationSession.INPUT_BUFFER);
+        this.writes = new ArrayDeque<>();
+    }
+
+    /**
+     * Deal the board and send the board dimension.
+     *
+     * @param key the selection key of the channel
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public void open(SelectionKey key) throws ConcentrationException {
+        this.key = key;
+        this.session = new ConcentrationSession(this.context, this);
+        this.session.open();
+    }
+
+    /**
+     * Called by the reactor when the channel is readable or writable.  A
+     * failure, even a bug in the session, only closes this connection.
+     *
+     * @param key the ready selection key
+     */
+    public void ready(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            close();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Read what is available and hand it to the session.
+     *
+     * @throws IOException if the read fails
+     */
+    private void read() throws IOException {
+        int n = this.channel.read(this.readBuffer);
+        if (n < 0) {
+            close();
+            return;
+        }
+        this.readBuffer.flip();
+        this.finished = this.session.receive(this.readBuffer);
+        this.readBuffer.compact();
+        if (this.finished && this.key.isValid()) {
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+            flush();
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer msg) {
+        if (this.writes.isEmpty() && this.channel.isOpen()) {
+            try {
+                this.channel.write(msg);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (!msg.hasRemaining()) {
+                return;
+            }
+        }
+        queue(msg, 0);
+        if (this.writes.size() == 1) {
+            flushQuietly();
+        }
+    }
+
+    @Override
+    public void sendDelayed(ByteBuffer msg, long millis) {
+        queue(msg, System.nanoTime() + millis * 1_000_000L);
+        this.reactor.schedule(millis, this::flushQuietly);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        this.reactor.submit(() -> {
+            if (!this.closed) {
+                task.run();
+            }
+        });
+    }
+
+    @Override
+    public void sendShared(ByteBuffer[] msgs, int count) {
+        int first = 0;
+        if (this.writes.isEmpty() && this.channel.isOpen()) {
+            try {
+                this.channel.write(msgs, 0, count);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            while (first < count && !msgs[first].hasRemaining()) {
+                ++first;
+            }
+            if (first == count) {
+                return;
+            }
+        }
+        long size = 0;
+        for (int i = first; i < count; ++i) {
+            size += msgs[i].remaining();
+        }
+        if (overflows(size)) {
+            return;
+        }
+        boolean idle = this.writes.isEmpty();
+        for (int i = first; i < count; ++i) {
+            // the views are the session's own and the bytes never change, no need to copy
+            this.writes.add(new Pending(msgs[i], 0));
+            this.backlog += msgs[i].remaining();
+        }
+        if (idle) {
+            flushQuietly();
+        }
+    }
+
+    @Override
+    public long getBacklog() {
+        return this.backlog;
+    }
+
+    @Override
+    public void finish() {
+        this.finished = true;
+        if (this.key.isValid()) {
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Copy what is left of a reply and queue it behind the replies already
+     * waiting.
+     *
+     * @param msg the encoded reply
+     * @param due the earliest time it may be written
+     */
+    private void queue(ByteBuffer msg, long due) {
+        if (overflows(msg.remaining())) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(msg.remaining());
+        copy.put(msg).flip();
+        this.writes.add(new Pending(copy, due));
+        this.backlog += copy.remaining();
+    }
+
+    /**
+     * Check whether queueing more bytes is pointless: the connection is
+     * closed, or the client stopped reading and the backlog would pass
+     * ConcentrationSession.MAX_BACKLOG, in which case it is closed now.
+     *
+     * @param bytes the number of bytes to queue
+     * @return true if they are to be dropped
+     */
+    private boolean overflows(long bytes) {
+        if (this.closed) {
+            return true;
+        }
+        if (this.backlog + bytes > ConcentrationSession.MAX_BACKLOG) {
+            close();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Flush, closing the connection if the write fails.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Report an unexpected failure of this connection and close it.
+     *
+     * @param e the failure
+     */
+    public void fail(RuntimeException e) {
+        AsyncLog.get().log(AsyncLog.Level.ERROR, "SESSION_FAILED",
+                this.session == null ? AsyncLog.NO_SESSION : this.session.getId(), e.toString());
+        close();
+    }
+
+    /**
+     * Write as many of the due replies as the socket takes.  Asks for
+     * OP_WRITE when the socket is full and closes the connection once the
+     * game is over and everything was written.
+     *
+     * @throws IOException if the write fails
+     */
+    private void flush() throws IOException {
+        if (!this.channel.isOpen() || this.key == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        Pending head;
+        while ((head = this.writes.peek()) != null && head.due <= now) {
+            this.channel.write(head.bytes);
+            if (head.bytes.hasRemaining()) {
+                this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            this.backlog -= this.writes.poll().size;
+        }
+        this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (this.finished && this.writes.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Close the connection, dropping whatever was not written, and give its
+     * admission slot back.  Closing it again does nothing.
+     */
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.context.getAdmission().release();
+        if (this.session != null) {
+            this.session.close();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // nothing left to do with a connection that can not be closed
+        }
+    }
+}
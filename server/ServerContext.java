@@ -0,0 +1,418 @@
+package server;
+
+import common.AsyncLog;
+import common.ConcentrationException;
+import game.CompactConcentrationBoard;
+import game.ConcentrationBoard;
+import game.GameBoard;
+import game.SeedSource;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The state shared by every session of a running server: its options and
+ * the services the sessions use.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ServerContext {
+    /** the server options */
+    private final ServerOptions options;
+    /** runs the timer and table tasks of the blocking sessions, which never write */
+    private final ScheduledExecutorService scheduler;
+    /** write for the blocking sessions in thread mode what their own threads can not */
+    private final ExecutorService writers;
+    /** what the server counts */
+    private final ServerMetrics metrics;
+    /** bounds the number of sessions running at once */
+    private final AdmissionController admission;
+    /** runs the idle timeouts, heartbeats and game clocks of every session */
+    private final TimerWheel timers;
+    /** the boards dealt ahead of time, null if every board is dealt on the spot */
+    private final BoardPool pool;
+    /** where the boards get their seeds */
+    private final SeedSource seeds;
+    /** where the first games are kept across restarts, null if they are not */
+    private final SessionArena arena;
+    /** where every move is journaled, null if moves are not */
+    private final MoveJournal journal;
+    /** hands out the IDs of the sessions */
+    private final AtomicLong sessionIds;
+    /** the shared tables being played or waiting for players, by number */
+    private final ConcurrentMap<Integer, SharedTable> tables;
+    /** the JMX name the metrics are exported under, null if they are not */
+    private final ObjectName metricsName;
+
+    /**
+     * Create the context and start its services.
+     *
+     * @param options the server options
+     * @throws UncheckedIOException if the arena file can not be mapped or
+     *     the journal can not be created
+     */
+    public ServerContext(ServerOptions options) {
+        this.options = options;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server.RevealScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "server.StreamOutput");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.metrics = new ServerMetrics();
+        this.metricsName = export(this.metrics);
+        this.admission = new AdmissionController(options.getMaxSessions(), options.getAdmissionQueue());
+        this.timers = new TimerWheel(TimerWheel.TICK_MILLIS, TimerWheel.BUCKETS);
+        this.seeds = options.getSeed() != null ? SeedSource.fixed(options.getSeed()) : SeedSource.PER_THREAD;
+        this.pool = options.getBoardPool() > 0
+                ? new BoardPool(dim -> deal(options.getBoard(), dim, this.seeds.nextSeed()),
+                        options.getBoardPool(), options.getBoardPoolLow(), this.metrics)
+                : null;
+        SessionArena arena = null;
+        MoveJournal journal = null;
+        try {
+            arena = options.getArena() != null
+                    ? new SessionArena(Path.of(options.getArena()), options.getArenaSlots(), this.timers,
+                            options.getResumeGrace())
+                    : null;
+            journal = options.getJournal() != null
+                    ? new MoveJournal(Path.of(options.getJournal()), MoveJournal.CAPACITY)
+                    : null;
+        } catch (IOException e) {
+            // nothing owns what was opened so far but this constructor
+            this.scheduler.shutdownNow();
+            this.writers.shutdownNow();
+            this.timers.stop();
+            if (this.pool != null) {
+                this.pool.close();
+            }
+            if (arena != null) {
+                arena.close();
+            }
+            unexport(this.metricsName);
+            throw new UncheckedIOException(e);
+        }
+        this.arena = arena;
+        this.journal = journal;
+        this.sessionIds = new AtomicLong();
+        this.tables = new ConcurrentHashMap<>();
+        if (this.arena != null && options.getBoard() == ServerOptions.Board.OBJECT) {
+            AsyncLog.get().log(AsyncLog.Level.WARN, "ARENA_UNUSED",
+                    "The arena only keeps compact and large boards, object boards are not kept");
+        }
+        if (this.pool != null && !usesArena(options.getDim())) {
+            try {
+                this.pool.prefill(options.getDim());
+            } catch (ConcentrationException e) {
+                // every session reports the invalid dimension to its client
+            }
+        }
+    }
+
+    /**
+     * Export the metrics over JMX.  A second server in the same JVM keeps
+     * its metrics to itself.
+     *
+     * @param metrics the metrics
+     * @return the name they are exported under, null if they are not
+     */
+    private static ObjectName export(ServerMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(ServerMetrics.OBJECT_NAME);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            AsyncLog.get().log(AsyncLog.Level.WARN, "METRICS_NOT_EXPORTED", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Take the server metrics out of the platform MBean server.
+     *
+     * @param name the name they were exported under, null if they were not
+     */
+    private static void unexport(ObjectName name) {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+    }
+
+    /**
+     * Get the server options.
+     *
+     * @return the server options
+     */
+    public ServerOptions getOptions() {
+        return this.options;
+    }
+
+    /**
+     * Get the scheduler shared by the blocking sessions for the tasks of
+     * their timers and tables.  Tasks run on it must not block, so they
+     * only queue replies, which the writers write.
+     *
+     * @return the shared scheduler
+     */
+    public ScheduledExecutorService getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Get the threads that write for the blocking sessions in thread mode,
+     * e.g. a delayed reply once it is due.  A thread is only started while
+     * the ones there are busy, and a write only keeps one busy for long
+     * when its client stopped reading; an idle one ends after a minute.
+     *
+     * @return the shared writers
+     */
+    public ExecutorService getWriters() {
+        return this.writers;
+    }
+
+    /**
+     * Get the metrics of the server.
+     *
+     * @return the metrics
+     */
+    public ServerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get the controller every connection has to be admitted by.  Every
+     * admitted connection releases its slot when its session ends.
+     *
+     * @return the admission controller
+     */
+    public AdmissionController getAdmission() {
+        return this.admission;
+    }
+
+    /**
+     * Get the timer wheel shared by the sessions for their idle timeouts,
+     * heartbeats and game clocks.
+     *
+     * @return the timer wheel
+     */
+    public TimerWheel getTimers() {
+        return this.timers;
+    }
+
+    /**
+     * Get the arena the first games are kept in across restarts.
+     *
+     * @return the arena, null if games are not kept
+     */
+    public SessionArena getArena() {
+        return this.arena;
+    }
+
+    /**
+     * Get the journal every move is appended to.
+     *
+     * @return the journal, null if moves are not journaled
+     */
+    public MoveJournal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * Hand out the ID of a new session, which its moves are journaled
+     * under.
+     *
+     * @return the ID, unique for the run of the server
+     */
+    public long nextSessionId() {
+        return this.sessionIds.incrementAndGet();
+    }
+
+    /**
+     * Sit a player at a shared table, dealing the table if nobody plays at
+     * it.  A table has its own ID, which its board is logged and its moves
+     * are journaled under.
+     *
+     * @param number the number of the table
+     * @param dim the square dimension of its board
+     * @param seat the player, told its seat or why it can not sit
+     * @throws ConcentrationException if the table is new and the dimension is invalid
+     */
+    public void joinTable(int number, int dim, SharedTable.Seat seat) throws ConcentrationException {
+        SharedTable table = this.tables.get(number);
+        if (table == null) {
+            long id = nextSessionId();
+            SharedTable dealt = new SharedTable(this, number, id, newBoard(id, dim, false));
+            table = this.tables.putIfAbsent(number, dealt);
+            if (table == null) {
+                table = dealt;
+            }
+        }
+        table.join(seat, dim);
+    }
+
+    /**
+     * Find a shared table being played or waiting for players.
+     *
+     * @param number the number of the table
+     * @return the table, or null if nobody plays at it
+     */
+    public SharedTable findTable(int number) {
+        return this.tables.get(number);
+    }
+
+    /**
+     * Forget a table that closed.
+     *
+     * @param table the table
+     */
+    void removeTable(SharedTable table) {
+        this.tables.remove(table.getNumber(), table);
+    }
+
+    /**
+     * Deal the first game of a session into the arena, logging it like
+     * every other board.  The boards in the arena are laid out like compact
+     * boards, so only compact and large boards are kept there, and only
+     * those the board kind allows anyway: a dimension the kind refuses is
+     * left to newBoard to refuse, whether the arena is full or not.
+     *
+     * @param session the ID of the session, for the log
+     * @return the game, null if there is no arena, the board kind or size
+     *     can not be kept in it, or it is full
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public SessionArena.Slot openSlot(long session) throws ConcentrationException {
+        int dim = this.options.getDim();
+        if (!usesArena(dim)) {
+            return null;
+        }
+        SessionArena.Slot slot = this.arena.allocate(dim, this.seeds.nextSeed());
+        if (slot != null) {
+            log(session, this.options.getBoard(), slot.getBoard(), this.options.isCheat());
+        }
+        return slot;
+    }
+
+    /**
+     * Whether the first games are dealt into the arena: there is one, it
+     * can lay out the board kind, and the dimension fits both the kind and
+     * the arena.
+     *
+     * @param dim the square dimension of the first games
+     * @return true if they are kept in the arena
+     */
+    private boolean usesArena(int dim) {
+        if (this.arena == null) {
+            return false;
+        }
+        return switch (this.options.getBoard()) {
+            case COMPACT -> dim <= Math.min(CompactConcentrationBoard.MAX_DIM, SessionArena.MAX_DIM);
+            case LARGE -> dim <= SessionArena.MAX_DIM;
+            default -> false;
+        };
+    }
+
+    /**
+     * Deal the first board of a session, of the kind and size given in the
+     * options.  Its solution is logged in cheat mode, except for large
+     * boards where it would flood the console.
+     *
+     * @param session the ID of the session, for the log
+     * @return the new board
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public GameBoard newBoard(long session) throws ConcentrationException {
+        return newBoard(session, this.options.getDim(), this.options.isCheat());
+    }
+
+    /**
+     * Get a new board of the kind given in the options and any size, from
+     * the board pool if there is one.  The seed of every board is logged,
+     * so it can be dealt again with BoardReplay.
+     *
+     * @param session the ID of the session, for the log
+     * @param dim the square dimension of the board
+     * @param cheat whether to log the solution, never done for large boards
+     * @return the new board
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public GameBoard newBoard(long session, int dim, boolean cheat) throws ConcentrationException {
+        ServerOptions.Board kind = this.options.getBoard();
+        GameBoard board = this.pool != null ? this.pool.take(dim) : deal(kind, dim, this.seeds.nextSeed());
+        log(session, kind, board, cheat);
+        return board;
+    }
+
+    /**
+     * Log the seed of a board, and its solution if asked to.  The log is
+     * written by a background thread, so a connection never waits for the
+     * console.
+     *
+     * @param session the ID of the session
+     * @param kind how the board is stored
+     * @param board the board
+     * @param cheat whether to log the solution, never done for large boards
+     */
+    private static void log(long session, ServerOptions.Board kind, GameBoard board, boolean cheat) {
+        AsyncLog log = AsyncLog.get();
+        log.log(AsyncLog.Level.INFO, "DEALT", session, board.getSeed(),
+                kind.name().toLowerCase() + " " + board.getDIM());
+        if (cheat && kind != ServerOptions.Board.LARGE) {
+            log.log(AsyncLog.Level.INFO, "SOLUTION", session, board.getSeed(), board.getSolution());
+        }
+    }
+
+    /**
+     * Deal a board without printing its solution.
+     *
+     * @param kind how the board is stored
+     * @param dim the square dimension of the board
+     * @param seed the seed to shuffle its cards with
+     * @return the new board
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public static GameBoard deal(ServerOptions.Board kind, int dim, long seed) throws ConcentrationException {
+        return switch (kind) {
+            case COMPACT -> new CompactConcentrationBoard(dim, false, false, seed);
+            case LARGE -> new CompactConcentrationBoard(dim, false, true, seed);
+            default -> new ConcentrationBoard(dim, false, seed);
+        };
+    }
+
+    /**
+     * Stop the shared services.
+     */
+    public void close() {
+        this.scheduler.shutdownNow();
+        this.writers.shutdownNow();
+        this.timers.stop();
+        if (this.pool != null) {
+            this.pool.close();
+        }
+        if (this.arena != null) {
+            this.arena.close();
+        }
+        if (this.journal != null) {
+            this.journal.close();
+        }
+        unexport(this.metricsName);
+    }
+}
@@ -0,0 +1,305 @@
+package server;
+
+import common.ConcentrationProtocol;
+import common.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a running server, fed by the accept loops and the
+ * sessions on every thread at once.  Counting never locks: counters are
+ * LongAdders and latencies go into lock free histograms, one per kind of
+ * message.  The metrics are exported over JMX and sent in reply to STATS.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ServerMetrics implements ServerMetricsMXBean, ConcentrationProtocol {
+    /** the JMX name the metrics are exported under */
+    public static final String OBJECT_NAME = "server:type=ConcentrationServer";
+    /** the slot of the messages that are not valid protocol messages, after the highest opcode */
+    private static final int OTHER = OP_WATCH + 1;
+    /** the keyword of every message slot, indexed by opcode */
+    private static final String[] NAMES = new String[OTHER + 1];
+
+    static {
+        NAMES[OP_BOARD_DIM] = BOARD_DIM;
+        NAMES[OP_ERROR] = ERROR;
+        NAMES[OP_CARD] = CARD;
+        NAMES[OP_MATCH] = MATCH;
+        NAMES[OP_MISMATCH] = MISMATCH;
+        NAMES[OP_GAME_OVER] = GAME_OVER;
+        NAMES[OP_REVEAL] = REVEAL;
+        NAMES[OP_REVEAL_BATCH] = REVEAL_BATCH;
+        NAMES[OP_BATCH] = BATCH;
+        NAMES[OP_OPEN] = OPEN;
+        NAMES[OP_CLOSE] = CLOSE;
+        NAMES[OP_GAME] = GAME;
+        NAMES[OP_STATS] = STATS;
+        NAMES[OP_PING] = PING;
+        NAMES[OP_PONG] = PONG;
+        NAMES[OP_TIME_UP] = TIME_UP;
+        NAMES[OP_SESSION] = SESSION;
+        NAMES[OP_RESUME] = RESUME;
+        NAMES[OP_VERSUS] = VERSUS;
+        NAMES[OP_JOIN] = JOIN;
+        NAMES[OP_SEAT] = SEAT;
+        NAMES[OP_TURN] = TURN;
+        NAMES[OP_WATCH] = WATCH;
+        NAMES[OTHER] = "OTHER";
+    }
+
+    /** the connections accepted */
+    private final LongAdder accepted;
+    /** the connections turned away by admission control */
+    private final LongAdder rejected;
+    /** the connections hung up on for staying quiet */
+    private final LongAdder idleClosed;
+    /** the games ended by their clock */
+    private final LongAdder timeUps;
+    /** the boards taken ready from the board pool */
+    private final LongAdder poolHits;
+    /** the boards dealt on the spot because the board pool ran dry */
+    private final LongAdder poolMisses;
+    /** the sessions opened */
+    private final LongAdder opened;
+    /** the sessions closed */
+    private final LongAdder closed;
+    /** the cards revealed */
+    private final LongAdder moves;
+    /** the games played to the end */
+    private final LongAdder games;
+    /** the errors sent */
+    private final LongAdder errors;
+    /** the nanoseconds taken to handle every kind of message */
+    private final LatencyHistogram[] messages;
+    /** the nanoseconds every completed game took */
+    private final LatencyHistogram gameDurations;
+    /** the cards revealed in every completed game */
+    private final LatencyHistogram gameMoves;
+
+    /**
+     * Create the metrics, all zero.
+     */
+    public ServerMetrics() {
+        this.accepted = new LongAdder();
+        this.rejected = new LongAdder();
+        this.idleClosed = new LongAdder();
+        this.timeUps = new LongAdder();
+        this.poolHits = new LongAdder();
+        this.poolMisses = new LongAdder();
+        this.opened = new LongAdder();
+        this.closed = new LongAdder();
+        this.moves = new LongAdder();
+        this.games = new LongAdder();
+        this.errors = new LongAdder();
+        this.messages = new LatencyHistogram[NAMES.length];
+        for (int i = 0; i < this.messages.length; ++i) {
+            this.messages[i] = new LatencyHistogram();
+        }
+        this.gameDurations = new LatencyHistogram();
+        this.gameMoves = new LatencyHistogram();
+    }
+
+    /**
+     * Count an accepted connection.
+     */
+    public void accepted() {
+        this.accepted.increment();
+    }
+
+    /**
+     * Count a connection turned away.
+     */
+    public void rejected() {
+        this.rejected.increment();
+    }
+
+    /**
+     * Count a connection hung up on for staying quiet.
+     */
+    public void idleClosed() {
+        this.idleClosed.increment();
+    }
+
+    /**
+     * Count a game ended by its clock.
+     */
+    public void timeUp() {
+        this.timeUps.increment();
+    }
+
+    /**
+     * Count a board taken ready from the board pool.
+     */
+    public void poolHit() {
+        this.poolHits.increment();
+    }
+
+    /**
+     * Count a board dealt on the spot because the board pool ran dry.
+     */
+    public void poolMiss() {
+        this.poolMisses.increment();
+    }
+
+    /**
+     * Count an opened session.
+     */
+    public void sessionOpened() {
+        this.opened.increment();
+    }
+
+    /**
+     * Count a closed session.
+     */
+    public void sessionClosed() {
+        this.closed.increment();
+    }
+
+    /**
+     * Count a revealed card.
+     */
+    public void move() {
+        this.moves.increment();
+    }
+
+    /**
+     * Count an error sent to a client.
+     */
+    public void error() {
+        this.errors.increment();
+    }
+
+    /**
+     * Record the handling of a message.
+     *
+     * @param op the opcode of the message, negative if it was not valid
+     * @param nanos how long handling it took
+     */
+    public void message(int op, long nanos) {
+        this.messages[op < 0 || op >= OTHER ? OTHER : op].record(nanos);
+    }
+
+    /**
+     * Record a game played to the end.
+     *
+     * @param nanos how long it took
+     * @param cards the number of cards revealed in it
+     */
+    public void gameOver(long nanos, int cards) {
+        this.games.increment();
+        this.gameDurations.record(nanos);
+        this.gameMoves.record(cards);
+    }
+
+    @Override
+    public long getAccepted() {
+        return this.accepted.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    @Override
+    public long getIdleClosed() {
+        return this.idleClosed.sum();
+    }
+
+    @Override
+    public long getTimeUps() {
+        return this.timeUps.sum();
+    }
+
+    @Override
+    public long getPoolHits() {
+        return this.poolHits.sum();
+    }
+
+    @Override
+    public long getPoolMisses() {
+        return this.poolMisses.sum();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return this.opened.sum() - this.closed.sum();
+    }
+
+    @Override
+    public long getMoves() {
+        return this.moves.sum();
+    }
+
+    @Override
+    public long getGamesCompleted() {
+        return this.games.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getMessageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < NAMES.length; ++i) {
+            if (this.messages[i].getCount() > 0) {
+                counts.put(NAMES[i], this.messages[i].getCount());
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getMessageP99Micros() {
+        Map<String, Long> p99 = new LinkedHashMap<>();
+        for (int i = 0; i < NAMES.length; ++i) {
+            if (this.messages[i].getCount() > 0) {
+                p99.put(NAMES[i], this.messages[i].getPercentile(99) / 1000);
+            }
+        }
+        return p99;
+    }
+
+    @Override
+    public long getGameDurationP50Millis() {
+        return this.gameDurations.getPercentile(50) / 1_000_000;
+    }
+
+    @Override
+    public double getMovesPerGameMean() {
+        return this.gameMoves.getMean();
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder str = new StringBuilder();
+        str.append("accepted=").append(getAccepted())
+                .append(" rejected=").append(getRejected())
+                .append(" idle_closed=").append(getIdleClosed())
+                .append(" time_ups=").append(getTimeUps())
+                .append(" pool_hits=").append(getPoolHits())
+                .append(" pool_misses=").append(getPoolMisses())
+                .append(" active=").append(getActiveSessions())
+                .append(" moves=").append(getMoves())
+                .append(" games=").append(getGamesCompleted())
+                .append(" errors=").append(getErrors())
+                .append(" game_p50_ms=").append(getGameDurationP50Millis())
+                .append(" game_p99_ms=").append(this.gameDurations.getPercentile(99) / 1_000_000)
+                .append(" moves_per_game=").append(Math.round(getMovesPerGameMean() * 10) / 10.0);
+        for (int i = 0; i < NAMES.length; ++i) {
+            LatencyHistogram histogram = this.messages[i];
+            if (histogram.getCount() > 0) {
+                str.append(' ').append(NAMES[i]).append("_count=").append(histogram.getCount())
+                        .append(' ').append(NAMES[i]).append("_p50_us=").append(histogram.getPercentile(50) / 1000)
+                        .append(' ').append(NAMES[i]).append("_p99_us=").append(histogram.getPercentile(99) / 1000);
+            }
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.util.Map;
+
+/**
+ * The metrics of a running server as they are exported over JMX, under
+ * the name ServerMetrics.OBJECT_NAME.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public interface ServerMetricsMXBean {
+    /**
+     * Get the number of connections accepted.
+     *
+     * @return the count
+     */
+    long getAccepted();
+
+    /**
+     * Get the number of connections turned away by admission control.
+     *
+     * @return the count
+     */
+    long getRejected();
+
+    /**
+     * Get the number of connections hung up on for staying quiet.
+     *
+     * @return the count
+     */
+    long getIdleClosed();
+
+    /**
+     * Get the number of games ended by their clock.
+     *
+     * @return the count
+     */
+    long getTimeUps();
+
+    /**
+     * Get the number of boards taken ready from the board pool.
+     *
+     * @return the count
+     */
+    long getPoolHits();
+
+    /**
+     * Get the number of boards dealt on the spot because the board pool
+     * ran dry, or because there is none.
+     *
+     * @return the count
+     */
+    long getPoolMisses();
+
+    /**
+     * Get the number of sessions currently open.
+     *
+     * @return the count
+     */
+    long getActiveSessions();
+
+    /**
+     * Get the number of cards revealed.
+     *
+     * @return the count
+     */
+    long getMoves();
+
+    /**
+     * Get the number of games played to the end.
+     *
+     * @return the count
+     */
+    long getGamesCompleted();
+
+    /**
+     * Get the number of errors sent to clients.
+     *
+     * @return the count
+     */
+    long getErrors();
+
+    /**
+     * Get the number of messages received, by message kind.
+     *
+     * @return the counts by keyword
+     */
+    Map<String, Long> getMessageCounts();
+
+    /**
+     * Get the 99th percentile of the time taken to handle a message, by
+     * message kind.
+     *
+     * @return the percentiles in microseconds by keyword
+     */
+    Map<String, Long> getMessageP99Micros();
+
+    /**
+     * Get the median length of a completed game.
+     *
+     * @return the median in milliseconds
+     */
+    long getGameDurationP50Millis();
+
+    /**
+     * Get the mean number of cards revealed in a completed game.
+     *
+     * @return the mean
+     */
+    double getMovesPerGameMean();
+
+    /**
+     * Get all the metrics on one line, as sent in reply to STATS.
+     *
+     * @return the metrics as name=value pairs
+     */
+    String getSummary();
+}
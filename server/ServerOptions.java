@@ -0,0 +1,391 @@
+package server;
+
+/**
+ * The command line options of the server.  The port number and the board
+ * dimension are positional, everything else is an optional
+ * <code>--name=value</code> pair that follows them, e.g.
+ *
+ *   java server.ConcentrationServer 5555 4 --mode=nio --reactors=4
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class ServerOptions {
+    /** the usage message printed when the arguments can not be parsed */
+    public static final String USAGE =
+            "Usage: java server.ConcentrationServer <port number> <board dimension>"
+            + " [--mode=thread|virtual|nio] [--reactors=n] [--max-sessions=n] [--admission-queue=n]"
+            + " [--carriers=n] [--reveal-delay=ms] [--board=object|compact|large]"
+            + " [--idle-timeout=ms] [--heartbeat=ms] [--time-limit=ms] [--board-pool=n] [--board-pool-low=n]"
+            + " [--seed=n] [--arena=file] [--arena-slots=n] [--resume-grace=ms]"
+            + " [--journal=dir] [--cheat=true|false]";
+
+    /** how the server runs its game sessions */
+    public enum Mode {
+        /** one platform thread blocking on each client socket */
+        THREAD,
+        /** one virtual thread blocking on each client socket, needs a JVM with virtual threads */
+        VIRTUAL,
+        /** a handful of selector event loops shared by every client */
+        NIO
+    }
+
+    /** how the boards are stored */
+    public enum Board {
+        /** ConcentrationBoard, an object per card */
+        OBJECT,
+        /** CompactConcentrationBoard, primitive arrays */
+        COMPACT,
+        /** CompactConcentrationBoard in large mode, up to 1024x1024 */
+        LARGE
+    }
+
+    /** the port the server listens on */
+    private final int port;
+    /** the square dimension of every board the server deals */
+    private final int dim;
+    /** how the sessions are run */
+    private Mode mode;
+    /** the number of event loops in nio mode */
+    private int reactors;
+    /** the most sessions running at once, 0 for no limit */
+    private int maxSessions;
+    /** the most connections waiting for a session once maxSessions are running */
+    private int admissionQueue;
+    /** the carrier threads started up front in virtual mode, 0 for the JDK default */
+    private int carriers;
+    /** how long the match status is held back, in milliseconds */
+    private int revealDelay;
+    /** how the boards are stored */
+    private Board board;
+    /** how long a client may stay quiet before it is hung up on, in milliseconds, 0 for ever */
+    private int idleTimeout;
+    /** how long a client may stay quiet before it is pinged, in milliseconds, 0 to never ping */
+    private int heartbeat;
+    /** how long a game may last, in milliseconds, 0 for no limit */
+    private int timeLimit;
+    /** the most boards dealt ahead per dimension, 0 for no board pool */
+    private int boardPool;
+    /** the number of ready boards below which a dimension is refilled, -1 for half the pool */
+    private int boardPoolLow;
+    /** the seed of the sequence of board seeds, null for independent random seeds per thread */
+    private Long seed;
+    /** the file the first games are kept in across restarts, null to keep them in memory only */
+    private String arena;
+    /** the number of games the arena file holds */
+    private int arenaSlots;
+    /** how long a game whose client is gone is kept for it to resume, in milliseconds */
+    private int resumeGrace;
+    /** the directory every move is journaled to, null for no journal */
+    private String journal;
+    /** whether the solution of every first game is logged */
+    private boolean cheat;
+
+    /**
+     * Create the options with the defaults for everything but the
+     * positional arguments.
+     *
+     * @param port the port number
+     * @param dim the board dimension
+     */
+    public ServerOptions(int port, int dim) {
+        this.port = port;
+        this.dim = dim;
+        this.mode = Mode.THREAD;
+        this.reactors = Runtime.getRuntime().availableProcessors();
+        this.maxSessions = 0;
+        this.admissionQueue = 0;
+        this.carriers = 0;
+        this.revealDelay = ConcentrationSession.SLEEP_TIME;
+        this.board = Board.OBJECT;
+        this.idleTimeout = 0;
+        this.heartbeat = 0;
+        this.timeLimit = 0;
+        this.boardPool = 0;
+        this.boardPoolLow = -1;
+        this.seed = null;
+        this.arena = null;
+        this.arenaSlots = 4096;
+        this.resumeGrace = 300000;
+        this.journal = null;
+        this.cheat = false;
+    }
+
+    /**
+     * Parse the command line arguments.
+     *
+     * @param args the arguments given to main
+     * @return the parsed options
+     * @throws IllegalArgumentException if an argument is missing or malformed
+     */
+    public static ServerOptions parse(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Missing port number or board dimension");
+        }
+        ServerOptions options = new ServerOptions(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        for (int i = 2; i < args.length; ++i) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid option " + arg);
+            }
+            options.set(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Set a single named option.
+     *
+     * @param name the option name without the leading dashes
+     * @param value the option value
+     * @throws IllegalArgumentException if the option is unknown or the value is invalid
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "mode" -> this.mode = Mode.valueOf(value.toUpperCase());
+            case "reactors" -> this.reactors = positive(name, value);
+            case "max-sessions" -> this.maxSessions = positive(name, value);
+            case "admission-queue" -> this.admissionQueue = nonNegative(name, value);
+            case "carriers" -> this.carriers = positive(name, value);
+            case "reveal-delay" -> this.revealDelay = nonNegative(name, value);
+            case "board" -> this.board = Board.valueOf(value.toUpperCase());
+            case "idle-timeout" -> this.idleTimeout = nonNegative(name, value);
+            case "heartbeat" -> this.heartbeat = nonNegative(name, value);
+            case "time-limit" -> this.timeLimit = nonNegative(name, value);
+            case "board-pool" -> this.boardPool = nonNegative(name, value);
+            case "board-pool-low" -> this.boardPoolLow = nonNegative(name, value);
+            case "seed" -> this.seed = Long.decode(value);
+            case "arena" -> this.arena = value;
+            case "arena-slots" -> this.arenaSlots = positive(name, value);
+            case "resume-grace" -> this.resumeGrace = nonNegative(name, value);
+            case "journal" -> this.journal = value;
+            case "cheat" -> this.cheat = Boolean.parseBoolean(value);
+            default -> throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    /**
+     * Parse a value that has to be a positive integer.
+     *
+     * @param name the option name, used in the error message
+     * @param value the option value
+     * @return the parsed value
+     * @throws IllegalArgumentException if the value is not a positive integer
+     */
+    private static int positive(String name, String value) {
+        int result = Integer.parseInt(value);
+        if (result <= 0) {
+            throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Parse a value that has to be zero or a positive integer.
+     *
+     * @param name the option name, used in the error message
+     * @param value the option value
+     * @return the parsed value
+     * @throws IllegalArgumentException if the value is negative or not an integer
+     */
+    private static int nonNegative(String name, String value) {
+        int result = Integer.parseInt(value);
+        if (result < 0) {
+            throw new IllegalArgumentException("--" + name + " must not be negative: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Get the port number.
+     *
+     * @return the port number
+     */
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * Get the board dimension.
+     *
+     * @return the board dimension
+     */
+    public int getDim() {
+        return this.dim;
+    }
+
+    /**
+     * Get the session mode.
+     *
+     * @return the session mode
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Get the number of event loops used in nio mode.
+     *
+     * @return the number of event loops
+     */
+    public int getReactors() {
+        return this.reactors;
+    }
+
+    /**
+     * Get the most sessions that may run at once.
+     *
+     * @return the session limit, 0 for no limit
+     */
+    public int getMaxSessions() {
+        return this.maxSessions;
+    }
+
+    /**
+     * Get the most connections that may wait for a session once the
+     * session limit is reached.  Any more are turned away with an ERROR.
+     *
+     * @return the queue limit
+     */
+    public int getAdmissionQueue() {
+        return this.admissionQueue;
+    }
+
+    /**
+     * Get the number of carrier threads started up front in virtual mode.
+     *
+     * @return the number of carrier threads, 0 for the JDK default
+     */
+    public int getCarriers() {
+        return this.carriers;
+    }
+
+    /**
+     * Get how long the match status is held back after the second card of
+     * a pair is revealed.
+     *
+     * @return the delay in milliseconds, 0 to send it right away
+     */
+    public int getRevealDelay() {
+        return this.revealDelay;
+    }
+
+    /**
+     * Get how the boards are stored.
+     *
+     * @return the board kind
+     */
+    public Board getBoard() {
+        return this.board;
+    }
+
+    /**
+     * Get how long a client may send nothing before the server hangs up on
+     * it, which frees what an abandoned session holds on to.
+     *
+     * @return the timeout in milliseconds, 0 to wait for ever
+     */
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * Get how long a client may send nothing before the server sends it a
+     * PING, to which a live client answers PONG.
+     *
+     * @return the interval in milliseconds, 0 to never ping
+     */
+    public int getHeartbeat() {
+        return this.heartbeat;
+    }
+
+    /**
+     * Get how long a game may last before it ends with TIME_UP.
+     *
+     * @return the limit in milliseconds, 0 for untimed games
+     */
+    public int getTimeLimit() {
+        return this.timeLimit;
+    }
+
+    /**
+     * Get the most boards dealt ahead of time for every dimension.
+     *
+     * @return the pool size, 0 to deal every board on the spot
+     */
+    public int getBoardPool() {
+        return this.boardPool;
+    }
+
+    /**
+     * Get the number of ready boards of a dimension below which the pool
+     * deals more in the background.
+     *
+     * @return the low water mark, half the pool size unless given
+     */
+    public int getBoardPoolLow() {
+        return this.boardPoolLow < 0 ? this.boardPool / 2 : this.boardPoolLow;
+    }
+
+    /**
+     * Get the seed the seeds of the boards are drawn from.  With a seed the
+     * server deals the same boards in the same order every run, as long as
+     * the connections arrive in the same order.
+     *
+     * @return the seed, null to draw the board seeds independently on
+     *     every thread
+     */
+    public Long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Get the file the first game of every connection is kept in, so a
+     * client can resume it after the server restarts.
+     *
+     * @return the path of the arena file, null if games are not kept
+     */
+    public String getArena() {
+        return this.arena;
+    }
+
+    /**
+     * Get the number of games the arena file holds.  Connections beyond
+     * that play games that are not kept.
+     *
+     * @return the number of slots
+     */
+    public int getArenaSlots() {
+        return this.arenaSlots;
+    }
+
+    /**
+     * Get how long a kept game waits for its client to resume it once the
+     * connection is gone or the server restarted.
+     *
+     * @return the grace period in milliseconds
+     */
+    public int getResumeGrace() {
+        return this.resumeGrace;
+    }
+
+    /**
+     * Get the directory the MoveJournal of every card revealed is written
+     * to.
+     *
+     * @return the path of the directory, null if moves are not journaled
+     */
+    public String getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * Get whether the solution of the first game of every connection is
+     * logged, as the server always used to print it.
+     *
+     * @return whether cheat mode is on
+     */
+    public boolean isCheat() {
+        return this.cheat;
+    }
+}
@@ -0,0 +1,302 @@
+package server;
+
+import common.AsyncLog;
+import common.ConcentrationException;
+import game.MappedConcentrationBoard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the first game of every connection in a memory mapped file, so a
+ * game survives the server going down and its client can resume it once
+ * the server is back.  The file is cut into fixed size slots, each holding
+ * a header and the state of one MappedConcentrationBoard, so a move writes
+ * a few bytes of mapped memory and never calls into the file system.  The
+ * pages are written out by the operating system, which keeps them even if
+ * the server process is killed; the file is only forced to disk when the
+ * server shuts down.
+ *
+ * Every game gets a random token the client is told.  A game whose client
+ * is gone, and every game found in the file at startup, waits for its
+ * client to come back with the token for the resume grace period before
+ * its slot is reused.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class SessionArena {
+    /** the largest board kept in the arena */
+    public static final int MAX_DIM = 16;
+    /** marks an arena file */
+    private static final int MAGIC = 0x434f4e43;
+    /** the size of the file header */
+    private static final int FILE_HEADER = 16;
+    /** the size of the slot header: its state and token */
+    private static final int SLOT_HEADER = 16;
+    /** the size of a slot, rounded up to whole cache lines */
+    private static final int SLOT_SIZE = (SLOT_HEADER + MappedConcentrationBoard.size(MAX_DIM) + 63) & ~63;
+    /** state of a slot holding no game */
+    private static final int FREE = 0;
+    /** state of a slot holding a game */
+    private static final int LIVE = 1;
+
+    /**
+     * A game kept in the arena.
+     */
+    public static final class Slot {
+        /** the number of the slot in the file */
+        private final int index;
+        /** the token its client resumes it with */
+        private final long token;
+        /** the board, whose state is in the slot */
+        private final MappedConcentrationBoard board;
+        /** whether a connection plays the game */
+        private boolean attached;
+        /** the timer freeing the slot if nobody resumes it, null while attached */
+        private TimerWheel.Timeout grace;
+
+        /**
+         * Create the slot.
+         *
+         * @param index the number of the slot
+         * @param token its token
+         * @param board its board
+         */
+        private Slot(int index, long token, MappedConcentrationBoard board) {
+            this.index = index;
+            this.token = token;
+            this.board = board;
+        }
+
+        /**
+         * Get the token the client resumes the game with.
+         *
+         * @return the token, as hexadecimal text
+         */
+        public String getToken() {
+            return Long.toHexString(this.token);
+        }
+
+        /**
+         * Get the board of the game.
+         *
+         * @return the board
+         */
+        public MappedConcentrationBoard getBoard() {
+            return this.board;
+        }
+    }
+
+    /** the file the arena is mapped from */
+    private final FileChannel channel;
+    /** the mapped file */
+    private final MappedByteBuffer map;
+    /** frees the slots nobody resumes */
+    private final TimerWheel timers;
+    /** how long a game waits for its client to resume it, in milliseconds */
+    private final long grace;
+    /** draws the tokens */
+    private final SecureRandom random;
+    /** the games kept, by token, guarded by this */
+    private final Map<Long, Slot> live;
+    /** the numbers of the free slots, guarded by this */
+    private final Deque<Integer> free;
+
+    /**
+     * Map the arena file, creating it if needed, and take up the games it
+     * holds.
+     *
+     * @param path the arena file
+     * @param slots the number of games a new file holds, an existing file
+     *     keeps its own number
+     * @param timers frees the slots nobody resumes
+     * @param grace how long a game waits for its client to resume it, in milliseconds
+     * @throws IOException if the file can not be mapped or is not an arena
+     */
+    public SessionArena(Path path, int slots, TimerWheel timers, long grace) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        this.channel.read(header, 0);
+        if (header.getInt(0) == MAGIC) {
+            if (header.getInt(4) != SLOT_SIZE) {
+                this.channel.close();
+                throw new IOException("Arena file has slots of " + header.getInt(4) + " bytes: " + path);
+            }
+            slots = header.getInt(8);
+        } else if (this.channel.size() > 0) {
+            this.channel.close();
+            throw new IOException("Not an arena file: " + path);
+        }
+        this.map = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + (long) slots * SLOT_SIZE);
+        this.map.putInt(0, MAGIC);
+        this.map.putInt(4, SLOT_SIZE);
+        this.map.putInt(8, slots);
+        this.timers = timers;
+        this.grace = grace;
+        this.random = new SecureRandom();
+        this.live = new HashMap<>();
+        this.free = new ArrayDeque<>();
+        for (int i = 0; i < slots; ++i) {
+            Slot slot = recover(i);
+            if (slot == null) {
+                this.free.add(i);
+            } else {
+                this.live.put(slot.token, slot);
+                detach(slot);
+            }
+        }
+    }
+
+    /**
+     * Take up the game a slot holds from a previous run.
+     *
+     * @param index the number of the slot
+     * @return the game, null if the slot is free or does not hold a board
+     */
+    private Slot recover(int index) {
+        int offset = FILE_HEADER + index * SLOT_SIZE;
+        if (this.map.getInt(offset) != LIVE) {
+            return null;
+        }
+        try {
+            return new Slot(index, this.map.getLong(offset + 8), MappedConcentrationBoard.attach(board(index)));
+        } catch (ConcentrationException e) {
+            this.map.putInt(offset, FREE);
+            return null;
+        }
+    }
+
+    /**
+     * Get the part of the file holding the board of a slot.
+     *
+     * @param index the number of the slot
+     * @return a buffer over the board state
+     */
+    private ByteBuffer board(int index) {
+        int offset = FILE_HEADER + index * SLOT_SIZE + SLOT_HEADER;
+        return this.map.slice(offset, SLOT_SIZE - SLOT_HEADER);
+    }
+
+    /**
+     * Deal a new game into a free slot.
+     *
+     * @param dim the square dimension of the board, at most MAX_DIM
+     * @param seed the seed to shuffle its cards with
+     * @return the game, attached to the caller, null if every slot is taken
+     * @throws ConcentrationException if the dimension is invalid
+     */
+    public synchronized Slot allocate(int dim, long seed) throws ConcentrationException {
+        Integer index = this.free.peek();
+        if (index == null) {
+            return null;
+        }
+        MappedConcentrationBoard board = MappedConcentrationBoard.deal(board(index), dim, seed);
+        this.free.poll();
+        long token;
+        do {
+            token = this.random.nextLong();
+        } while (this.live.containsKey(token));
+        int offset = FILE_HEADER + index * SLOT_SIZE;
+        this.map.putLong(offset + 8, token);
+        this.map.putInt(offset, LIVE);
+        Slot slot = new Slot(index, token, board);
+        slot.attached = true;
+        this.live.put(token, slot);
+        return slot;
+    }
+
+    /**
+     * Hand a game whose client is gone to a connection that came back
+     * with its token.
+     *
+     * @param token the token, as hexadecimal text
+     * @return the game, attached to the caller, null if no game waits for the token
+     */
+    public synchronized Slot resume(String token) {
+        Slot slot;
+        try {
+            slot = this.live.get(Long.parseUnsignedLong(token, 16));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (slot == null || slot.attached) {
+            return null;
+        }
+        slot.grace.cancel();
+        slot.grace = null;
+        slot.attached = true;
+        return slot;
+    }
+
+    /**
+     * Keep a game whose connection is gone for its client to resume.  The
+     * slot is freed if nobody does within the grace period.
+     *
+     * @param slot the game
+     */
+    public synchronized void detach(Slot slot) {
+        if (this.live.get(slot.token) != slot) {
+            return;
+        }
+        slot.attached = false;
+        slot.grace = this.timers.arm(this.grace, () -> expire(slot));
+    }
+
+    /**
+     * Free the slot of a game nobody resumed.
+     *
+     * @param slot the game
+     */
+    private synchronized void expire(Slot slot) {
+        if (!slot.attached) {
+            free(slot);
+        }
+    }
+
+    /**
+     * Free the slot of a game that is over.
+     *
+     * @param slot the game
+     */
+    public synchronized void free(Slot slot) {
+        if (this.live.remove(slot.token, slot)) {
+            if (slot.grace != null) {
+                slot.grace.cancel();
+            }
+            this.map.putInt(FILE_HEADER + slot.index * SLOT_SIZE, FREE);
+            this.free.push(slot.index);
+        }
+    }
+
+    /**
+     * Get the number of games kept, played or waiting to be resumed.
+     *
+     * @return the count
+     */
+    public synchronized int size() {
+        return this.live.size();
+    }
+
+    /**
+     * Write the arena out and close its file.  The games in it stay for
+     * the next run to take up.
+     */
+    public synchronized void close() {
+        try {
+            this.map.force();
+            this.channel.close();
+        } catch (IOException e) {
+            AsyncLog.get().log(AsyncLog.Level.WARN, "ARENA_CLOSE_FAILED", e.getMessage());
+        }
+    }
+}
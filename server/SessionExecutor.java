@@ -0,0 +1,101 @@
+package server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every game session on its own virtual thread.  The sessions keep
+ * their simple blocking style, but a session waiting for its client only
+ * parks a virtual thread instead of holding an OS thread, so a server can
+ * hold far more games than it has threads.
+ *
+ * The virtual thread API is looked up reflectively so the server still
+ * builds on a JDK without it.  Such a JDK can not run the virtual mode at
+ * all: the executor refuses to start rather than quietly running a platform
+ * thread per connection.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class SessionExecutor {
+    /** the prefix of the name of every session thread */
+    private static final String THREAD_NAME = "server.ConcentrationSession-";
+    /** how long to wait for the carrier threads to start, in milliseconds */
+    private static final long CARRIER_START_TIMEOUT = 1000;
+
+    /** creates the session threads */
+    private final ThreadFactory factory;
+
+    /**
+     * Create the executor.
+     *
+     * @param carriers the number of carrier threads to start up front, 0 to
+     *     leave the carrier pool to the JDK defaults
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    public SessionExecutor(int carriers) {
+        if (carriers > 0) {
+            // only honored if set before the first virtual thread is created
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", String.valueOf(carriers));
+            System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", String.valueOf(carriers));
+        }
+        ThreadFactory virtual = virtualThreadFactory();
+        if (virtual == null) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads are not supported by this JVM, use --mode=thread or --mode=nio");
+        }
+        this.factory = virtual;
+        if (carriers > 0) {
+            startCarriers(carriers);
+        }
+    }
+
+    /**
+     * Start a session on a thread of its own.  The number of sessions is
+     * bounded by the server's AdmissionController, not here.  Also runs the
+     * writes a StreamOutput hands off, a virtual thread being cheaper than
+     * a pool.
+     *
+     * @param session the session to run
+     */
+    public void execute(Runnable session) {
+        this.factory.newThread(session).start();
+    }
+
+    /**
+     * Look up Thread.ofVirtual().name(...).factory().
+     *
+     * @return the virtual thread factory, or null if the JVM has no virtual threads
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME, 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Make the virtual thread scheduler start its carrier threads now
+     * rather than during the first burst of connections.  One virtual
+     * thread per carrier spins until all of them are running at once,
+     * which is only possible with every carrier started.
+     *
+     * @param carriers the number of carrier threads
+     */
+    private void startCarriers(int carriers) {
+        AtomicInteger running = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CARRIER_START_TIMEOUT);
+        for (int i = 0; i < carriers; ++i) {
+            this.factory.newThread(() -> {
+                running.incrementAndGet();
+                while (running.get() < carriers && System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+            }).start();
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package server;
+
+import common.AsyncLog;
+import common.BinaryCodec;
+import common.ConcentrationException;
+import common.ConcentrationProtocol;
+import common.ProtocolCodec;
+import game.GameBoard;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A board shared by MIN_SEATS to MAX_SEATS players of any sessions, who
+ * take turns on it.  A turn lasts until a pair does not match, and every
+ * card revealed, every pair and every change of turn is told to every
+ * seat.
+ *
+ * The table is changed by one thread at a time without a lock.  Joining,
+ * revealing and leaving are queued as tasks, and the thread that queues a
+ * task while none is running claims the table with one atomic increment
+ * and runs every task queued until the count drops back to zero; any
+ * other thread just queues its task and returns.  The board therefore
+ * only ever has a single writer, a busy table costs the threads of its own
+ * players and nobody else's, and the tasks only hand the replies to the
+ * seats, which send them from their own sessions.
+ *
+ * Spectators follow the table too.  Every event is encoded once per
+ * encoding, routed as the game numbered like the table, and the same read
+ * only buffer is offered to every spectator, see Spectator.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class SharedTable {
+    /**
+     * A player at the table.  The table calls it from whichever thread
+     * runs the table, so it must hand its work to its own session rather
+     * than do it there.
+     */
+    public interface Seat {
+        /**
+         * The player joined the table.
+         *
+         * @param table the table
+         * @param seat the number of its seat
+         */
+        void seated(SharedTable table, int seat);
+
+        /**
+         * A card was revealed.
+         *
+         * @param cell the cell of the card
+         * @param pair its pair number
+         */
+        void card(int cell, int pair);
+
+        /**
+         * A pair was completed.
+         *
+         * @param firstCell the cell of the first card
+         * @param cell the cell of the second card
+         * @param match whether the cards match
+         */
+        void pair(int firstCell, int cell, boolean match);
+
+        /**
+         * A turn started.
+         *
+         * @param seat the seat whose turn it is
+         */
+        void turn(int seat);
+
+        /**
+         * Every pair was matched.
+         */
+        void gameOver();
+
+        /**
+         * The player's last request was refused, its join included.
+         *
+         * @param msg why
+         */
+        void error(String msg);
+    }
+
+    /** the server the table belongs to */
+    private final ServerContext context;
+    /** the number of the table */
+    private final int number;
+    /** the ID the moves on the table are journaled under */
+    private final long sessionId;
+    /** the board */
+    private final GameBoard board;
+    /** the square dimension of the board */
+    private final int dim;
+    /** the tasks waiting to run */
+    private final Queue<Runnable> tasks;
+    /** the number of tasks queued and not yet run, the table is claimed while positive */
+    private final AtomicInteger pending;
+    /** the players by seat, null where a seat is free */
+    private final Seat[] seats;
+    /** when the board was dealt, in System.nanoTime() units */
+    private final long dealt;
+    /** the number of players seated */
+    private int seated;
+    /** the seat whose turn it is */
+    private int turn;
+    /** whether the first card was revealed, after which nobody may join */
+    private boolean started;
+    /** whether the table is gone, because the game is over or everybody left */
+    private boolean closed;
+    /** the number of cards revealed */
+    private int moves;
+    /** the clients following the table */
+    private final List<Spectator> spectators;
+    /** the pair of every card face up, -1 where a card is face down */
+    private final int[] faceUp;
+    /** the number of cards face up */
+    private int faceUpCount;
+    /** encodes the text events for the size of the board */
+    private final ProtocolCodec codec;
+    /** the buffer an event is encoded in */
+    private final ByteBuffer frame;
+    /** the buffer an event is routed to the table in */
+    private final ByteBuffer routed;
+    /** the table as it stands in each encoding, text first, null once it changed */
+    private final ByteBuffer[] snapshots;
+    /** the last event of the table in each encoding, text first, null until it ended */
+    private final ByteBuffer[] last;
+
+    /**
+     * Create a table.
+     *
+     * @param context the server the table belongs to
+     * @param number the number of the table
+     * @param sessionId the ID the moves are journaled under
+     * @param board its board
+     */
+    SharedTable(ServerContext context, int number, long sessionId, GameBoard board) {
+        this.context = context;
+        this.number = number;
+        this.sessionId = sessionId;
+        this.board = board;
+        this.dim = board.getDIM();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.pending = new AtomicInteger();
+        this.seats = new Seat[ConcentrationProtocol.MAX_SEATS];
+        this.dealt = System.nanoTime();
+        this.spectators = new ArrayList<>();
+        this.faceUp = new int[this.dim * this.dim];
+        Arrays.fill(this.faceUp, -1);
+        this.codec = ProtocolCodec.forDim(this.dim);
+        this.frame = ByteBuffer.allocate(BinaryCodec.MAX_FRAME);
+        this.routed = ByteBuffer.allocate(BinaryCodec.MAX_FRAME + 16);
+        this.snapshots = new ByteBuffer[2];
+        this.last = new ByteBuffer[2];
+    }
+
+    /**
+     * Get the number of the table.
+     *
+     * @return the number
+     */
+    public int getNumber() {
+        return this.number;
+    }
+
+    /**
+     * Sit a player at the table.  It is told its seat, or why it can not
+     * sit, once the table got to it.
+     *
+     * @param seat the player
+     * @param dim the square dimension of the board the player expects
+     */
+    public void join(Seat seat, int dim) {
+        submit(() -> {
+            if (this.closed) {
+                // the table closed after the player found it, find or deal it again
+                try {
+                    this.context.joinTable(this.number, dim, seat);
+                } catch (ConcentrationException ce) {
+                    seat.error(ce.getMessage());
+                }
+            } else if (dim != this.dim) {
+                seat.error("Table " + this.number + " has a board of " + this.dim);
+            } else if (this.started) {
+                seat.error("Table " + this.number + " is playing");
+            } else if (this.seated == this.seats.length) {
+                seat.error("Table " + this.number + " is full");
+            } else {
+                int free = 0;
+                while (this.seats[free] != null) {
+                    ++free;
+                }
+                this.seats[free] = seat;
+                ++this.seated;
+                seat.seated(this, free);
+                if (this.seated == ConcentrationProtocol.MIN_SEATS) {
+                    this.turn = first(0);
+                    broadcastTurn();
+                } else if (this.seated > ConcentrationProtocol.MIN_SEATS) {
+                    seat.turn(this.turn);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reveal a card for a player.
+     *
+     * @param seat the player
+     * @param row the row of the card
+     * @param col the column of the card
+     */
+    public void reveal(Seat seat, int row, int col) {
+        submit(() -> {
+            if (this.closed) {
+                seat.error("Game over");
+            } else if (this.seated < ConcentrationProtocol.MIN_SEATS && !this.started) {
+                seat.error("Waiting for players");
+            } else if (this.seats[this.turn] != seat) {
+                seat.error("Not your turn");
+            } else {
+                play(seat, row, col);
+            }
+        });
+    }
+
+    /**
+     * Take a player away from the table.  The turn passes on if it was the
+     * player's, and the table closes once nobody is left.
+     *
+     * @param seat the player
+     */
+    public void leave(Seat seat) {
+        submit(() -> {
+            for (int i = 0; i < this.seats.length; ++i) {
+                if (this.seats[i] == seat) {
+                    this.seats[i] = null;
+                    --this.seated;
+                    if (this.seated == 0) {
+                        close();
+                    } else if (i == this.turn && (this.started || this.seated >= ConcentrationProtocol.MIN_SEATS)) {
+                        this.turn = first(i + 1);
+                        broadcastTurn();
+                    }
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Let a client follow the table.  It is sent the table as it stands,
+     * or the last event of the table if it ended meanwhile.
+     *
+     * @param spectator the client
+     */
+    public void watch(Spectator spectator) {
+        submit(() -> {
+            if (this.closed) {
+                spectator.resynced(snapshot(spectator.isBinary()), this.last[spectator.isBinary() ? 1 : 0]);
+            } else {
+                this.spectators.add(spectator);
+                spectator.offer(snapshot(spectator.isBinary()));
+            }
+        });
+    }
+
+    /**
+     * Stop a client following the table.
+     *
+     * @param spectator the client
+     */
+    void unwatch(Spectator spectator) {
+        submit(() -> this.spectators.remove(spectator));
+    }
+
+    /**
+     * Send a client that fell behind the table as it stands, and the last
+     * event of the table if it ended.
+     *
+     * @param spectator the client
+     */
+    void resync(Spectator spectator) {
+        submit(() -> spectator.resynced(snapshot(spectator.isBinary()),
+                this.closed ? this.last[spectator.isBinary() ? 1 : 0] : null));
+    }
+
+    /**
+     * Reveal a card for the player whose turn it is and tell everybody.
+     *
+     * @param seat the player
+     * @param row the row of the card
+     * @param col the column of the card
+     */
+    private void play(Seat seat, int row, int col) {
+        int outcome;
+        try {
+            outcome = this.board.flip(row, col);
+        } catch (ConcentrationException ce) {
+            seat.error(ce.getMessage());
+            return;
+        }
+        ++this.moves;
+        this.context.getMetrics().move();
+        int cell = row * this.dim + col;
+        boolean over = this.board.gameOver();
+        MoveJournal journal = this.context.getJournal();
+        if (journal != null) {
+            int flags = (this.started ? 0 : MoveJournal.FLAG_FIRST_MOVE) | (over ? MoveJournal.FLAG_GAME_OVER : 0);
+            journal.append(this.sessionId, this.board.getSeed(), this.dim, cell, outcome, flags);
+        }
+        this.started = true;
+        int pair = this.board.getLastPair();
+        this.faceUp[cell] = pair;
+        ++this.faceUpCount;
+        for (Seat other : this.seats) {
+            if (other != null) {
+                other.card(cell, pair);
+            }
+        }
+        publish(ConcentrationProtocol.OP_CARD, cell, pair);
+        if (outcome != GameBoard.REVEALED_FIRST) {
+            int firstCell = this.board.getFirstRow() * this.dim + this.board.getFirstCol();
+            if (outcome == GameBoard.MISMATCHED) {
+                this.faceUp[firstCell] = -1;
+                this.faceUp[cell] = -1;
+                this.faceUpCount -= 2;
+            }
+            for (Seat other : this.seats) {
+                if (other != null) {
+                    other.pair(firstCell, cell, outcome == GameBoard.MATCHED);
+                }
+            }
+            publish(outcome == GameBoard.MATCHED ? ConcentrationProtocol.OP_MATCH : ConcentrationProtocol.OP_MISMATCH,
+                    firstCell, cell);
+        }
+        if (over) {
+            this.context.getMetrics().gameOver(System.nanoTime() - this.dealt, this.moves);
+            for (Seat other : this.seats) {
+                if (other != null) {
+                    other.gameOver();
+                }
+            }
+            close();
+        } else if (outcome == GameBoard.MISMATCHED) {
+            this.turn = first(this.turn + 1);
+            broadcastTurn();
+        }
+    }
+
+    /**
+     * Find the first seat taken, going round the table.
+     *
+     * @param from the seat to start from
+     * @return the seat
+     */
+    private int first(int from) {
+        for (int i = 0; i < this.seats.length; ++i) {
+            int seat = (from + i) % this.seats.length;
+            if (this.seats[seat] != null) {
+                return seat;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Tell everybody whose turn it is.
+     */
+    private void broadcastTurn() {
+        for (Seat seat : this.seats) {
+            if (seat != null) {
+                seat.turn(this.turn);
+            }
+        }
+        publish(ConcentrationProtocol.OP_TURN, this.turn, 0);
+    }
+
+    /**
+     * Close the table, so the next player to ask for it gets a new one,
+     * and end it for its spectators with its GAME_OVER, or an ERROR if
+     * everybody left.
+     */
+    private void close() {
+        if (this.closed) {
+            // the players leaving a table whose game is over
+            return;
+        }
+        this.closed = true;
+        this.context.removeTable(this);
+        int op = this.board.gameOver() ? ConcentrationProtocol.OP_GAME_OVER : ConcentrationProtocol.OP_ERROR;
+        this.last[0] = encode(false, op, 0, 0);
+        this.last[1] = encode(true, op, 0, 0);
+        for (Spectator spectator : this.spectators) {
+            spectator.end(this.last[spectator.isBinary() ? 1 : 0]);
+        }
+        this.spectators.clear();
+    }
+
+    /**
+     * Offer an event to every spectator, encoding it at most once per
+     * encoding.
+     *
+     * @param op the opcode of the event
+     * @param a its first argument, a cell or a seat
+     * @param b its second argument, a pair or a cell
+     */
+    private void publish(int op, int a, int b) {
+        this.snapshots[0] = null;
+        this.snapshots[1] = null;
+        ByteBuffer text = null;
+        ByteBuffer binary = null;
+        for (Spectator spectator : this.spectators) {
+            if (spectator.isBinary()) {
+                if (binary == null) {
+                    binary = encode(true, op, a, b);
+                }
+                spectator.offer(binary);
+            } else {
+                if (text == null) {
+                    text = encode(false, op, a, b);
+                }
+                spectator.offer(text);
+            }
+        }
+    }
+
+    /**
+     * Encode an event routed to the table into a read only buffer of its
+     * exact size, which may be shared by any number of spectators.
+     *
+     * @param binary whether to use the binary encoding
+     * @param op the opcode of the event
+     * @param a its first argument, a cell or a seat
+     * @param b its second argument, a pair or a cell
+     * @return the encoded event
+     */
+    private ByteBuffer encode(boolean binary, int op, int a, int b) {
+        this.routed.clear();
+        if (binary) {
+            this.frame.clear();
+            putEvent(this.frame, true, op, a, b);
+            BinaryCodec.putGame(this.routed, this.number, this.frame.flip());
+        } else {
+            ProtocolCodec.putGame(this.routed, this.number);
+            putEvent(this.routed, false, op, a, b);
+        }
+        return share(this.routed.flip());
+    }
+
+    /**
+     * Encode an event without its routing.
+     *
+     * @param out the buffer to write to
+     * @param binary whether to use the binary encoding
+     * @param op the opcode of the event
+     * @param a its first argument, a cell or a seat
+     * @param b its second argument, a pair or a cell
+     */
+    private void putEvent(ByteBuffer out, boolean binary, int op, int a, int b) {
+        if (op == ConcentrationProtocol.OP_CARD && binary) {
+            BinaryCodec.putCard(out, a, b);
+        } else if (op == ConcentrationProtocol.OP_CARD) {
+            this.codec.putCard(out, a / this.dim, a % this.dim, b);
+        } else if ((op == ConcentrationProtocol.OP_MATCH || op == ConcentrationProtocol.OP_MISMATCH) && binary) {
+            BinaryCodec.putMatch(out, op == ConcentrationProtocol.OP_MATCH, a, b);
+        } else if (op == ConcentrationProtocol.OP_MATCH || op == ConcentrationProtocol.OP_MISMATCH) {
+            this.codec.putMatch(out, op == ConcentrationProtocol.OP_MATCH, a / this.dim, a % this.dim,
+                    b / this.dim, b % this.dim);
+        } else if (op == ConcentrationProtocol.OP_TURN && binary) {
+            BinaryCodec.putSeat(out, ConcentrationProtocol.OP_TURN, a);
+        } else if (op == ConcentrationProtocol.OP_TURN) {
+            ProtocolCodec.putSeat(out, ConcentrationProtocol.OP_TURN, a);
+        } else if (op == ConcentrationProtocol.OP_BOARD_DIM && binary) {
+            BinaryCodec.putBoardDim(out, this.dim);
+        } else if (op == ConcentrationProtocol.OP_BOARD_DIM) {
+            this.codec.putBoardDim(out);
+        } else if (op == ConcentrationProtocol.OP_GAME_OVER && binary) {
+            BinaryCodec.putGameOver(out);
+        } else if (op == ConcentrationProtocol.OP_GAME_OVER) {
+            ProtocolCodec.putGameOver(out);
+        } else if (binary) {
+            BinaryCodec.putError(out, "Table closed");
+        } else {
+            ProtocolCodec.putError(out, "Table closed");
+        }
+    }
+
+    /**
+     * Get the table as it stands, its BOARD_DIM, a CARD for every card face
+     * up and the TURN if a turn started, each routed to the table.  It is
+     * encoded once per encoding until the table changes.
+     *
+     * @param binary whether to use the binary encoding
+     * @return the encoded table
+     */
+    private ByteBuffer snapshot(boolean binary) {
+        int index = binary ? 1 : 0;
+        if (this.snapshots[index] == null) {
+            ByteBuffer out = ByteBuffer.allocate((this.faceUpCount + 2) * 48);
+            out = append(out, encode(binary, ConcentrationProtocol.OP_BOARD_DIM, 0, 0));
+            for (int cell = 0; cell < this.faceUp.length; ++cell) {
+                if (this.faceUp[cell] >= 0) {
+                    out = append(out, encode(binary, ConcentrationProtocol.OP_CARD, cell, this.faceUp[cell]));
+                }
+            }
+            if (this.started || this.seated >= ConcentrationProtocol.MIN_SEATS) {
+                out = append(out, encode(binary, ConcentrationProtocol.OP_TURN, this.turn, 0));
+            }
+            this.snapshots[index] = out.flip().asReadOnlyBuffer();
+        }
+        return this.snapshots[index];
+    }
+
+    /**
+     * Append an encoded event to a buffer, growing the buffer if it is
+     * full.
+     *
+     * @param out the buffer
+     * @param event the event
+     * @return the buffer, or a larger copy of it
+     */
+    private static ByteBuffer append(ByteBuffer out, ByteBuffer event) {
+        if (out.remaining() < event.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(2 * out.capacity() + event.remaining());
+            out = larger.put(out.flip());
+        }
+        return out.put(event);
+    }
+
+    /**
+     * Copy encoded bytes into a read only buffer of their exact size.
+     *
+     * @param bytes the bytes, between position and limit
+     * @return the copy
+     */
+    private static ByteBuffer share(ByteBuffer bytes) {
+        ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+        return copy.put(bytes).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Queue a task and, unless another thread runs the table, run it and
+     * every task queued meanwhile.
+     *
+     * @param task the task
+     */
+    private void submit(Runnable task) {
+        this.tasks.add(task);
+        if (this.pending.getAndIncrement() != 0) {
+            return;
+        }
+        int claimed = 1;
+        do {
+            for (int i = 0; i < claimed; ++i) {
+                try {
+                    this.tasks.poll().run();
+                } catch (RuntimeException e) {
+                    AsyncLog.get().log(AsyncLog.Level.ERROR, "TABLE_TASK_FAILED", this.sessionId, e.toString());
+                }
+            }
+            claimed = this.pending.addAndGet(-claimed);
+        } while (claimed != 0);
+    }
+}
@@ -0,0 +1,217 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client following a shared table without a seat.  The table encodes
+ * every event once per encoding into a read only buffer shared by all its
+ * spectators, and offers it to each of them; a spectator queues it and
+ * writes what it has queued from its own session with one gathering write,
+ * so the table never encodes, copies or writes for a single spectator.
+ *
+ * A spectator never holds the table up.  Offering an event only queues it,
+ * and a spectator whose socket does not keep up stops writing until its
+ * backlog drains.  One that falls more than MAX_QUEUED events behind is
+ * marked stale: the table stops queueing for it, it drops what it queued,
+ * and the table sends it the table as it stands instead, so a slow
+ * spectator costs a bounded queue and a snapshot now and then.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class Spectator {
+    /** the most events queued before the spectator is sent a snapshot instead */
+    public static final int MAX_QUEUED = 256;
+    /** the most bytes waiting for the socket before the spectator stops writing */
+    public static final long MAX_BACKLOG = 64 * 1024;
+    /** how long to wait for the backlog to drain, in milliseconds */
+    public static final long RETRY_MILLIS = 100;
+    /** the most events written in one gathering write */
+    private static final int GATHER = 64;
+
+    /** the table followed */
+    private final SharedTable table;
+    /** whether the client uses the binary encoding */
+    private final boolean binary;
+    /** where the events are written */
+    private final ConcentrationSession.Output out;
+    /** runs the retries while the backlog drains */
+    private final TimerWheel timers;
+    /** runs on the session's thread once the table ended and everything was written */
+    private final Runnable onEnd;
+    /** the events queued by the table and not yet written */
+    private final Queue<ByteBuffer> events;
+    /** the number of events queued */
+    private final AtomicInteger queued;
+    /** whether a flush is queued on the session or waiting for the backlog */
+    private final AtomicBoolean scheduled;
+    /** the views of the events of one gathering write, only used by the session */
+    private final ByteBuffer[] gather;
+    /** whether the spectator fell behind and is waiting for a snapshot, set by the table */
+    private volatile boolean stale;
+    /** whether a snapshot was asked for and not sent yet */
+    private volatile boolean resyncing;
+    /** whether the table ended, after queueing its last event unless the spectator is stale */
+    private volatile boolean ended;
+    /** whether the spectator stopped following the table */
+    private volatile boolean closed;
+
+    /**
+     * Create a spectator.  It follows the table once the table was asked
+     * to add it.
+     *
+     * @param table the table to follow
+     * @param binary whether the client uses the binary encoding
+     * @param out where the events are written
+     * @param timers runs the retries while the backlog drains
+     * @param onEnd runs on the session's thread once the table ended
+     */
+    Spectator(SharedTable table, boolean binary, ConcentrationSession.Output out, TimerWheel timers,
+            Runnable onEnd) {
+        this.table = table;
+        this.binary = binary;
+        this.out = out;
+        this.timers = timers;
+        this.onEnd = onEnd;
+        this.events = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+        this.scheduled = new AtomicBoolean();
+        this.gather = new ByteBuffer[GATHER];
+    }
+
+    /**
+     * Whether the client uses the binary encoding.
+     *
+     * @return true for binary, false for text
+     */
+    public boolean isBinary() {
+        return this.binary;
+    }
+
+    /**
+     * Queue an event of the table.  Called by the table's thread.
+     *
+     * @param event the encoded event, shared with the other spectators
+     */
+    void offer(ByteBuffer event) {
+        if (this.stale) {
+            return;
+        }
+        if (this.queued.get() >= MAX_QUEUED) {
+            this.stale = true;
+        } else {
+            this.events.add(event);
+            this.queued.incrementAndGet();
+        }
+        schedule();
+    }
+
+    /**
+     * Queue the table as it stands, which the spectator asked for after it
+     * fell behind.  Called by the table's thread.
+     *
+     * @param snapshot the encoded table
+     * @param last the last event of the table if it ended, or null
+     */
+    void resynced(ByteBuffer snapshot, ByteBuffer last) {
+        this.events.add(snapshot);
+        this.queued.incrementAndGet();
+        if (last != null) {
+            this.events.add(last);
+            this.queued.incrementAndGet();
+            this.ended = true;
+        }
+        this.stale = false;
+        this.resyncing = false;
+        schedule();
+    }
+
+    /**
+     * Queue the last event of the table.  A stale spectator gets it with
+     * the snapshot it asks for instead.  Called by the table's thread.
+     *
+     * @param last the encoded event
+     */
+    void end(ByteBuffer last) {
+        if (!this.stale) {
+            // queued before ended is set, so a flush that sees ended also sees the event
+            this.events.add(last);
+            this.queued.incrementAndGet();
+            this.ended = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Stop following the table.  Called by the session's thread.
+     */
+    void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.table.unwatch(this);
+        }
+    }
+
+    /**
+     * Queue a flush on the session, unless one is queued already.
+     */
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.out.execute(this::flush);
+        }
+    }
+
+    /**
+     * Write the queued events, on the session's thread.  A stale
+     * spectator drops them and asks for a snapshot, and a spectator whose
+     * socket is behind tries again later, staying scheduled meanwhile so
+     * the table does not queue more flushes.
+     */
+    private void flush() {
+        if (this.closed) {
+            return;
+        }
+        if (this.stale && !this.resyncing) {
+            // the table queues nothing while the spectator is stale, so all of it is old
+            int dropped = 0;
+            while (this.events.poll() != null) {
+                ++dropped;
+            }
+            this.queued.addAndGet(-dropped);
+            this.resyncing = true;
+            this.table.resync(this);
+        }
+        if (this.out.getBacklog() > MAX_BACKLOG) {
+            this.timers.arm(RETRY_MILLIS, () -> this.out.execute(this::flush));
+            return;
+        }
+        this.scheduled.set(false);
+        int count = 0;
+        int written = 0;
+        ByteBuffer event;
+        while ((event = this.events.poll()) != null) {
+            // a view of its own, the shared buffer's position never moves
+            this.gather[count++] = event.duplicate();
+            if (count == GATHER) {
+                this.out.sendShared(this.gather, count);
+                written += count;
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            this.out.sendShared(this.gather, count);
+            written += count;
+        }
+        this.queued.addAndGet(-written);
+        for (int i = 0; i < GATHER; ++i) {
+            this.gather[i] = null;
+        }
+        if (this.ended && !this.stale && this.events.isEmpty()) {
+            this.closed = true;
+            this.onEnd.run();
+        }
+    }
+}
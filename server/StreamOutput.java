@@ -0,0 +1,485 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The Output of a session on a blocking socket.  Every message is queued,
+ * and the queue is written by one thread at a time, never while the
+ * session lock is held:
+ * <ul>
+ *     <li>what the session sends while handling its client is written by
+ *     the session thread itself once it lets go of the session, so the
+ *     replies to a read cost no other thread;</li>
+ *     <li>what the tasks of the session's timers and tables send, and a
+ *     delayed message once the shared scheduler finds it due, is handed to
+ *     the shared writers, which start a thread only while the ones they
+ *     have are busy, e.g. blocked on clients that stopped reading.</li>
+ * </ul>
+ * So neither the shared scheduler nor another session ever waits for a
+ * slow client.  A delayed message waits in the queue until it is due, and
+ * the messages sent after it wait behind it to keep the protocol order.
+ * The queue is bounded: once more than ConcentrationSession.MAX_BACKLOG
+ * bytes wait, the client is taken to be gone and the connection is closed.
+ *
+ * The session thread handles what it receives between lockSession and
+ * unlockSession, and the tasks of the session's timers and tables run on
+ * the shared scheduler under the same lock, so the two never touch the
+ * session at once.  The locks are ReentrantLocks rather than monitors,
+ * which would pin the carrier of a virtual session thread.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class StreamOutput implements ConcentrationSession.Output {
+    /**
+     * A message waiting to be written.
+     */
+    private static class Pending {
+        /** the encoded message */
+        private final byte[] bytes;
+        /** the earliest time it may be written, in System.nanoTime() units */
+        private final long due;
+
+        /**
+         * Create the pending message.
+         *
+         * @param bytes the encoded message
+         * @param due the earliest time it may be written
+         */
+        private Pending(byte[] bytes, long due) {
+            this.bytes = bytes;
+            this.due = due;
+        }
+    }
+
+    /** the client's output stream */
+    private final OutputStream out;
+    /** the client connection, closed by finish */
+    private final Closeable connection;
+    /** runs the timer and table tasks of the session, and finds the delayed messages due */
+    private final ScheduledExecutorService scheduler;
+    /** write the queue when the session thread is not there to */
+    private final Executor writers;
+    /** held while the session is touched */
+    private final ReentrantLock sessionLock;
+    /** guards the queue and the flags below */
+    private final ReentrantLock queueLock;
+    /** signalled whenever the backlog shrinks or the writing stops */
+    private final Condition changed;
+    /** the messages not yet written, in order */
+    private final ArrayDeque<Pending> pending;
+    /** the bytes of the messages not yet written */
+    private long backlog;
+    /** set while the session thread holds the session, it writes what is queued meanwhile */
+    private boolean receiving;
+    /** set while a thread writes the queue */
+    private boolean writing;
+    /** set once a write failed or the backlog overflowed, everything after it is dropped */
+    private boolean failed;
+    /** set once the connection is to be closed after the last queued message */
+    private boolean finishing;
+    /** set once the session ended, nothing more is written */
+    private boolean closed;
+
+    /**
+     * Create the output.
+     *
+     * @param out the client's output stream
+     * @param connection the client connection
+     * @param scheduler runs the timer and table tasks of the session
+     * @param writers write the queue when the session thread is not there to
+     */
+    public StreamOutput(OutputStream out, Closeable connection, ScheduledExecutorService scheduler,
+            Executor writers) {
+        this.out = out;
+        this.connection = connection;
+        this.scheduler = scheduler;
+        this.writers = writers;
+        this.sessionLock = new ReentrantLock();
+        this.queueLock = new ReentrantLock();
+        this.changed = this.queueLock.newCondition();
+        this.pending = new ArrayDeque<>();
+    }
+
+    /**
+     * Take the session on the session thread, waiting for a task of its
+     * timers or tables to finish.  What is sent until unlockSession is
+     * written by the session thread then.
+     */
+    public void lockSession() {
+        this.sessionLock.lock();
+        this.queueLock.lock();
+        try {
+            this.receiving = true;
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Let go of the session and write what it sent meanwhile, on the
+     * session thread, unless another thread is writing already.  Blocks
+     * while the client does not take the messages, which only holds up
+     * this session.
+     */
+    public void unlockSession() {
+        boolean write;
+        long wait;
+        this.queueLock.lock();
+        try {
+            this.receiving = false;
+            write = claimWriting();
+            wait = write ? 0 : untilDue();
+        } finally {
+            this.queueLock.unlock();
+        }
+        this.sessionLock.unlock();
+        if (write) {
+            writeDue();
+        } else if (wait > 0) {
+            wakeIn(wait);
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer msg) {
+        queue(copy(msg), 0);
+    }
+
+    @Override
+    public void sendDelayed(ByteBuffer msg, long millis) {
+        long delay = TimeUnit.MILLISECONDS.toNanos(millis);
+        queue(copy(msg), System.nanoTime() + delay);
+        wakeIn(delay);
+    }
+
+    @Override
+    public void sendShared(ByteBuffer[] msgs, int count) {
+        int length = 0;
+        for (int i = 0; i < count; ++i) {
+            length += msgs[i].remaining();
+        }
+        byte[] bytes = new byte[length];
+        int at = 0;
+        for (int i = 0; i < count; ++i) {
+            int n = msgs[i].remaining();
+            msgs[i].get(bytes, at, n);
+            at += n;
+        }
+        queue(bytes, 0);
+    }
+
+    @Override
+    public long getBacklog() {
+        this.queueLock.lock();
+        try {
+            return this.backlog;
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        this.scheduler.execute(() -> {
+            this.sessionLock.lock();
+            try {
+                if (!isClosed()) {
+                    task.run();
+                }
+            } finally {
+                this.sessionLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void finish() {
+        this.queueLock.lock();
+        try {
+            this.finishing = true;
+        } finally {
+            this.queueLock.unlock();
+        }
+        wake();
+    }
+
+    /**
+     * Has the connection been closed by finish?  The session thread then
+     * sees its read fail and should take it as the end of the session.
+     *
+     * @return whether finish was called
+     */
+    public boolean isFinished() {
+        this.queueLock.lock();
+        try {
+            return this.finishing;
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every queued message was written or dropped, used before
+     * the connection is closed.  If interrupted the rest is dropped.
+     */
+    public void awaitDrained() {
+        this.queueLock.lock();
+        try {
+            while (this.backlog > 0 && !this.failed && !this.closed) {
+                this.changed.await();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Stop writing once the session ended, dropping whatever was not
+     * written.  Tasks handed to execute afterwards are skipped.
+     */
+    public void close() {
+        this.queueLock.lock();
+        try {
+            this.closed = true;
+            this.pending.clear();
+            this.backlog = 0;
+            this.changed.signalAll();
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Whether the session ended.
+     *
+     * @return true once close was called
+     */
+    private boolean isClosed() {
+        this.queueLock.lock();
+        try {
+            return this.closed;
+        } finally {
+            this.queueLock.unlock();
+        }
+    }
+
+    /**
+     * Queue a message.  Unless the session thread is handling its client
+     * and writes it afterwards, the writers are woken.  A client whose
+     * backlog overflows is hung up on.
+     *
+     * @param bytes the encoded message, owned by the queue from now on
+     * @param due the earliest time it may be written
+     */
+    private void queue(byte[] bytes, long due) {
+        boolean wake;
+        this.queueLock.lock();
+        try {
+            if (this.failed || this.closed) {
+                return;
+            }
+            if (this.backlog + bytes.length > ConcentrationSession.MAX_BACKLOG) {
+                // the client stopped reading, closing ends the blocked write and the session's read
+                this.failed = true;
+                this.pending.clear();
+                this.backlog = 0;
+                this.changed.signalAll();
+                closeConnection();
+                return;
+            }
+            this.pending.add(new Pending(bytes, due));
+            this.backlog += bytes.length;
+            wake = !this.receiving && claimWriting();
+        } finally {
+            this.queueLock.unlock();
+        }
+        if (wake) {
+            this.writers.execute(this::writeDue);
+        }
+    }
+
+    /**
+     * Hand the queue to the writers if something in it is due, or the
+     * connection is to be closed, and nobody is writing it.  Run by the
+     * scheduler when a delayed message falls due, and by finish.  The
+     * session thread, or a thread writing already, checks the queue again
+     * when it is done, so the wake is only needed if neither is there.
+     */
+    private void wake() {
+        boolean wake;
+        long wait;
+        this.queueLock.lock();
+        try {
+            wake = !this.receiving && claimWriting();
+            wait = wake || this.receiving || this.writing ? 0 : untilDue();
+        } finally {
+            this.queueLock.unlock();
+        }
+        if (wake) {
+            this.writers.execute(this::writeDue);
+        } else if (wait > 0) {
+            wakeIn(wait);
+        }
+    }
+
+    /**
+     * Have the shared scheduler wake the writers once a delayed message is
+     * due.
+     *
+     * @param nanos how long to wait
+     */
+    private void wakeIn(long nanos) {
+        this.scheduler.schedule(this::wake, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get how long the head of the queue waits before it is due.  Called
+     * holding the queue lock.
+     *
+     * @return the nanoseconds, 0 if it is due or there is nothing to wait for
+     */
+    private long untilDue() {
+        Pending head = this.pending.peek();
+        return head == null || this.failed || this.closed ? 0 : Math.max(0, head.due - System.nanoTime());
+    }
+
+    /**
+     * Become the one thread writing the queue if there is something to do:
+     * a message is due, or the connection is finishing and nothing is left
+     * to write before closing it.  Called holding the queue lock.
+     *
+     * @return true if the caller is to call writeDue
+     */
+    private boolean claimWriting() {
+        if (this.writing || this.closed) {
+            return false;
+        }
+        Pending head = this.pending.peek();
+        boolean due = head != null && head.due <= System.nanoTime();
+        if (due || (this.finishing && (head == null || this.failed))) {
+            this.writing = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the queued messages that are due, outside the queue lock, until
+     * none is left, then give up writing.  Closes the connection once it is
+     * finishing and everything was written.  A delayed message left in the
+     * queue is written once the scheduler wakes the writers for it.  Run by
+     * the session thread or by the writers, by one thread at a time.
+     */
+    private void writeDue() {
+        ArrayDeque<byte[]> due = new ArrayDeque<>();
+        long wait;
+        while (true) {
+            this.queueLock.lock();
+            try {
+                long now = System.nanoTime();
+                while (!this.closed && !this.pending.isEmpty() && this.pending.peek().due <= now) {
+                    due.add(this.pending.poll().bytes);
+                }
+                if (due.isEmpty()) {
+                    this.writing = false;
+                    if (this.finishing && !this.closed && (this.pending.isEmpty() || this.failed)) {
+                        closeConnection();
+                    }
+                    this.changed.signalAll();
+                    wait = untilDue();
+                    break;
+                }
+            } finally {
+                this.queueLock.unlock();
+            }
+            long written = write(due);
+            this.queueLock.lock();
+            try {
+                this.backlog = Math.max(0, this.backlog - written);
+                this.changed.signalAll();
+            } finally {
+                this.queueLock.unlock();
+            }
+        }
+        if (wait > 0) {
+            // a delayed message is left, and the wake scheduled for it may have come while this wrote
+            wakeIn(wait);
+        }
+    }
+
+    /**
+     * Write messages to the client and flush them.  A failed write means
+     * the client is gone, the session finds out on its next read.
+     *
+     * @param messages the messages, emptied
+     * @return the number of bytes taken off the queue
+     */
+    private long write(ArrayDeque<byte[]> messages) {
+        long written = 0;
+        boolean ok = true;
+        byte[] bytes;
+        while ((bytes = messages.poll()) != null) {
+            written += bytes.length;
+            try {
+                if (ok) {
+                    this.out.write(bytes, 0, bytes.length);
+                }
+            } catch (IOException e) {
+                ok = false;
+            }
+        }
+        try {
+            if (ok) {
+                this.out.flush();
+            }
+        } catch (IOException e) {
+            ok = false;
+        }
+        if (!ok) {
+            this.queueLock.lock();
+            try {
+                this.failed = true;
+                this.pending.clear();
+                this.backlog = 0;
+            } finally {
+                this.queueLock.unlock();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Close the connection, which also ends the blocking read of the
+     * session thread.
+     */
+    private void closeConnection() {
+        try {
+            this.connection.close();
+        } catch (IOException e) {
+            // nothing left to do with a connection that can not be closed
+        }
+    }
+
+    /**
+     * Copy a message so the session can reuse its buffer.
+     *
+     * @param msg the encoded message
+     * @return the copy
+     */
+    private static byte[] copy(ByteBuffer msg) {
+        int from = msg.arrayOffset() + msg.position();
+        return Arrays.copyOfRange(msg.array(), from, from + msg.remaining());
+    }
+}
@@ -0,0 +1,340 @@
+package server;
+
+import common.AsyncLog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A hashed timer wheel shared by every session of a server, for the idle
+ * timeouts, heartbeats and game clocks.  Time is cut into ticks and the
+ * timers hash into a ring of buckets by the tick they are due in; a timer
+ * more than one turn of the ring away waits out the extra turns in its
+ * bucket.  Arming and cancelling are O(1) and lock free from any thread,
+ * and a single thread advances the wheel, so millions of armed timers cost
+ * one small object each and no thread of their own.
+ *
+ * A timer fires within one tick after it is due.  Its task runs on the
+ * wheel thread and must be short: a task that touches a session hands
+ * itself over to the thread that owns the session.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class TimerWheel implements Runnable {
+    /** the default length of a tick, in milliseconds */
+    public static final int TICK_MILLIS = 10;
+    /** the default number of buckets, a power of two */
+    public static final int BUCKETS = 512;
+
+    /** state of a timer that is waiting to fire */
+    private static final int ARMED = 0;
+    /** state of a timer that was cancelled */
+    private static final int CANCELLED = 1;
+    /** state of a timer whose task ran */
+    private static final int EXPIRED = 2;
+
+    /**
+     * An armed timer.  It is linked into the arming stack, then into its
+     * bucket, and into the cancelling stack if it is cancelled.
+     */
+    public static final class Timeout {
+        /** changes the state of a timer without an atomic object per timer */
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        /** the wheel the timer is armed on */
+        private final TimerWheel wheel;
+        /** what to run when the timer fires */
+        private final Runnable task;
+        /** when the timer is due, in nanoseconds since the wheel started */
+        private final long deadline;
+        /** ARMED, CANCELLED or EXPIRED */
+        private volatile int state;
+        /** the turns of the ring left before the timer fires */
+        private long rounds;
+        /** the bucket holding the timer, null until the wheel thread placed it */
+        private Bucket bucket;
+        /** the previous timer in the bucket */
+        private Timeout prev;
+        /** the next timer in the bucket */
+        private Timeout next;
+        /** the next timer on the arming stack */
+        private Timeout nextArmed;
+        /** the next timer on the cancelling stack */
+        private Timeout nextCancelled;
+
+        /**
+         * Create the timer.
+         *
+         * @param wheel the wheel it is armed on
+         * @param task what to run
+         * @param deadline when it is due, in nanoseconds since the wheel started
+         */
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timer.  Safe to call from any thread and more than once.
+         *
+         * @return false if the timer already fired or was cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, ARMED, CANCELLED)) {
+                return false;
+            }
+            this.wheel.push(this.wheel.cancelled, this, true);
+            return true;
+        }
+
+        /**
+         * Has the timer fired or been cancelled?
+         *
+         * @return whether it is no longer armed
+         */
+        public boolean isDone() {
+            return this.state != ARMED;
+        }
+    }
+
+    /**
+     * The timers hashed to one slot of the ring, doubly linked so any of
+     * them can be unlinked in O(1).  Only touched by the wheel thread.
+     */
+    private static final class Bucket {
+        /** the first timer */
+        private Timeout head;
+        /** the last timer */
+        private Timeout tail;
+
+        /**
+         * Append a timer.
+         *
+         * @param timeout the timer
+         */
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = this.tail;
+            timeout.next = null;
+            if (this.tail == null) {
+                this.head = timeout;
+            } else {
+                this.tail.next = timeout;
+            }
+            this.tail = timeout;
+        }
+
+        /**
+         * Unlink a timer.
+         *
+         * @param timeout the timer, which must be in this bucket
+         * @return the timer that followed it
+         */
+        private Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev == null) {
+                this.head = next;
+            } else {
+                timeout.prev.next = next;
+            }
+            if (next == null) {
+                this.tail = timeout.prev;
+            } else {
+                next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+            return next;
+        }
+    }
+
+    /** the ring of buckets */
+    private final Bucket[] buckets;
+    /** selects the bucket of a tick */
+    private final int mask;
+    /** the length of a tick, in nanoseconds */
+    private final long tickNanos;
+    /** when the wheel started, in System.nanoTime() units */
+    private final long start;
+    /** the timers armed and not yet placed in their bucket, newest first */
+    private final AtomicReference<Timeout> armed;
+    /** the timers cancelled and not yet unlinked, newest first */
+    private final AtomicReference<Timeout> cancelled;
+    /** the number of armed timers */
+    private final AtomicInteger size;
+    /** the thread advancing the wheel */
+    private final Thread thread;
+    /** the ticks the wheel has advanced, only touched by the wheel thread */
+    private long tick;
+    /** set once the wheel is stopped */
+    private volatile boolean stopped;
+
+    /**
+     * Create the wheel and start its thread.
+     *
+     * @param tickMillis the length of a tick in milliseconds, the precision of the timers
+     * @param buckets the number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(int tickMillis, int buckets) {
+        if (tickMillis <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("tick and buckets must be positive");
+        }
+        int size = 1;
+        while (size < buckets) {
+            size <<= 1;
+        }
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < this.buckets.length; ++i) {
+            this.buckets[i] = new Bucket();
+        }
+        this.mask = this.buckets.length - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.start = System.nanoTime();
+        this.armed = new AtomicReference<>();
+        this.cancelled = new AtomicReference<>();
+        this.size = new AtomicInteger();
+        this.thread = new Thread(this, "server.TimerWheel");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Arm a timer.  Safe to call from any thread.
+     *
+     * @param millis how long from now the timer is due, in milliseconds
+     * @param task what to run on the wheel thread when it fires
+     * @return the timer, to cancel it
+     */
+    public Timeout arm(long millis, Runnable task) {
+        long deadline = System.nanoTime() - this.start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        Timeout timeout = new Timeout(this, task, deadline);
+        this.size.incrementAndGet();
+        push(this.armed, timeout, false);
+        return timeout;
+    }
+
+    /**
+     * Get the number of timers armed and neither fired nor cancelled yet.
+     *
+     * @return the count
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Push a timer on one of the stacks the wheel thread drains.
+     *
+     * @param stack the arming or the cancelling stack
+     * @param timeout the timer
+     * @param cancelling whether it is the cancelling stack
+     */
+    private void push(AtomicReference<Timeout> stack, Timeout timeout, boolean cancelling) {
+        Timeout head;
+        do {
+            head = stack.get();
+            if (cancelling) {
+                timeout.nextCancelled = head;
+            } else {
+                timeout.nextArmed = head;
+            }
+        } while (!stack.compareAndSet(head, timeout));
+    }
+
+    /**
+     * Advance the wheel a tick at a time until it is stopped.
+     */
+    @Override
+    public void run() {
+        while (!this.stopped) {
+            long due = (this.tick + 1) * this.tickNanos;
+            long wait;
+            while ((wait = due - (System.nanoTime() - this.start)) > 0 && !this.stopped) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    // woken by stop, the loop condition tells
+                }
+            }
+            placeArmed();
+            unlinkCancelled();
+            expire(this.buckets[(int) (this.tick & this.mask)]);
+            ++this.tick;
+        }
+    }
+
+    /**
+     * Move the newly armed timers into their buckets.  A timer that is
+     * already due goes into the bucket about to expire.
+     */
+    private void placeArmed() {
+        Timeout timeout = this.armed.getAndSet(null);
+        while (timeout != null) {
+            Timeout next = timeout.nextArmed;
+            timeout.nextArmed = null;
+            if (!timeout.isDone()) {
+                long dueTick = Math.max(timeout.deadline / this.tickNanos, this.tick);
+                timeout.rounds = (dueTick - this.tick) / this.buckets.length;
+                this.buckets[(int) (dueTick & this.mask)].add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Unlink the cancelled timers from their buckets so they do not linger
+     * until their deadline.
+     */
+    private void unlinkCancelled() {
+        Timeout timeout = this.cancelled.getAndSet(null);
+        while (timeout != null) {
+            Timeout next = timeout.nextCancelled;
+            timeout.nextCancelled = null;
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+            this.size.decrementAndGet();
+            timeout = next;
+        }
+    }
+
+    /**
+     * Fire the timers of a bucket that are due this turn of the ring.  A
+     * failing task is reported and does not stop the others.
+     *
+     * @param bucket the bucket of the current tick
+     */
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.rounds > 0) {
+                --timeout.rounds;
+                timeout = timeout.next;
+                continue;
+            }
+            Timeout next = bucket.remove(timeout);
+            if (Timeout.STATE.compareAndSet(timeout, ARMED, EXPIRED)) {
+                this.size.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    AsyncLog.get().log(AsyncLog.Level.ERROR, "TIMER_FAILED", this.thread.getName() + " " + e);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Stop the wheel.  Timers that have not fired never will.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.thread.interrupt();
+    }
+}
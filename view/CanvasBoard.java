@@ -0,0 +1,244 @@
+package view;
+
+import common.ProtocolCodec;
+import controller.ConcentrationController;
+import javafx.application.Platform;
+import javafx.geometry.VPos;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+import model.ConcentrationModel;
+
+/**
+ * The board drawn onto a single Canvas instead of a button per cell, so
+ * the scene graph stays the same size however large the board is.  A
+ * click is mapped to its cell by its coordinates, and a card that changed
+ * marks its cell dirty; the dirty cells are redrawn from the CardAtlas on
+ * the next pulse, together, and nothing else is.
+ *
+ * The pairs of a board with more pairs than there are pictures share the
+ * pictures, so every face gets something of its pair's own: its name over
+ * the picture, or on boards over MAX_CANVAS / MIN_CELL a side, whose cells
+ * are too small to read a name or make out a picture, a colour no other
+ * pair has.  Cells never shrink below MIN_CELL while the canvas fits in
+ * MAX_CANVAS pixels a side, the board scrolls instead.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class CanvasBoard {
+    /**
+     * the largest cell, the size of the card pictures
+     */
+    private final static int MAX_CELL = 100;
+    /**
+     * the smallest cell the name of a pair fits on, boards that do not fit
+     * at this size scroll
+     */
+    private final static int MIN_CELL = 16;
+    /**
+     * the width and height the board is fitted into
+     */
+    private final static int MAX_BOARD = 800;
+    /**
+     * the largest width and height of the canvas, the size of the
+     * texture it is drawn into
+     */
+    private final static int MAX_CANVAS = 4096;
+
+    /**
+     * the canvas the board is drawn on
+     */
+    private final Canvas canvas;
+    /**
+     * draws on the canvas
+     */
+    private final GraphicsContext graphics;
+    /**
+     * the board drawn
+     */
+    private final ConcentrationModel model;
+    /**
+     * the picture of every card
+     */
+    private final CardAtlas atlas;
+    /**
+     * dimension of the board
+     */
+    private final int dim;
+    /**
+     * the width and height of a cell, in pixels
+     */
+    private final int cell;
+    /**
+     * whether the pairs share the pictures, so every face is marked as its own pair's
+     */
+    private final boolean shared;
+    /**
+     * the cells to redraw, the first dirtyCount of them
+     */
+    private final int[] dirty;
+    /**
+     * whether every cell is in dirty, by cell
+     */
+    private final boolean[] isDirty;
+    /**
+     * the number of cells to redraw
+     */
+    private int dirtyCount;
+    /**
+     * whether a redraw is queued on the FX thread
+     */
+    private boolean redrawQueued;
+
+    /**
+     * Create the board and draw every cell as the model has it.  A click
+     * reveals the card under it through the controller.  Called on the FX
+     * thread.
+     *
+     * @param model the board to draw
+     * @param atlas the picture of every card
+     * @param controller where the clicks go
+     */
+    public CanvasBoard(ConcentrationModel model, CardAtlas atlas, ConcentrationController controller) {
+        this.model = model;
+        this.atlas = atlas;
+        this.dim = model.getDim();
+        int fitted = Math.max(MIN_CELL, Math.min(MAX_CELL, MAX_BOARD / Math.max(1, this.dim)));
+        this.cell = Math.max(1, Math.min(fitted, MAX_CANVAS / Math.max(1, this.dim)));
+        this.shared = this.dim * this.dim / 2 > ConcentrationModel.Card.PICTURES;
+        this.canvas = new Canvas(this.dim * this.cell, this.dim * this.cell);
+        this.graphics = this.canvas.getGraphicsContext2D();
+        this.graphics.setFont(Font.font(this.cell / 3.0));
+        this.graphics.setTextAlign(TextAlignment.CENTER);
+        this.graphics.setTextBaseline(VPos.CENTER);
+        this.dirty = new int[this.dim * this.dim];
+        this.isDirty = new boolean[this.dim * this.dim];
+        this.canvas.setOnMouseClicked(event -> {
+            int row = (int) (event.getY() / this.cell);
+            int col = (int) (event.getX() / this.cell);
+            if (event.getX() >= 0 && event.getY() >= 0 && row < this.dim && col < this.dim) {
+                controller.sendRequest(row, col, null);
+            }
+        });
+        for (ConcentrationModel.Card card : ConcentrationModel.Card.values()) {
+            Image image = atlas.get(card);
+            if (image.getProgress() < 1) {
+                // still decoding, the cells drawn meanwhile are drawn again once it is done
+                image.progressProperty().addListener((observable, before, now) -> {
+                    if (now.doubleValue() >= 1) {
+                        markAll();
+                    }
+                });
+            }
+        }
+        markAll();
+    }
+
+    /**
+     * Get the node showing the board, scrolling if the board does not fit.
+     *
+     * @return the node
+     */
+    public Node getView() {
+        return this.dim * this.cell > MAX_BOARD ? new ScrollPane(this.canvas) : this.canvas;
+    }
+
+    /**
+     * Redraw a card that was revealed or turned back over.  Called on the
+     * FX thread.
+     *
+     * @param row row of the card's position
+     * @param col column of the card's position
+     */
+    public void cardChanged(int row, int col) {
+        mark(row * this.dim + col);
+    }
+
+    /**
+     * Mark every cell dirty.
+     */
+    private void markAll() {
+        for (int i = 0; i < this.dirty.length; ++i) {
+            mark(i);
+        }
+    }
+
+    /**
+     * Mark a cell dirty and queue a redraw unless one is queued.
+     *
+     * @param cell row * dim + col
+     */
+    private void mark(int cell) {
+        if (!this.isDirty[cell]) {
+            this.isDirty[cell] = true;
+            this.dirty[this.dirtyCount++] = cell;
+        }
+        if (!this.redrawQueued) {
+            this.redrawQueued = true;
+            Platform.runLater(this::redraw);
+        }
+    }
+
+    /**
+     * Draw the dirty cells, and only them.
+     */
+    private void redraw() {
+        this.redrawQueued = false;
+        for (int i = 0; i < this.dirtyCount; ++i) {
+            int cell = this.dirty[i];
+            this.isDirty[cell] = false;
+            draw(cell / this.dim, cell % this.dim);
+        }
+        this.dirtyCount = 0;
+    }
+
+    /**
+     * Draw one cell as the model has it, face down or with its picture,
+     * and the name of its pair if the pairs share the pictures.  A cell too
+     * small for the name shows the colour of its pair instead.
+     *
+     * @param row row of the card's position
+     * @param col column of the card's position
+     */
+    private void draw(int row, int col) {
+        int pair = this.model.getPair(row, col);
+        ConcentrationModel.Card card = pair == ConcentrationModel.HIDDEN
+                ? ConcentrationModel.Card.def : ConcentrationModel.Card.forPair(pair);
+        double x = col * this.cell;
+        double y = row * this.cell;
+        this.graphics.setFill(Color.WHITE);
+        this.graphics.fillRect(x, y, this.cell, this.cell);
+        if (this.shared && pair != ConcentrationModel.HIDDEN && this.cell < MIN_CELL) {
+            this.graphics.setFill(colour(pair));
+            this.graphics.fillRect(x, y, this.cell, this.cell);
+            return;
+        }
+        this.graphics.drawImage(this.atlas.get(card), x + 1, y + 1, this.cell - 2, this.cell - 2);
+        if (this.shared && pair != ConcentrationModel.HIDDEN) {
+            double size = this.cell / 2.0;
+            this.graphics.fillRect(x + (this.cell - size) / 2, y + (this.cell - size) / 2, size, size);
+            this.graphics.setFill(Color.BLACK);
+            this.graphics.fillText(ProtocolCodec.pairName(pair), x + this.cell / 2.0, y + this.cell / 2.0,
+                    this.cell - 2);
+        }
+    }
+
+    /**
+     * Get the colour of a pair, different for every pair.  The pair number
+     * is multiplied by an odd constant modulo 2^24, which maps the numbers
+     * below 2^24 one to one onto the RGB colours, and pairs next to each
+     * other get colours far apart.
+     *
+     * @param pair the pair number, below 2^24
+     * @return its colour
+     */
+    private static Color colour(int pair) {
+        int rgb = (pair * 0x9e3779) & 0xffffff;
+        return Color.rgb(rgb >>> 16, (rgb >>> 8) & 0xff, rgb & 0xff);
+    }
+}
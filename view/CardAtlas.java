@@ -0,0 +1,43 @@
+package view;
+
+import javafx.scene.image.Image;
+import model.ConcentrationModel;
+
+import java.util.EnumMap;
+
+/**
+ * The picture of every card, decoded once and shared by every view of the
+ * board, so turning a card over only changes which image a view shows.
+ * The images are loaded in the background by JavaFX, off the FX thread, and
+ * a view shows its image as soon as it is decoded, so the first frame never
+ * waits for them.
+ *
+ * @author Mayurreddy Sangepu
+ */
+public class CardAtlas {
+    /**
+     * the picture of every card, by card
+     */
+    private final EnumMap<ConcentrationModel.Card, Image> images;
+
+    /**
+     * Start decoding the picture of every card.
+     */
+    public CardAtlas() {
+        this.images = new EnumMap<>(ConcentrationModel.Card.class);
+        for (ConcentrationModel.Card card : ConcentrationModel.Card.values()) {
+            String url = getClass().getResource(card.value + ".png").toExternalForm();
+            this.images.put(card, new Image(url, true));
+        }
+    }
+
+    /**
+     * Get the picture of a card, which may still be decoding.
+     *
+     * @param card the card, def for a card face down
+     * @return its picture
+     */
+    public Image get(ConcentrationModel.Card card) {
+        return this.images.get(card);
+    }
+}
@@ -31,9 +31,14 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
      */
     private final static int LABEL_FONT_SIZE = 20;
     /**
-     *    declaring default image
+     * the largest board drawn as a grid of buttons, larger ones are drawn on
+     * a canvas; up to it every pair has a picture of its own
      */
-    private static Image default_image;
+    private final static int GRID_MAX_DIM = 6;
+    /**
+     *    the picture of every card, decoded once
+     */
+    private CardAtlas atlas;
      /**
      *     declaring first label1
      */
@@ -61,12 +66,19 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
     private ConcentrationController controller;
 
     /**
-     * initialize model and the default image
-     * to be placed on the board
+     * whether the board is drawn on a canvas rather than as buttons
+     */
+    private boolean useCanvas;
+
+    /**
+     * the board drawn on a canvas, null when it is a grid of buttons
+     */
+    private CanvasBoard canvasBoard;
+
+    /**
+     * initialize model
      */
     public  ConcentrationGUI(){
-        default_image = new Image(getClass().getResourceAsStream(
-                "pokeball.png"));
         this.model = new ConcentrationModel();
     }
 
@@ -83,21 +95,26 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
     /**
      * It initializes the connection i.e.,
      * this method adds the current object
-     * to the observer and creates controller instance
+     * to the observer and creates controller instance.
+     * It runs off the FX thread, and the card images
+     * start decoding before it connects
      */
     public void init(){
+        this.atlas = new CardAtlas();
         this.model.addObserver(this);
         List<String> args = getParameters().getRaw();
-        if(args.size()!=2)
+        if(args.size()!=2 && (args.size()!=3 || !args.get(2).equals("--canvas")))
         {
             System.err.println(
-                    "Usage: java ConcentrationClient <host name> <port number>");
+                    "Usage: java ConcentrationClient <host name> <port number> [--canvas]");
             System.exit(1);
         }
+        this.useCanvas = args.size()==3;
         String hostName = args.get(0);
         try {
             int portNumber = Integer.parseInt(args.get(1));
             this.controller = new ConcentrationController(hostName,portNumber,this.model);
+            this.useCanvas |= this.model.getDim() > GRID_MAX_DIM;
         }catch (UnknownHostException ue) {
             System.err.println("Invalid host " + hostName);
             System.exit(1);
@@ -122,7 +139,7 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
 
         for (int row = 0; row< this.model.getDim(); ++row) {
             for (int col = 0; col< this.model.getDim(); ++col) {
-                cellButton button = new cellButton(default_image);
+                cellButton button = new cellButton(getImage(ConcentrationModel.Card.def));
                 int finalRow = row;
                 int finalCol = col;
                 button.setOnAction(event -> this.controller.sendRequest(finalRow,finalCol,button));
@@ -136,66 +153,40 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
      * class that represents button on the grid
      */
     public class cellButton extends Button {
+        /**
+         * the view of the card, kept for the life of the button
+         */
+        private final ImageView view;
+
         /**
          * Create the button with the image based on the players.
          *
          * @param card Image of pokeball
          */
         public cellButton(Image card) {
-            this.setGraphic(new ImageView(card));
+            this.view = new ImageView(card);
+            this.setGraphic(this.view);
+        }
+
+        /**
+         * Show another card in the same view.
+         *
+         * @param card Image of the card
+         */
+        public void show(Image card) {
+            this.view.setImage(card);
         }
     }
 
     /**
-     * Returns Image based on the card value.
+     * Returns Image based on the card value.  Every image was decoded
+     * once, so this is a lookup.
      * @param card Card value
      * @return returns image to be updated
      */
     public Image getImage(ConcentrationModel.Card card)
     {
-        Image image = switch (card) {
-            case A -> new Image(getClass().getResourceAsStream(
-                    "abra.png"));
-            case B -> new Image(getClass().getResourceAsStream(
-                    "bulbasaur.png"));
-            case C -> new Image(getClass().getResourceAsStream(
-                    "charizard.png"));
-            case D -> new Image(getClass().getResourceAsStream(
-                    "diglett.png"));
-            case E -> new Image(getClass().getResourceAsStream(
-                    "golbat.png"));
-            case F -> new Image(getClass().getResourceAsStream(
-                    "golem.png"));
-            case G -> new Image(getClass().getResourceAsStream(
-                    "jigglypuff.png"));
-            case H -> new Image(getClass().getResourceAsStream(
-                    "magikarp.png"));
-            case I -> new Image(getClass().getResourceAsStream(
-                    "meowth.png"));
-            case J -> new Image(getClass().getResourceAsStream(
-                    "mewtwo.png"));
-            case K -> new Image(getClass().getResourceAsStream(
-                    "natu.png"));
-            case L -> new Image(getClass().getResourceAsStream(
-                    "pidgey.png"));
-            case M -> new Image(getClass().getResourceAsStream(
-                    "pikachu.png"));
-            case N -> new Image(getClass().getResourceAsStream(
-                    "squirtle.png"));
-            case O -> new Image(getClass().getResourceAsStream(
-                    "poliwag.png"));
-            case P -> new Image(getClass().getResourceAsStream(
-                    "psyduck.png"));
-            case Q -> new Image(getClass().getResourceAsStream(
-                    "rattata.png"));
-            case R -> new Image(getClass().getResourceAsStream(
-                    "slowpoke.png"));
-            case S -> new Image(getClass().getResourceAsStream(
-                    "snorlak.png"));
-            default -> default_image;
-        };
-
-        return image;
+        return this.atlas.get(card);
     }
 
     /**
@@ -211,8 +202,14 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
         label.setStyle("-fx-font: " + LABEL_FONT_SIZE + " arial;");
         borderPane.setTop(label);
         BorderPane.setAlignment(label, Pos.CENTER);
-        this.gridPane = makeGridPane();
-        borderPane.setCenter(this.gridPane);
+        if(this.useCanvas) {
+            this.canvasBoard = new CanvasBoard(this.model, this.atlas, this.controller);
+            borderPane.setCenter(this.canvasBoard.getView());
+        }
+        else {
+            this.gridPane = makeGridPane();
+            borderPane.setCenter(this.gridPane);
+        }
         BorderPane innerPane = new BorderPane();
         this.label1 = new Label("Moves: "+this.model.getMovesMade());
         this.label2 = new Label("Matches: "+this.model.getMatchesMade());
@@ -235,9 +232,12 @@ public class ConcentrationGUI extends Application implements Observer<Concentrat
      * @param card the button and image to be updated
      */
     private void refresh(ConcentrationModel.CardUpdate card) {
-        if(card!=null && card.getButton()!=null) {
+        if(card!=null && this.canvasBoard!=null) {
+            this.canvasBoard.cardChanged(card.getRow(), card.getCol());
+        }
+        else if(card!=null && card.getButton()!=null) {
             cellButton btt = card.getButton();
-            btt.setGraphic(new ImageView(getImage(card.getCard())));
+            btt.show(getImage(card.getCard()));
         }
         this.label1.setText("Moves: "+this.model.getMovesMade());
         this.label2.setText("Matches: "+this.model.getMatchesMade());